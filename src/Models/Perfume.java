@@ -11,8 +11,17 @@ public class Perfume {
     public static final int RECORD_SIZE = 256; // Tamanho total do registro
     private static final int CHECKSUM_BYTES = Long.BYTES; // 8 bytes para o checksum CRC32
 
-    private static final int MAX_NAME_BYTES = 80; // Espaço fixo para o nome
-    private static final int MAX_BRAND_BYTES = 80; // Espaço fixo para a marca
+    static final int MAX_NAME_BYTES = 80; // Espaço fixo para o nome
+    static final int MAX_BRAND_BYTES = 80; // Espaço fixo para a marca
+
+    // Posição de cada campo no registro serializado, para leituras que não desserializam tudo
+    static final int OFFSET_ID = CHECKSUM_BYTES;
+    static final int OFFSET_NOME = OFFSET_ID + Integer.BYTES;              // [int tamanho][bytes]
+    static final int OFFSET_MARCA = OFFSET_NOME + Integer.BYTES + MAX_NAME_BYTES;
+    static final int OFFSET_VALOR = OFFSET_MARCA + Integer.BYTES + MAX_BRAND_BYTES;
+    static final int OFFSET_ESTOQUE = OFFSET_VALOR + Integer.BYTES;
+    static final int OFFSET_ATIVO = OFFSET_ESTOQUE + Integer.BYTES;
+    static final int OFFSET_VERSION = OFFSET_ATIVO + 1;
 
     private int id;
     private String nome;
@@ -82,14 +91,15 @@ public class Perfume {
     public String toString() {
         return "Perfume" +
                "\n id=" + id +
-               "\n nome='" + nome +
-               "\n marca='" + marca +
+               "\n nome='" + getNome() +
+               "\n marca='" + getMarca() +
                "\n valor=" + String.format("%.2f", (double)valor / 100.0) +
                "\n estoque=" + estoque +
                "\n ativo=" + ativo +
                "\n version =" + version + "\n";
     }
     // --- Métodos de Serialização e Desserialização ---
+    // Usa os getters (e não os campos) para que subclasses que carregam campos sob demanda serializem certo
     public byte[] toByteArray() {
         ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
         buffer.position(CHECKSUM_BYTES); // Deixa espaço para o checksum
@@ -97,7 +107,7 @@ public class Perfume {
         // Escreve os dados do perfume
         buffer.putInt(this.id);
         
-        byte[] nomeBytes = this.nome.getBytes(StandardCharsets.UTF_8);
+        byte[] nomeBytes = getNome().getBytes(StandardCharsets.UTF_8);
         int nomeLen = Math.min(nomeBytes.length, MAX_NAME_BYTES);
         buffer.putInt(nomeLen); // Comprimento real do nome
         buffer.put(nomeBytes, 0, nomeLen); // Bytes do nome
@@ -105,7 +115,7 @@ public class Perfume {
             buffer.put((byte) 0);
         }
 
-        byte[] marcaBytes = this.marca.getBytes(StandardCharsets.UTF_8);
+        byte[] marcaBytes = getMarca().getBytes(StandardCharsets.UTF_8);
         int marcaLen = Math.min(marcaBytes.length, MAX_BRAND_BYTES);
         buffer.putInt(marcaLen); // Comprimento real da marca
         buffer.put(marcaBytes, 0, marcaLen); // Bytes da marca
@@ -139,29 +149,52 @@ public class Perfume {
         return buffer.array(); // Retorna o array de bytes completo (RECORD_SIZE)
     }
 
-    public static Perfume fromByteArray(byte[] data) {
+    // Grava valor e estoque direto num registro serializado (já validado), incrementando a versão e
+    // recalculando o checksum. Nome e marca ficam como estão, sem conversão nem criptografia.
+    public static void alterarCamposNumericos(byte[] registro, int valor, int estoque) {
+        ByteBuffer buffer = ByteBuffer.wrap(registro);
+        buffer.putInt(OFFSET_VALOR, valor);
+        buffer.putInt(OFFSET_ESTOQUE, estoque);
+        buffer.putInt(OFFSET_VERSION, buffer.getInt(OFFSET_VERSION) + 1);
+        CRC32 crc = new CRC32();
+        crc.update(registro, CHECKSUM_BYTES, RECORD_SIZE - CHECKSUM_BYTES);
+        buffer.putLong(0, crc.getValue());
+    }
+
+    // Confere o tamanho e o checksum de um registro serializado, informando o erro como fromByteArray().
+    static boolean registroValido(byte[] data) {
         if (data == null || data.length != RECORD_SIZE) {
             System.err.println("Erro: Array de bytes inválido para desserialização. Tamanho esperado: " + RECORD_SIZE + ", recebido: " + (data == null ? "null" : data.length));
-            return null;
+            return false;
         }
 
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        
-        // 1. Validar Checksum
-        long storedChecksum = buffer.getLong(); // Lê o checksum armazenado
-        
-        byte[] recordDataWithoutChecksum = new byte[RECORD_SIZE - CHECKSUM_BYTES];
-        buffer.get(recordDataWithoutChecksum); // Lê os dados após o checksum para calcular
-        
+        long storedChecksum = ByteBuffer.wrap(data).getLong(); // Lê o checksum armazenado
+
         CRC32 crc = new CRC32();
-        crc.update(recordDataWithoutChecksum, 0, recordDataWithoutChecksum.length);
+        crc.update(data, CHECKSUM_BYTES, RECORD_SIZE - CHECKSUM_BYTES); // Dados após o checksum
         long calculatedChecksum = crc.getValue();
 
         if (storedChecksum != calculatedChecksum) {
             System.err.println("Erro de Checksum: Dados corrompidos! Armazenado: " + storedChecksum + ", Calculado: " + calculatedChecksum);
+            return false;
+        }
+        return true;
+    }
+
+    // Lê um campo de texto ([int tamanho][bytes de tamanho fixo]) de um registro serializado.
+    static String lerTexto(byte[] data, int offset, int maxBytes) {
+        int tamanho = ByteBuffer.wrap(data).getInt(offset);
+        return new String(data, offset + Integer.BYTES, Math.max(0, Math.min(tamanho, maxBytes)), StandardCharsets.UTF_8);
+    }
+
+    public static Perfume fromByteArray(byte[] data) {
+        // 1. Validar tamanho e checksum
+        if (!registroValido(data)) {
             return null; // Retorna nulo se o checksum falhar
         }
 
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
         // 2. Desserializar os dados (após pular o checksum ou recarregando o buffer a partir do CHECKSUM_BYTES)
         buffer.position(CHECKSUM_BYTES); // Garante que a leitura de dados RECOMECE após o checksum
 
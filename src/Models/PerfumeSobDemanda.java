@@ -0,0 +1,85 @@
+package Models;
+
+import java.nio.ByteBuffer;
+import java.util.function.UnaryOperator;
+
+// Perfume lido do disco cujos campos de texto só são convertidos e descriptografados no primeiro acesso.
+// Quem usa apenas valor, estoque ou ativo (checagem de estoque, filtro de ativos) não paga a decifragem
+// das strings. Os campos numéricos são lidos na criação, como em Perfume.fromByteArray().
+public class PerfumeSobDemanda extends Perfume {
+
+    private final UnaryOperator<String> decodificador;
+    private byte[] registro; // Liberado quando nome e marca já foram resolvidos
+    private boolean nomeResolvido = false;
+    private boolean marcaResolvida = false;
+
+    private PerfumeSobDemanda(byte[] registro, UnaryOperator<String> decodificador, int id, int valor, int estoque) {
+        super(id, "", "", valor, estoque);
+        this.registro = registro;
+        this.decodificador = decodificador;
+    }
+
+    /**
+     * Cria o perfume a partir de um registro serializado, validando tamanho e checksum.
+     *
+     * @param decodificador Aplicado ao nome e à marca no primeiro acesso (ex.: a descriptografia); null
+     *                      para usar os textos como estão no registro.
+     * @return O perfume, ou null se o registro for inválido.
+     */
+    public static PerfumeSobDemanda fromByteArray(byte[] data, UnaryOperator<String> decodificador) {
+        if (!registroValido(data)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        PerfumeSobDemanda p = new PerfumeSobDemanda(data, decodificador, buffer.getInt(OFFSET_ID),
+                buffer.getInt(OFFSET_VALOR), buffer.getInt(OFFSET_ESTOQUE));
+        p.setAtivo(data[OFFSET_ATIVO] == 1);
+        p.setVersion(buffer.getInt(OFFSET_VERSION));
+        return p;
+    }
+
+    @Override
+    public synchronized String getNome() {
+        if (!nomeResolvido) {
+            super.setNome(decodificar(OFFSET_NOME, MAX_NAME_BYTES));
+            nomeResolvido = true;
+            liberarRegistro();
+        }
+        return super.getNome();
+    }
+
+    @Override
+    public synchronized String getMarca() {
+        if (!marcaResolvida) {
+            super.setMarca(decodificar(OFFSET_MARCA, MAX_BRAND_BYTES));
+            marcaResolvida = true;
+            liberarRegistro();
+        }
+        return super.getMarca();
+    }
+
+    @Override
+    public synchronized void setNome(String nome) {
+        super.setNome(nome);
+        nomeResolvido = true;
+        liberarRegistro();
+    }
+
+    @Override
+    public synchronized void setMarca(String marca) {
+        super.setMarca(marca);
+        marcaResolvida = true;
+        liberarRegistro();
+    }
+
+    private String decodificar(int offset, int maxBytes) {
+        String texto = lerTexto(registro, offset, maxBytes);
+        return decodificador == null ? texto : decodificador.apply(texto);
+    }
+
+    private void liberarRegistro() {
+        if (nomeResolvido && marcaResolvida) {
+            registro = null;
+        }
+    }
+}
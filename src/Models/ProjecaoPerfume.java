@@ -0,0 +1,43 @@
+package Models;
+
+import java.nio.ByteBuffer;
+
+// Somente os campos numéricos de um registro de perfume, lidos direto das posições fixas do registro
+// serializado. Nome e marca nunca são convertidos nem descriptografados.
+public final class ProjecaoPerfume {
+
+    private final int id;
+    private final int valor;
+    private final int estoque;
+    private final boolean ativo;
+    private final int version;
+
+    private ProjecaoPerfume(int id, int valor, int estoque, boolean ativo, int version) {
+        this.id = id;
+        this.valor = valor;
+        this.estoque = estoque;
+        this.ativo = ativo;
+        this.version = version;
+    }
+
+    // Lê a projeção de um registro serializado, validando tamanho e checksum. Retorna null se inválido.
+    public static ProjecaoPerfume fromByteArray(byte[] data) {
+        if (!Perfume.registroValido(data)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        return new ProjecaoPerfume(buffer.getInt(Perfume.OFFSET_ID), buffer.getInt(Perfume.OFFSET_VALOR),
+                buffer.getInt(Perfume.OFFSET_ESTOQUE), data[Perfume.OFFSET_ATIVO] == 1, buffer.getInt(Perfume.OFFSET_VERSION));
+    }
+
+    public int getId() { return id; }
+    public int getValor() { return valor; }
+    public int getEstoque() { return estoque; }
+    public boolean isAtivo() { return ativo; }
+    public int getVersion() { return version; }
+
+    @Override
+    public String toString() {
+        return "ProjecaoPerfume[id=" + id + ", valor=" + valor + ", estoque=" + estoque + ", ativo=" + ativo + ", version=" + version + "]";
+    }
+}
@@ -0,0 +1,162 @@
+package Services;
+
+import Structures.GerenciadorEspaco;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Alocação de espaço novo no fim do arquivo de dados. O arquivo cresce em extensões pré-alocadas e
+// entregues em trechos contíguos a um número fixo de arenas (uma por processador). Cada thread aloca
+// na arena escolhida pelo seu ID, com o lock só daquela arena: o ponteiro compartilhado do fim só é
+// tocado uma vez por trecho, não por registro.
+//
+// As arenas não pertencem às threads, então threads de vida curta (uma por requisição, workers de
+// lote) reaproveitam os mesmos trechos: o espaço reservado e ainda não usado fica limitado a um
+// trecho por arena, não a um trecho por thread que já alocou.
+//
+// Os trechos terminam sempre em múltiplos de TAMANHO_TRECHO contados do início dos dados. O que uma
+// arena não usa fica zerado, então a recuperação, ao encontrar um cabeçalho zero, sabe que o resto do
+// trecho está livre e salta direto para o próximo limite (ver proximoLimite()).
+class AlocadorExtensoes {
+
+    static final int TAMANHO_TRECHO = 64 * 1024;
+    static final int TRECHOS_POR_EXTENSAO = 16; // O arquivo cresce 1 MiB por vez
+
+    private final FileChannel canal;
+    private final long inicioDados;
+    private final GerenciadorEspaco gerenciadorEspaco;
+    private final GerenciadorEspaco.MarcadorEspacoLivre marcador;
+
+    private final AtomicLong proximoTrecho;         // Primeiro byte ainda não entregue a nenhuma arena
+    private volatile long fimFisico;                // Tamanho do arquivo, incluindo a parte pré-alocada
+    private final Object lockExtensao = new Object();
+
+    private final Arena[] arenas;
+
+    AlocadorExtensoes(FileChannel canal, long inicioDados, long fimDados,
+                      GerenciadorEspaco gerenciadorEspaco, GerenciadorEspaco.MarcadorEspacoLivre marcador) throws IOException {
+        this.canal = canal;
+        this.inicioDados = inicioDados;
+        this.gerenciadorEspaco = gerenciadorEspaco;
+        this.marcador = marcador;
+        this.proximoTrecho = new AtomicLong(Math.max(inicioDados, fimDados));
+        this.fimFisico = canal.size();
+        this.arenas = new Arena[Math.max(1, Runtime.getRuntime().availableProcessors())];
+        for (int i = 0; i < arenas.length; i++) {
+            arenas[i] = new Arena();
+        }
+    }
+
+    // Limite do trecho que contém a posição: o próximo múltiplo de TAMANHO_TRECHO após ela.
+    static long proximoLimite(long posicao, long inicioDados) {
+        return inicioDados + ((posicao - inicioDados) / TAMANHO_TRECHO + 1) * TAMANHO_TRECHO;
+    }
+
+    /**
+     * Reserva 'tamanho' bytes no fim do arquivo, a partir da arena da thread atual.
+     *
+     * @return O offset reservado.
+     */
+    long alocar(int tamanho) throws IOException {
+        if (tamanho > TAMANHO_TRECHO) {
+            throw new IllegalArgumentException("Registro de " + tamanho + " bytes maior que um trecho de alocação.");
+        }
+        Arena arena = arenas[(int) Math.floorMod(Thread.currentThread().getId(), (long) arenas.length)];
+        synchronized (arena) {
+            // A sobra de uma arena nunca fica com 1 a 3 bytes: precisa ser vazia ou caber um marcador
+            long sobra = arena.fim - arena.posicao;
+            if (sobra != tamanho && sobra < tamanho + GerenciadorEspaco.TAMANHO_MINIMO_SOBRA) {
+                devolverSobra(arena);
+                reservarTrecho(arena);
+            }
+            long posicao = arena.posicao;
+            arena.posicao += tamanho;
+            return posicao;
+        }
+    }
+
+    private void reservarTrecho(Arena arena) throws IOException {
+        long inicio;
+        long fim;
+        do {
+            inicio = proximoTrecho.get();
+            fim = proximoLimite(inicio, inicioDados);
+            if (fim - inicio < GerenciadorEspaco.TAMANHO_MINIMO_SOBRA) {
+                fim += TAMANHO_TRECHO; // Não deixa um trecho pequeno demais para um marcador
+            }
+        } while (!proximoTrecho.compareAndSet(inicio, fim));
+        garantirTamanhoFisico(fim);
+        arena.posicao = inicio;
+        arena.fim = fim;
+    }
+
+    // Estende o arquivo em extensões inteiras, para que a maioria das reservas não precise de syscall.
+    private void garantirTamanhoFisico(long fimNecessario) throws IOException {
+        if (fimNecessario <= fimFisico) {
+            return;
+        }
+        synchronized (lockExtensao) {
+            if (fimNecessario <= fimFisico) {
+                return;
+            }
+            long novoFim = proximoLimite(fimNecessario - 1, inicioDados) + (long) (TRECHOS_POR_EXTENSAO - 1) * TAMANHO_TRECHO;
+            // Gravar o último byte estende o arquivo; o intervalo anterior fica zerado
+            ByteBuffer zero = ByteBuffer.allocate(1);
+            while (zero.hasRemaining()) {
+                canal.write(zero, novoFim - 1);
+            }
+            fimFisico = novoFim;
+        }
+    }
+
+    // Devolve ao gerenciador de espaço o que a arena não usou, com o marcador no arquivo.
+    private void devolverSobra(Arena arena) throws IOException {
+        long sobra = arena.fim - arena.posicao;
+        if (sobra > 0) {
+            marcador.marcar(arena.posicao, (int) sobra);
+            gerenciadorEspaco.addFreeBlock(arena.posicao, (int) sobra);
+        }
+        arena.posicao = arena.fim;
+    }
+
+    /**
+     * Devolve a sobra de todas as arenas e corta do arquivo a parte pré-alocada que nenhuma arena
+     * recebeu. Deve ser chamado sem alocações em andamento (com o lock de escrita global).
+     *
+     * @return O novo tamanho do arquivo.
+     */
+    long liberarArenas() throws IOException {
+        for (Arena arena : arenas) {
+            synchronized (arena) {
+                devolverSobra(arena);
+            }
+        }
+        synchronized (lockExtensao) {
+            long fimLogico = proximoTrecho.get();
+            if (canal.size() > fimLogico) {
+                canal.truncate(fimLogico);
+            }
+            fimFisico = canal.size();
+            return fimFisico;
+        }
+    }
+
+    // Ajusta o fim após o arquivo ser truncado. Também sem alocações em andamento.
+    void redefinirFim(long novoFim) throws IOException {
+        synchronized (lockExtensao) {
+            proximoTrecho.set(Math.max(inicioDados, novoFim));
+            fimFisico = canal.size();
+        }
+    }
+
+    // Fim da área entregue às arenas (o tamanho lógico dos dados).
+    long getFimAlocado() {
+        return proximoTrecho.get();
+    }
+
+    private static class Arena {
+        long posicao = 0;
+        long fim = 0;
+    }
+}
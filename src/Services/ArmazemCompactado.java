@@ -0,0 +1,100 @@
+package Services;
+
+import Models.Perfume;
+import Models.PerfumeSobDemanda;
+import Models.ProjecaoPerfume;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+
+// Acesso somente leitura a um arquivo exportado em blocos comprimidos (PerfumesCompact.dat), com os
+// segmentos delta aplicados por cima. Oferece as mesmas consultas do GerenciadorArquivos, então quem
+// só precisa ler pode usar o arquivo compactado diretamente, com menos espaço em disco e menos I/O.
+public class ArmazemCompactado implements AutoCloseable {
+
+    private final ArquivoBlocosComprimidos base;
+    private final Map<Integer, byte[]> deltas;
+    private final CriptografiaColunar criptografador;
+
+    public ArmazemCompactado(Path caminhoBase) throws IOException {
+        if (!Files.exists(caminhoBase)) {
+            throw new IOException("Arquivo compactado não encontrado: " + caminhoBase);
+        }
+        this.base = ArquivoBlocosComprimidos.abrir(caminhoBase);
+        this.deltas = ExportadorIncremental.lerDeltas(caminhoBase);
+        this.criptografador = new CriptografiaColunar(GerenciadorArquivos.CHAVE_CRIPTOGRAFIA);
+    }
+
+    // Busca um perfume pelo ID. Nome e marca são descriptografados no primeiro acesso.
+    public Optional<Perfume> buscar(int id) throws IOException {
+        byte[] dados = deltas.containsKey(id) ? deltas.get(id) : base.lerRegistro(id);
+        if (dados == null) {
+            return Optional.empty();
+        }
+        Perfume perfume = PerfumeSobDemanda.fromByteArray(dados, criptografador::descriptografar);
+        if (perfume == null || perfume.getId() != id || !perfume.isAtivo()) {
+            return Optional.empty();
+        }
+        return Optional.of(perfume);
+    }
+
+    // Lê apenas os campos numéricos de um perfume ativo, sem tocar em nome e marca.
+    public Optional<ProjecaoPerfume> buscarProjecao(int id) throws IOException {
+        byte[] dados = deltas.containsKey(id) ? deltas.get(id) : base.lerRegistro(id);
+        if (dados == null) {
+            return Optional.empty();
+        }
+        ProjecaoPerfume projecao = ProjecaoPerfume.fromByteArray(dados);
+        if (projecao == null || projecao.getId() != id || !projecao.isAtivo()) {
+            return Optional.empty();
+        }
+        return Optional.of(projecao);
+    }
+
+    // IDs ativos no arquivo compactado, em ordem crescente.
+    public List<Integer> buscarTodosIds() {
+        TreeSet<Integer> ids = new TreeSet<>();
+        for (int id : base.getIds()) {
+            ids.add(id);
+        }
+        for (Map.Entry<Integer, byte[]> alteracao : deltas.entrySet()) {
+            if (alteracao.getValue() == null) {
+                ids.remove(alteracao.getKey());
+            } else {
+                ids.add(alteracao.getKey());
+            }
+        }
+        return new ArrayList<>(ids);
+    }
+
+    public List<Perfume> buscarPorPadrao(String padrao) throws IOException {
+        List<Perfume> resultados = new ArrayList<>();
+        String padraoLowerCase = padrao.toLowerCase();
+        // Percorre em ordem de ID, que é a ordem dos blocos, para aproveitar o cache de blocos
+        for (int id : buscarTodosIds()) {
+            Optional<Perfume> pOpt = buscar(id);
+            if (pOpt.isPresent()) {
+                Perfume perfume = pOpt.get();
+                if (perfume.getNome().toLowerCase().contains(padraoLowerCase) ||
+                    perfume.getMarca().toLowerCase().contains(padraoLowerCase)) {
+                    resultados.add(perfume);
+                }
+            }
+        }
+        return resultados;
+    }
+
+    public ArquivoBlocosComprimidos getArquivoBase() {
+        return base;
+    }
+
+    @Override
+    public void close() throws IOException {
+        base.close();
+    }
+}
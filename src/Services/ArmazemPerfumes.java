@@ -0,0 +1,71 @@
+package Services;
+
+import Models.Perfume;
+import Models.ProjecaoPerfume;
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// Operações de CRUD sobre os perfumes, comuns ao armazém de um único arquivo (GerenciadorArquivos) e ao
+// dividido em fragmentos (GerenciadorFragmentado). Quem só cria, lê, altera e busca perfumes deve
+// depender desta interface, e não de uma das implementações.
+public interface ArmazemPerfumes extends AutoCloseable {
+
+    // Gera e retorna um novo ID sequencial.
+    int novoID();
+
+    // Cria o perfume; se o ID for 0, atribui um novo com novoID(). IllegalStateException se o ID já existir.
+    void criar(Perfume perfume) throws Exception;
+
+    Optional<Perfume> buscar(int id) throws IOException, InterruptedException;
+
+    // Apenas os campos numéricos do registro, sem descriptografar nome e marca.
+    Optional<ProjecaoPerfume> buscarProjecao(int id) throws IOException, InterruptedException;
+
+    void atualizar(Perfume perfume) throws Exception;
+
+    // Atualiza só se a versão gravada ainda for 'versaoEsperada'; false se o registro foi alterado.
+    boolean atualizarSeVersao(Perfume perfume, int versaoEsperada) throws Exception;
+
+    void deletar(int id) throws Exception;
+
+    boolean deletarSeVersao(int id, int versaoEsperada) throws Exception;
+
+    // Soma 'delta' ao estoque e retorna o novo estoque, sem regravar nome e marca.
+    int ajustarEstoque(int id, int delta) throws IOException, InterruptedException;
+
+    void definirValor(int id, int novoValor) throws IOException, InterruptedException;
+
+    // Cria os perfumes em lote; um resultado por perfume, na ordem da lista.
+    CompletableFuture<List<GerenciadorArquivos.ResultadoLote>> processarLote(List<Perfume> perfumes);
+
+    // Versões assíncronas de criar, buscar, atualizar e deletar: as operações de um mesmo ID concluem
+    // na ordem em que foram chamadas, e as de escrita só concluem com a alteração durável.
+
+    // Atribui o ID (se for 0) antes de retornar; o futuro conclui com ele.
+    CompletableFuture<Integer> criarAsync(Perfume perfume);
+
+    CompletableFuture<Optional<Perfume>> buscarAsync(int id);
+
+    CompletableFuture<Void> atualizarAsync(Perfume perfume);
+
+    CompletableFuture<Void> deletarAsync(int id);
+
+    // IDs de todos os perfumes ativos, em ordem crescente.
+    List<Integer> buscarTodosIds() throws IOException, InterruptedException;
+
+    // Perfumes ativos cujo nome ou marca contém o padrão, sem diferenciar maiúsculas de minúsculas.
+    List<Perfume> buscarPorPadrao(String padrao) throws IOException, InterruptedException;
+
+    // Barreira de durabilidade: tudo o que foi concluído antes da chamada sobrevive a uma queda.
+    void sincronizar() throws IOException;
+
+    int getRegistrosAtivos();
+
+    // Latências por operação, fsync, espera por locks e recursos, em texto (ver MetricasArmazenamento).
+    String relatorioMetricas();
+
+    @Override
+    void close() throws IOException;
+}
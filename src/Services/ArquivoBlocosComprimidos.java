@@ -0,0 +1,381 @@
+package Services;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Arquivo de registros comprimidos em blocos. Os registros são agrupados em blocos de algumas dezenas
+// de KB e cada bloco é comprimido inteiro com LZW, o que aproveita a repetição entre registros vizinhos
+// (nomes de marca, preenchimento, layout dos campos) muito melhor do que comprimir registro a registro.
+// Um índice no fim do arquivo aponta, para cada ID, o bloco e o deslocamento do registro dentro dele,
+// e os blocos descomprimidos ficam num cache LRU para que leituras seguidas não repitam o trabalho.
+// A versão 1 do formato usava o LZWCompressor (códigos fixos de 16 bits); a versão 2 usa o LZWCodec.
+//
+// Formato:
+//   Cabeçalho: [int magic][int versão][int ultimoId][int numBlocos][int numRegistros][long offsetIndice]
+//   Blocos:    bytes comprimidos de [int tamanho][bytes do registro]...
+//   Índice:    por bloco [long offset][int tamanhoComprimido][int tamanhoOriginal],
+//              depois por registro, em ordem de ID, [int id][int bloco][int offsetNoBloco]
+public class ArquivoBlocosComprimidos implements AutoCloseable {
+
+    static final int MAGIC = 0x50424C4B; // "PBLK"
+    private static final int VERSAO_FORMATO = 2;
+    private static final int VERSAO_FORMATO_LZW_FIXO = 1;
+    static final int TAMANHO_CABECALHO = 5 * Integer.BYTES + Long.BYTES;
+    public static final int TAMANHO_BLOCO_PADRAO = 32 * 1024;
+    private static final int CAPACIDADE_CACHE_PADRAO = 64; // Blocos descomprimidos mantidos em memória
+
+    private final FileChannel channel;
+    private final int versao;
+    private final int ultimoId;
+    private final long[] offsetsBlocos;
+    private final int[] tamanhosComprimidos;
+    private final int[] tamanhosOriginais;
+    private final int[] ids;          // Ordenados, para busca binária
+    private final int[] blocoDoId;
+    private final int[] offsetNoBloco;
+    private final Map<Integer, byte[]> cacheBlocos;
+    private final AtomicLong acertosCache = new AtomicLong(0);
+    private final AtomicLong faltasCache = new AtomicLong(0);
+
+    private ArquivoBlocosComprimidos(Path caminho, FileChannel channel, int capacidadeCache) throws IOException {
+        this.channel = channel;
+        long tamanhoArquivo = channel.size();
+        if (tamanhoArquivo < TAMANHO_CABECALHO) {
+            throw new IOException("Arquivo de blocos " + caminho + " truncado: " + tamanhoArquivo + " bytes.");
+        }
+        ByteBuffer cabecalho = lerExato(0, TAMANHO_CABECALHO);
+        if (cabecalho.getInt() != MAGIC) {
+            throw new IOException("Arquivo não está no formato de blocos comprimidos.");
+        }
+        this.versao = cabecalho.getInt();
+        if (versao != VERSAO_FORMATO && versao != VERSAO_FORMATO_LZW_FIXO) {
+            throw new IOException("Versão de formato de blocos não suportada: " + versao);
+        }
+        this.ultimoId = cabecalho.getInt();
+        int numBlocos = cabecalho.getInt();
+        int numRegistros = cabecalho.getInt();
+        long offsetIndice = cabecalho.getLong();
+
+        // O cabeçalho vem do disco: contagens e tamanhos são conferidos antes de qualquer alocação, para que
+        // um arquivo truncado ou corrompido gere um erro em vez de um buffer gigante ou negativo.
+        if (numBlocos < 0 || numRegistros < 0) {
+            throw new IOException("Arquivo de blocos " + caminho + " corrompido: " + numBlocos + " blocos e "
+                    + numRegistros + " registros no cabeçalho.");
+        }
+        long tamanhoIndice = (long) numBlocos * (Long.BYTES + 2 * Integer.BYTES) + (long) numRegistros * 3 * Integer.BYTES;
+        if (offsetIndice < TAMANHO_CABECALHO || tamanhoIndice > tamanhoArquivo - offsetIndice) {
+            throw new IOException("Arquivo de blocos " + caminho + " corrompido ou truncado: índice de " + tamanhoIndice
+                    + " bytes na posição " + offsetIndice + ", arquivo com " + tamanhoArquivo + " bytes.");
+        }
+        ByteBuffer indice = lerExato(offsetIndice, (int) tamanhoIndice);
+        this.offsetsBlocos = new long[numBlocos];
+        this.tamanhosComprimidos = new int[numBlocos];
+        this.tamanhosOriginais = new int[numBlocos];
+        for (int i = 0; i < numBlocos; i++) {
+            offsetsBlocos[i] = indice.getLong();
+            tamanhosComprimidos[i] = indice.getInt();
+            tamanhosOriginais[i] = indice.getInt();
+            if (offsetsBlocos[i] < TAMANHO_CABECALHO || tamanhosComprimidos[i] < 0 || tamanhosOriginais[i] < 0
+                    || tamanhosComprimidos[i] > offsetIndice - offsetsBlocos[i]) {
+                throw new IOException("Arquivo de blocos " + caminho + " corrompido: entrada inválida do bloco " + i + ".");
+            }
+        }
+        this.ids = new int[numRegistros];
+        this.blocoDoId = new int[numRegistros];
+        this.offsetNoBloco = new int[numRegistros];
+        for (int i = 0; i < numRegistros; i++) {
+            ids[i] = indice.getInt();
+            blocoDoId[i] = indice.getInt();
+            offsetNoBloco[i] = indice.getInt();
+            if (blocoDoId[i] < 0 || blocoDoId[i] >= numBlocos || offsetNoBloco[i] < 0
+                    || offsetNoBloco[i] > tamanhosOriginais[blocoDoId[i]] - Integer.BYTES) {
+                throw new IOException("Arquivo de blocos " + caminho + " corrompido: entrada inválida do ID " + ids[i] + ".");
+            }
+        }
+
+        this.cacheBlocos = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+                return size() > capacidadeCache;
+            }
+        };
+    }
+
+    // Abre um arquivo de blocos comprimidos para leitura.
+    public static ArquivoBlocosComprimidos abrir(Path caminho) throws IOException {
+        return abrir(caminho, CAPACIDADE_CACHE_PADRAO);
+    }
+
+    public static ArquivoBlocosComprimidos abrir(Path caminho, int capacidadeCache) throws IOException {
+        FileChannel channel = FileChannel.open(caminho, StandardOpenOption.READ);
+        try {
+            return new ArquivoBlocosComprimidos(caminho, channel, capacidadeCache);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Verifica, pelo número mágico, se o arquivo está no formato de blocos comprimidos.
+    public static boolean isFormatoBlocos(Path caminho) {
+        try (FileChannel channel = FileChannel.open(caminho, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(Integer.BYTES);
+            return channel.read(magic, 0) == Integer.BYTES && magic.getInt(0) == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    // Retorna os bytes do registro com o ID informado, ou null se ele não estiver no arquivo.
+    public byte[] lerRegistro(int id) throws IOException {
+        int i = Arrays.binarySearch(ids, id);
+        if (i < 0) {
+            return null;
+        }
+        byte[] bloco = obterBloco(blocoDoId[i]);
+        ByteBuffer dados = ByteBuffer.wrap(bloco);
+        dados.position(offsetNoBloco[i]);
+        int tamanho = dados.getInt();
+        if (tamanho < 0 || tamanho > dados.remaining()) {
+            throw new IOException("Registro corrompido no bloco " + blocoDoId[i] + " para o ID " + id);
+        }
+        byte[] registro = new byte[tamanho];
+        dados.get(registro);
+        return registro;
+    }
+
+    // IDs presentes no arquivo, em ordem crescente.
+    public int[] getIds() {
+        return ids.clone();
+    }
+
+    public int getUltimoId() {
+        return ultimoId;
+    }
+
+    public int getQuantidadeBlocos() {
+        return offsetsBlocos.length;
+    }
+
+    public long getAcertosCache() {
+        return acertosCache.get();
+    }
+
+    public long getFaltasCache() {
+        return faltasCache.get();
+    }
+
+    // Obtém o bloco descomprimido, do cache ou do disco.
+    private byte[] obterBloco(int indice) throws IOException {
+        synchronized (cacheBlocos) {
+            byte[] bloco = cacheBlocos.get(indice);
+            if (bloco != null) {
+                acertosCache.incrementAndGet();
+                return bloco;
+            }
+        }
+        faltasCache.incrementAndGet();
+        ByteBuffer comprimido = lerExato(offsetsBlocos[indice], tamanhosComprimidos[indice]);
+        byte[] bloco = versao == VERSAO_FORMATO_LZW_FIXO
+                ? LZWCompressor.decompress(comprimido.array())
+                : LZWCodec.descomprimir(comprimido.array());
+        if (bloco.length != tamanhosOriginais[indice]) {
+            throw new IOException("Bloco " + indice + " corrompido: esperado " + tamanhosOriginais[indice] + " bytes, obtido " + bloco.length);
+        }
+        synchronized (cacheBlocos) {
+            cacheBlocos.put(indice, bloco);
+        }
+        return bloco;
+    }
+
+    private ByteBuffer lerExato(long posicao, int tamanho) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(tamanho);
+        while (buffer.hasRemaining()) {
+            int lidos = channel.read(buffer, posicao + buffer.position());
+            if (lidos < 0) {
+                throw new EOFException("Fim inesperado do arquivo de blocos na posição " + (posicao + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (cacheBlocos) {
+            cacheBlocos.clear();
+        }
+        channel.close();
+    }
+
+    // Grava um arquivo de blocos comprimidos. Os registros devem ser adicionados em ordem crescente de ID.
+    // Com um executor, cada bloco fechado é comprimido em paralelo com os seguintes e com a leitura dos
+    // próximos registros; os blocos comprimidos são gravados na ordem em que foram fechados, então o
+    // arquivo gerado é o mesmo da compressão sequencial.
+    public static class Escritor implements AutoCloseable {
+        private final FileChannel channel;
+        private final int tamanhoBloco;
+        private final int ultimoId;
+        private final ExecutorService executor; // null = compressão na própria thread
+        private final int maxBlocosPendentes;
+        private final ArrayDeque<Future<BlocoComprimido>> pendentes = new ArrayDeque<>();
+        private final ByteArrayOutputStream blocoAtual;
+        private final DataOutputStream blocoAtualOut;
+        private final ByteArrayOutputStream indiceBlocos = new ByteArrayOutputStream();
+        private final DataOutputStream indiceBlocosOut = new DataOutputStream(indiceBlocos);
+        private final ByteArrayOutputStream indiceRegistros = new ByteArrayOutputStream();
+        private final DataOutputStream indiceRegistrosOut = new DataOutputStream(indiceRegistros);
+        private long posicaoEscrita = TAMANHO_CABECALHO;
+        private int numBlocos = 0;          // Blocos já gravados no arquivo
+        private int blocosFechados = 0;     // Blocos já entregues à compressão
+        private int numRegistros = 0;
+        private int idAnterior = Integer.MIN_VALUE;
+
+        public Escritor(Path destino, int ultimoId) throws IOException {
+            this(destino, ultimoId, TAMANHO_BLOCO_PADRAO);
+        }
+
+        public Escritor(Path destino, int ultimoId, int tamanhoBloco) throws IOException {
+            this(destino, ultimoId, tamanhoBloco, null, 0);
+        }
+
+        /**
+         * @param executor   Executor onde os blocos são comprimidos; null para comprimir na thread chamadora.
+         * @param paralelismo Quantidade de threads do executor, usada para limitar os blocos em memória.
+         */
+        public Escritor(Path destino, int ultimoId, int tamanhoBloco, ExecutorService executor, int paralelismo) throws IOException {
+            if (tamanhoBloco <= 0) {
+                throw new IllegalArgumentException("O tamanho do bloco deve ser positivo.");
+            }
+            this.channel = FileChannel.open(destino, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.ultimoId = ultimoId;
+            this.tamanhoBloco = tamanhoBloco;
+            this.blocoAtual = new ByteArrayOutputStream(tamanhoBloco + 512);
+            this.blocoAtualOut = new DataOutputStream(blocoAtual);
+            this.executor = executor;
+            // Dois blocos por thread mantêm todos os núcleos ocupados enquanto o mais antigo é gravado
+            this.maxBlocosPendentes = Math.max(1, 2 * paralelismo);
+        }
+
+        public void adicionar(int id, byte[] registro) throws IOException {
+            if (id <= idAnterior) {
+                throw new IllegalArgumentException("Os registros devem ser adicionados em ordem crescente de ID: " + id + " após " + idAnterior);
+            }
+            idAnterior = id;
+            indiceRegistrosOut.writeInt(id);
+            indiceRegistrosOut.writeInt(blocosFechados);
+            indiceRegistrosOut.writeInt(blocoAtual.size());
+            blocoAtualOut.writeInt(registro.length);
+            blocoAtualOut.write(registro);
+            numRegistros++;
+            if (blocoAtual.size() >= tamanhoBloco) {
+                fecharBloco();
+            }
+        }
+
+        private void fecharBloco() throws IOException {
+            if (blocoAtual.size() == 0) {
+                return;
+            }
+            byte[] original = blocoAtual.toByteArray();
+            blocoAtual.reset();
+            blocosFechados++;
+            if (executor == null) {
+                gravarBloco(new BlocoComprimido(LZWCodec.comprimir(original), original.length));
+                return;
+            }
+            pendentes.add(executor.submit(() -> new BlocoComprimido(LZWCodec.comprimir(original), original.length)));
+            gravarConcluidos(false);
+        }
+
+        // Grava, em ordem, os blocos do início da fila que já foram comprimidos. Espera pelo mais antigo
+        // quando há blocos demais em memória ou quando 'todos' é true.
+        private void gravarConcluidos(boolean todos) throws IOException {
+            while (!pendentes.isEmpty() && (todos || pendentes.size() > maxBlocosPendentes || pendentes.peek().isDone())) {
+                try {
+                    gravarBloco(pendentes.poll().get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrompido aguardando a compressão de um bloco.");
+                } catch (ExecutionException e) {
+                    throw new IOException("Falha ao comprimir bloco " + numBlocos, e.getCause());
+                }
+            }
+        }
+
+        private void gravarBloco(BlocoComprimido bloco) throws IOException {
+            escreverTudo(ByteBuffer.wrap(bloco.dados), posicaoEscrita);
+            indiceBlocosOut.writeLong(posicaoEscrita);
+            indiceBlocosOut.writeInt(bloco.dados.length);
+            indiceBlocosOut.writeInt(bloco.tamanhoOriginal);
+            posicaoEscrita += bloco.dados.length;
+            numBlocos++;
+        }
+
+        private void escreverTudo(ByteBuffer dados, long posicao) throws IOException {
+            while (dados.hasRemaining()) {
+                posicao += channel.write(dados, posicao);
+            }
+        }
+
+        public int getNumRegistros() {
+            return numRegistros;
+        }
+
+        // Fecha o último bloco, grava o índice e o cabeçalho e força os dados para o disco.
+        @Override
+        public void close() throws IOException {
+            try {
+                fecharBloco();
+                gravarConcluidos(true);
+                long offsetIndice = posicaoEscrita;
+                escreverTudo(ByteBuffer.wrap(indiceBlocos.toByteArray()), posicaoEscrita);
+                escreverTudo(ByteBuffer.wrap(indiceRegistros.toByteArray()), posicaoEscrita + indiceBlocos.size());
+
+                ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO);
+                cabecalho.putInt(MAGIC);
+                cabecalho.putInt(VERSAO_FORMATO);
+                cabecalho.putInt(ultimoId);
+                cabecalho.putInt(numBlocos);
+                cabecalho.putInt(numRegistros);
+                cabecalho.putLong(offsetIndice);
+                cabecalho.flip();
+                escreverTudo(cabecalho, 0);
+                channel.force(true);
+            } finally {
+                for (Future<BlocoComprimido> pendente : pendentes) {
+                    pendente.cancel(false);
+                }
+                pendentes.clear();
+                channel.close();
+            }
+        }
+    }
+
+    private static class BlocoComprimido {
+        final byte[] dados;
+        final int tamanhoOriginal;
+
+        BlocoComprimido(byte[] dados, int tamanhoOriginal) {
+            this.dados = dados;
+            this.tamanhoOriginal = tamanhoOriginal;
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package Services;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Buffer de escrita adiada do arquivo de dados. As escritas posicionais ficam em memória, ordenadas
+// por posição, e são descarregadas juntas: trechos vizinhos (ou separados por lacunas pequenas, que
+// são completadas com o conteúdo atual do arquivo) saem numa única escrita agrupada com
+// FileChannel.write(ByteBuffer[]). Inserções seguidas, que as arenas alocam lado a lado, viram uma
+// chamada de sistema a cada descarga em vez de uma (mais um fsync) por registro.
+//
+// Toda escrita e leitura da área de dados precisa passar por aqui enquanto o buffer estiver em uso:
+// as leituras sobrepõem o que está pendente ao conteúdo do arquivo, e uma escrita direta dentro de uma
+// lacuna seria sobrescrita pela descarga.
+class BufferEscrita {
+
+    static final int LIMITE_PADRAO = 1024 * 1024; // Bytes pendentes que disparam uma descarga
+    private static final int MAX_LACUNA = 4096;    // Lacunas até este tamanho não quebram uma escrita agrupada
+
+    private final FileChannel canal;
+    private final int limite;
+    private final TreeMap<Long, byte[]> pendentes = new TreeMap<>(); // Trechos sem sobreposição; guardado por this
+    private long bytesPendentes = 0;
+
+    private final AtomicLong escritasRecebidas = new AtomicLong(0);
+    private final AtomicLong chamadasEscrita = new AtomicLong(0);
+    private final AtomicLong leituras = new AtomicLong(0);
+    private final AtomicLong leiturasComPendentes = new AtomicLong(0);
+
+    BufferEscrita(FileChannel canal, int limite) {
+        this.canal = canal;
+        this.limite = limite;
+    }
+
+    /**
+     * Registra a escrita de 'dados' na posição. O array não deve ser alterado depois da chamada.
+     * Sobreposições com escritas ainda pendentes são resolvidas aqui, prevalecendo a mais recente.
+     */
+    synchronized void escrever(long posicao, byte[] dados) throws IOException {
+        escritasRecebidas.incrementAndGet();
+        long fim = posicao + dados.length;
+        long inicioJunto = posicao;
+        long fimJunto = fim;
+        List<Map.Entry<Long, byte[]>> sobrepostos = sobrepostos(posicao, fim);
+        if (sobrepostos.isEmpty()) {
+            pendentes.put(posicao, dados);
+            bytesPendentes += dados.length;
+        } else {
+            for (Map.Entry<Long, byte[]> e : sobrepostos) {
+                inicioJunto = Math.min(inicioJunto, e.getKey());
+                fimJunto = Math.max(fimJunto, e.getKey() + e.getValue().length);
+            }
+            byte[] junto = new byte[(int) (fimJunto - inicioJunto)];
+            for (Map.Entry<Long, byte[]> e : sobrepostos) {
+                System.arraycopy(e.getValue(), 0, junto, (int) (e.getKey() - inicioJunto), e.getValue().length);
+                bytesPendentes -= e.getValue().length;
+                pendentes.remove(e.getKey());
+            }
+            System.arraycopy(dados, 0, junto, (int) (posicao - inicioJunto), dados.length);
+            pendentes.put(inicioJunto, junto);
+            bytesPendentes += junto.length;
+        }
+
+        if (bytesPendentes >= limite) {
+            descarregar();
+        }
+    }
+
+    /**
+     * Lê do arquivo como FileChannel.read(destino, posicao), com as escritas pendentes sobrepostas.
+     * Quem lê deve impedir escritas concorrentes no mesmo trecho (o latch do registro); uma descarga
+     * concorrente é segura porque os trechos pendentes são capturados antes da leitura do arquivo.
+     */
+    int ler(ByteBuffer destino, long posicao) throws IOException {
+        long fim = posicao + destino.remaining();
+        List<Map.Entry<Long, byte[]>> sobrepostos;
+        synchronized (this) {
+            sobrepostos = pendentes.isEmpty() ? Collections.emptyList() : sobrepostos(posicao, fim);
+        }
+
+        int inicioDestino = destino.position();
+        int lidos = canal.read(destino, posicao);
+        leituras.incrementAndGet();
+        if (sobrepostos.isEmpty()) {
+            return lidos;
+        }
+        leiturasComPendentes.incrementAndGet();
+        lidos = Math.max(lidos, 0);
+        for (Map.Entry<Long, byte[]> e : sobrepostos) {
+            long de = Math.max(posicao, e.getKey());
+            long ate = Math.min(fim, e.getKey() + e.getValue().length);
+            ByteBuffer alvo = destino.duplicate();
+            alvo.limit(alvo.capacity()).position(inicioDestino + (int) (de - posicao));
+            alvo.put(e.getValue(), (int) (de - e.getKey()), (int) (ate - de));
+            lidos = Math.max(lidos, (int) (ate - posicao));
+        }
+        destino.position(inicioDestino + lidos);
+        return lidos;
+    }
+
+    // Trechos pendentes que se sobrepõem a [inicio, fim). Copiados, porque as entradas do TreeMap são
+    // reaproveitadas quando outras são removidas. Chamado com o monitor.
+    private List<Map.Entry<Long, byte[]>> sobrepostos(long inicio, long fim) {
+        List<Map.Entry<Long, byte[]>> sobrepostos = new ArrayList<>();
+        Map.Entry<Long, byte[]> anterior = pendentes.lowerEntry(inicio);
+        if (anterior != null && anterior.getKey() + anterior.getValue().length > inicio) {
+            sobrepostos.add(new AbstractMap.SimpleImmutableEntry<>(anterior));
+        }
+        for (Map.Entry<Long, byte[]> e : pendentes.subMap(inicio, true, fim, false).entrySet()) {
+            sobrepostos.add(new AbstractMap.SimpleImmutableEntry<>(e));
+        }
+        return sobrepostos;
+    }
+
+    // Grava no arquivo tudo o que está pendente, sem fsync (ver GerenciadorArquivos.sincronizar()).
+    synchronized void descarregar() throws IOException {
+        if (pendentes.isEmpty()) {
+            return;
+        }
+        List<ByteBuffer> grupo = new ArrayList<>();
+        long inicioGrupo = -1;
+        long fimGrupo = -1;
+        Iterator<Map.Entry<Long, byte[]>> it = pendentes.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, byte[]> e = it.next();
+            long posicao = e.getKey();
+            if (inicioGrupo >= 0 && posicao - fimGrupo > MAX_LACUNA) {
+                gravarGrupo(inicioGrupo, grupo);
+                grupo.clear();
+                inicioGrupo = -1;
+            }
+            if (inicioGrupo < 0) {
+                inicioGrupo = posicao;
+            } else if (posicao > fimGrupo) {
+                grupo.add(lerLacuna(fimGrupo, (int) (posicao - fimGrupo)));
+            }
+            grupo.add(ByteBuffer.wrap(e.getValue()));
+            fimGrupo = posicao + e.getValue().length;
+        }
+        gravarGrupo(inicioGrupo, grupo);
+        pendentes.clear();
+        bytesPendentes = 0;
+    }
+
+    // Conteúdo atual do arquivo numa lacuna entre dois trechos pendentes. Depois do fim do arquivo, zeros.
+    private ByteBuffer lerLacuna(long posicao, int tamanho) throws IOException {
+        ByteBuffer lacuna = ByteBuffer.allocate(tamanho);
+        while (lacuna.hasRemaining()) {
+            if (canal.read(lacuna, posicao + lacuna.position()) < 0) {
+                break;
+            }
+        }
+        lacuna.clear();
+        return lacuna;
+    }
+
+    // A escrita agrupada usa a posição do canal; as demais operações do arquivo são todas posicionais.
+    private void gravarGrupo(long inicio, List<ByteBuffer> grupo) throws IOException {
+        ByteBuffer[] buffers = grupo.toArray(new ByteBuffer[0]);
+        canal.position(inicio);
+        int indice = 0;
+        while (indice < buffers.length) {
+            canal.write(buffers, indice, buffers.length - indice);
+            chamadasEscrita.incrementAndGet();
+            while (indice < buffers.length && !buffers[indice].hasRemaining()) {
+                indice++;
+            }
+        }
+    }
+
+    synchronized boolean isVazio() {
+        return pendentes.isEmpty();
+    }
+
+    // Escritas recebidas e chamadas de escrita feitas no arquivo, para acompanhar o agrupamento.
+    long getEscritasRecebidas() {
+        return escritasRecebidas.get();
+    }
+
+    long getChamadasEscrita() {
+        return chamadasEscrita.get();
+    }
+
+    // Leituras feitas e, delas, as que encontraram escritas pendentes sobrepostas.
+    long getLeituras() {
+        return leituras.get();
+    }
+
+    long getLeiturasComPendentes() {
+        return leiturasComPendentes.get();
+    }
+}
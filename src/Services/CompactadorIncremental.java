@@ -0,0 +1,105 @@
+package Services;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Compactação incremental do arquivo de dados. Em vez de reescrever o arquivo inteiro sob o lock
+// global, move os registros vivos do fim do arquivo para blocos livres mais próximos do início,
+// um registro por vez e em lotes pequenos, e no final devolve ao sistema de arquivos o espaço
+// livre que sobrou na cauda. Leituras e escritas continuam sendo atendidas durante todo o processo.
+public class CompactadorIncremental {
+
+    private static final int TAMANHO_LOTE_PADRAO = 32;
+    private static final long PAUSA_ENTRE_LOTES_MS = 2;
+
+    // Resultado da tentativa de realocar um único registro.
+    enum ResultadoRelocacao {
+        MOVIDO,     // O registro foi copiado para um bloco anterior e o índice atualizado
+        IGNORADO,   // O registro mudou ou sumiu durante a tentativa; segue para o próximo
+        SEM_ESPACO  // Não há bloco livre antes do registro; nada mais a compactar nesta passada
+    }
+
+    private final GerenciadorArquivos gerenciador;
+    private final int tamanhoLote;
+    private final long pausaEntreLotesMs;
+    private final AtomicBoolean emExecucao = new AtomicBoolean(false);
+
+    public CompactadorIncremental(GerenciadorArquivos gerenciador) {
+        this(gerenciador, TAMANHO_LOTE_PADRAO, PAUSA_ENTRE_LOTES_MS);
+    }
+
+    public CompactadorIncremental(GerenciadorArquivos gerenciador, int tamanhoLote, long pausaEntreLotesMs) {
+        if (tamanhoLote <= 0) {
+            throw new IllegalArgumentException("O tamanho do lote deve ser positivo.");
+        }
+        if (pausaEntreLotesMs < 0) {
+            throw new IllegalArgumentException("A pausa entre lotes não pode ser negativa.");
+        }
+        this.gerenciador = gerenciador;
+        this.tamanhoLote = tamanhoLote;
+        this.pausaEntreLotesMs = pausaEntreLotesMs;
+    }
+
+    // Executa uma passada de compactação. Se outra passada já estiver em andamento, retorna imediatamente.
+    public Resultado executar() throws IOException, InterruptedException {
+        if (!emExecucao.compareAndSet(false, true)) {
+            return new Resultado(0, 0L);
+        }
+        try {
+            // Os registros mais ao fim do arquivo são os primeiros a serem movidos
+            List<Integer> candidatos = gerenciador.idsPorPosicaoDecrescente();
+            int movidos = 0;
+            int processadosNoLote = 0;
+
+            for (int id : candidatos) {
+                ResultadoRelocacao resultado = gerenciador.relocarRegistro(id);
+                if (resultado == ResultadoRelocacao.SEM_ESPACO) {
+                    break;
+                }
+                if (resultado == ResultadoRelocacao.MOVIDO) {
+                    movidos++;
+                }
+                if (++processadosNoLote >= tamanhoLote) {
+                    processadosNoLote = 0;
+                    // Cede a vez às operações de primeiro plano entre um lote e outro
+                    TimeUnit.MILLISECONDS.sleep(pausaEntreLotesMs);
+                }
+            }
+
+            long bytesRecuperados = gerenciador.recuperarEspacoFinal();
+            return new Resultado(movidos, bytesRecuperados);
+        } finally {
+            emExecucao.set(false);
+        }
+    }
+
+    public boolean isEmExecucao() {
+        return emExecucao.get();
+    }
+
+    // Resumo de uma passada de compactação.
+    public static class Resultado {
+        private final int registrosMovidos;
+        private final long bytesRecuperados;
+
+        Resultado(int registrosMovidos, long bytesRecuperados) {
+            this.registrosMovidos = registrosMovidos;
+            this.bytesRecuperados = bytesRecuperados;
+        }
+
+        public int getRegistrosMovidos() {
+            return registrosMovidos;
+        }
+
+        public long getBytesRecuperados() {
+            return bytesRecuperados;
+        }
+
+        @Override
+        public String toString() {
+            return "Resultado [registrosMovidos=" + registrosMovidos + ", bytesRecuperados=" + bytesRecuperados + "]";
+        }
+    }
+}
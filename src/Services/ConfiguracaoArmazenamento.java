@@ -0,0 +1,103 @@
+package Services;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Opções de armazenamento do GerenciadorArquivos. Sem keystore configurado, os registros são gravados
+// como antes (apenas com a cifra colunar nos campos de texto); com keystore, passam a ser gravados com
+// AES-GCM, e os registros antigos continuam legíveis até serem regravados ou migrados.
+//
+// Por padrão cada gravação faz o próprio fsync, e uma operação concluída já está durável. Com a escrita
+// adiada (opcional), as gravações passam por um buffer em memória e chegam ao disco em escritas
+// agrupadas; uma operação concluída só fica durável na próxima sincronização, em no máximo
+// INTERVALO_SINCRONIZACAO_MS ou ao chamar GerenciadorArquivos.sincronizar().
+//
+// Com mais de um fragmento, a aplicação usa um GerenciadorFragmentado em vez de um único arquivo.
+public class ConfiguracaoArmazenamento {
+
+    // Propriedades de sistema e variável de ambiente lidas por doAmbiente()
+    public static final String PROPRIEDADE_KEYSTORE = "perfumes.keystore";
+    public static final String PROPRIEDADE_ALIAS = "perfumes.keystore.alias";
+    public static final String VARIAVEL_SENHA = "PERFUMES_KEYSTORE_SENHA";
+    public static final String PROPRIEDADE_ESCRITA_ADIADA = "perfumes.escritaAdiada";
+    public static final String PROPRIEDADE_FRAGMENTOS = "perfumes.fragmentos";
+    public static final long INTERVALO_SINCRONIZACAO_MS = 50;
+    private static final String ALIAS_PADRAO = "perfumes-registros";
+
+    private Path caminhoKeystore;
+    private char[] senhaKeystore = new char[0];
+    private String aliasChave = ALIAS_PADRAO;
+    private boolean escritaAdiada = false;
+    private int fragmentos = 1;
+
+    // Monta a configuração a partir de -Dperfumes.keystore=... e da senha em PERFUMES_KEYSTORE_SENHA.
+    // -Dperfumes.escritaAdiada=true liga o buffer de escrita adiada; -Dperfumes.fragmentos=N divide os dados em N arquivos.
+    public static ConfiguracaoArmazenamento doAmbiente() {
+        ConfiguracaoArmazenamento configuracao = new ConfiguracaoArmazenamento();
+        configuracao.setEscritaAdiada(Boolean.getBoolean(PROPRIEDADE_ESCRITA_ADIADA));
+        configuracao.setFragmentos(Integer.getInteger(PROPRIEDADE_FRAGMENTOS, 1));
+        String keystore = System.getProperty(PROPRIEDADE_KEYSTORE);
+        if (keystore != null && !keystore.isEmpty()) {
+            configuracao.setCaminhoKeystore(Paths.get(keystore));
+            String senha = System.getenv(VARIAVEL_SENHA);
+            configuracao.setSenhaKeystore(senha == null ? new char[0] : senha.toCharArray());
+            configuracao.setAliasChave(System.getProperty(PROPRIEDADE_ALIAS, ALIAS_PADRAO));
+        }
+        return configuracao;
+    }
+
+    public boolean isCriptografiaAESAtiva() {
+        return caminhoKeystore != null;
+    }
+
+    // Cria a criptografia AES a partir do keystore, ou retorna null se ela não estiver configurada.
+    CriptografiaAES criarCriptografiaAES() throws IOException {
+        if (!isCriptografiaAESAtiva()) {
+            return null;
+        }
+        return CriptografiaAES.deKeystore(caminhoKeystore, senhaKeystore, aliasChave);
+    }
+
+    public Path getCaminhoKeystore() {
+        return caminhoKeystore;
+    }
+
+    public void setCaminhoKeystore(Path caminhoKeystore) {
+        this.caminhoKeystore = caminhoKeystore;
+    }
+
+    public void setSenhaKeystore(char[] senhaKeystore) {
+        this.senhaKeystore = senhaKeystore == null ? new char[0] : senhaKeystore.clone();
+    }
+
+    public String getAliasChave() {
+        return aliasChave;
+    }
+
+    public boolean isEscritaAdiada() {
+        return escritaAdiada;
+    }
+
+    public void setEscritaAdiada(boolean escritaAdiada) {
+        this.escritaAdiada = escritaAdiada;
+    }
+
+    public int getFragmentos() {
+        return fragmentos;
+    }
+
+    public void setFragmentos(int fragmentos) {
+        if (fragmentos < 1) {
+            throw new IllegalArgumentException("Quantidade de fragmentos inválida: " + fragmentos);
+        }
+        this.fragmentos = fragmentos;
+    }
+
+    public void setAliasChave(String aliasChave) {
+        if (aliasChave == null || aliasChave.isEmpty()) {
+            throw new IllegalArgumentException("O alias da chave não pode ser vazio.");
+        }
+        this.aliasChave = aliasChave;
+    }
+}
@@ -0,0 +1,168 @@
+package Services;
+
+import Models.Perfume;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+// Criptografia em repouso dos registros com AES-GCM, aplicada ao registro inteiro na fronteira de I/O
+// (o JDK usa as instruções AES do processador quando disponíveis). Cada registro gravado leva um IV
+// único e a tag de autenticação, então um registro adulterado ou lido com a chave errada é
+// rejeitado em vez de virar lixo. A chave fica num keystore PKCS12, criado na primeira execução.
+//
+// Formato em disco: [IV de 12 bytes][registro cifrado][tag de 16 bytes]. Como todo registro lógico tem
+// Perfume.RECORD_SIZE bytes, o tamanho distingue registros cifrados dos gravados sem AES, o que permite
+// migrar um arquivo existente aos poucos.
+public class CriptografiaAES {
+
+    public static final int TAMANHO_IV = 12;
+    public static final int TAMANHO_TAG = 16;
+    public static final int SOBRECARGA = TAMANHO_IV + TAMANHO_TAG;
+    private static final String TRANSFORMACAO = "AES/GCM/NoPadding";
+    private static final int TAMANHO_CHAVE_BITS = 256;
+    // Dado autenticado junto de cada registro, amarrando o texto cifrado a este formato
+    private static final byte[] DADOS_ASSOCIADOS = "PERFUME-REGISTRO-V1".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecretKey chave;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Cipher> cifras;
+    private volatile SequenciaIV sequenciaIV;
+
+    public CriptografiaAES(SecretKey chave) {
+        if (chave == null || !"AES".equalsIgnoreCase(chave.getAlgorithm())) {
+            throw new IllegalArgumentException("É necessária uma chave AES.");
+        }
+        this.chave = chave;
+        this.sequenciaIV = new SequenciaIV(random.nextLong());
+        this.cifras = ThreadLocal.withInitial(() -> {
+            try {
+                return Cipher.getInstance(TRANSFORMACAO);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("AES-GCM indisponível nesta JVM.", e);
+            }
+        });
+    }
+
+    /**
+     * Carrega a chave do keystore PKCS12 informado. Se o arquivo não existir, gera uma chave AES-256
+     * nova e cria o keystore com ela.
+     */
+    public static CriptografiaAES deKeystore(Path caminho, char[] senha, String alias) throws IOException {
+        try {
+            KeyStore keystore = KeyStore.getInstance("PKCS12");
+            KeyStore.PasswordProtection protecao = new KeyStore.PasswordProtection(senha);
+            if (Files.exists(caminho)) {
+                try (InputStream in = Files.newInputStream(caminho)) {
+                    keystore.load(in, senha);
+                }
+                KeyStore.Entry entrada = keystore.getEntry(alias, protecao);
+                if (!(entrada instanceof KeyStore.SecretKeyEntry)) {
+                    throw new IOException("O keystore " + caminho + " não contém a chave secreta '" + alias + "'.");
+                }
+                return new CriptografiaAES(((KeyStore.SecretKeyEntry) entrada).getSecretKey());
+            }
+
+            KeyGenerator gerador = KeyGenerator.getInstance("AES");
+            gerador.init(TAMANHO_CHAVE_BITS);
+            SecretKey chave = gerador.generateKey();
+            keystore.load(null, senha);
+            keystore.setEntry(alias, new KeyStore.SecretKeyEntry(chave), protecao);
+            Path temporario = caminho.resolveSibling(caminho.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporario)) {
+                keystore.store(out, senha);
+            }
+            Files.move(temporario, caminho, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new CriptografiaAES(chave);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Falha ao obter a chave AES do keystore " + caminho + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Indica, pelo tamanho, se os bytes lidos do disco são um registro cifrado por esta classe.
+    public static boolean isCifrado(byte[] dadosDisco) {
+        return dadosDisco != null && dadosDisco.length == Perfume.RECORD_SIZE + SOBRECARGA;
+    }
+
+    // Tamanho em disco de um registro lógico do tamanho informado, depois de cifrado.
+    public static int tamanhoCifrado(int tamanhoLogico) {
+        return tamanhoLogico + SOBRECARGA;
+    }
+
+    public byte[] cifrar(byte[] registro) throws IOException {
+        byte[] saida = new byte[tamanhoCifrado(registro.length)];
+        byte[] iv = new byte[TAMANHO_IV];
+        preencherIV(iv);
+        System.arraycopy(iv, 0, saida, 0, TAMANHO_IV);
+        try {
+            Cipher cifra = cifras.get();
+            cifra.init(Cipher.ENCRYPT_MODE, chave, new GCMParameterSpec(TAMANHO_TAG * 8, iv));
+            cifra.updateAAD(DADOS_ASSOCIADOS);
+            cifra.doFinal(registro, 0, registro.length, saida, TAMANHO_IV);
+            return saida;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Falha ao cifrar registro: " + e.getMessage(), e);
+        }
+    }
+
+    // IV de 96 bits: prefixo aleatório de 64 bits sorteado por instância + contador de 32 bits. Evita
+    // consultar o SecureRandom (lento e sincronizado) a cada registro sem repetir IV com a mesma chave;
+    // quando o contador se esgota, um novo prefixo é sorteado.
+    private void preencherIV(byte[] iv) {
+        while (true) {
+            SequenciaIV sequencia = sequenciaIV;
+            long n = sequencia.contador.getAndIncrement();
+            if (n <= 0xFFFFFFFFL) {
+                for (int i = 0; i < Long.BYTES; i++) {
+                    iv[i] = (byte) (sequencia.prefixo >>> (56 - 8 * i));
+                }
+                for (int i = 0; i < Integer.BYTES; i++) {
+                    iv[Long.BYTES + i] = (byte) (n >>> (24 - 8 * i));
+                }
+                return;
+            }
+            synchronized (this) {
+                if (sequenciaIV == sequencia) {
+                    sequenciaIV = new SequenciaIV(random.nextLong());
+                }
+            }
+        }
+    }
+
+    public byte[] decifrar(byte[] dadosDisco) throws IOException {
+        if (dadosDisco.length < SOBRECARGA) {
+            throw new IOException("Registro cifrado truncado: " + dadosDisco.length + " bytes.");
+        }
+        try {
+            Cipher cifra = cifras.get();
+            cifra.init(Cipher.DECRYPT_MODE, chave, new GCMParameterSpec(TAMANHO_TAG * 8, dadosDisco, 0, TAMANHO_IV));
+            cifra.updateAAD(DADOS_ASSOCIADOS);
+            return cifra.doFinal(dadosDisco, TAMANHO_IV, dadosDisco.length - TAMANHO_IV);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Registro cifrado adulterado ou chave AES incorreta.", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Falha ao decifrar registro: " + e.getMessage(), e);
+        }
+    }
+
+    private static class SequenciaIV {
+        final long prefixo;
+        final AtomicLong contador = new AtomicLong(0);
+
+        SequenciaIV(long prefixo) {
+            this.prefixo = prefixo;
+        }
+    }
+}
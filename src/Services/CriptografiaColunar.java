@@ -2,24 +2,58 @@ package Services;
 
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.AbstractMap.SimpleEntry;
-import java.util.ArrayList;
-import java.util.List;
 
+// Transposição colunar seguida de Cifra de César, aplicada apenas às letras do texto; os demais
+// caracteres ficam nas posições originais. A permutação das colunas é calculada uma vez por chave e a
+// transformação trabalha sobre char[], sem montar a grade nem listas de posições: o caractere de cada
+// posição da grade é calculado diretamente a partir do índice.
 public class CriptografiaColunar {
 
     private final String chave;
     private static final int DESLOCAMENTO_CESAR = 3; // Deslocamento fixo para a Cifra de César
+    private static final char PREENCHIMENTO = 'X';
+
+    // César já calculado para os caracteres ASCII, que são quase todos os casos
+    private static final char[] CESAR_ASCII_IDA = new char[128];
+    private static final char[] CESAR_ASCII_VOLTA = new char[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            CESAR_ASCII_IDA[c] = aplicarCifraCesar(c, DESLOCAMENTO_CESAR);
+            CESAR_ASCII_VOLTA[c] = aplicarCifraCesar(c, -DESLOCAMENTO_CESAR);
+        }
+    }
+
+    private final int numColunas;
+    private final int[] colunasOrdenadas;   // Colunas da grade na ordem alfabética (estável) da chave
+    private final int[] ordemDaColuna;      // Inversa: posição de cada coluna na ordem de leitura
+
+    // Buffers reaproveitados pela API de String, um conjunto por thread
+    private static final ThreadLocal<char[][]> BUFFERS = ThreadLocal.withInitial(() -> new char[][]{new char[64], new char[64], new char[64]});
 
     public CriptografiaColunar(String chave) {
         if (chave == null || chave.isEmpty()) {
             throw new IllegalArgumentException("A chave não pode ser nula ou vazia.");
         }
         this.chave = chave.toUpperCase();
+        this.numColunas = this.chave.length();
+
+        Integer[] ordem = new Integer[numColunas];
+        for (int i = 0; i < numColunas; i++) {
+            ordem[i] = i;
+        }
+        // Arrays.sort de objetos é estável: letras repetidas na chave mantêm a ordem original das colunas
+        Arrays.sort(ordem, Comparator.comparing(this.chave::charAt));
+        this.colunasOrdenadas = new int[numColunas];
+        this.ordemDaColuna = new int[numColunas];
+        for (int i = 0; i < numColunas; i++) {
+            colunasOrdenadas[i] = ordem[i];
+            ordemDaColuna[ordem[i]] = i;
+        }
     }
 
     // Método auxiliar para aplicar a Cifra de César
-    private char aplicarCifraCesar(char caractere, int deslocamento) {
+    private static char aplicarCifraCesar(char caractere, int deslocamento) {
         if (Character.isLetter(caractere)) {
             char base = Character.isUpperCase(caractere) ? 'A' : 'a';
             return (char) (((caractere - base + deslocamento) % 26) + base);
@@ -27,176 +61,144 @@ public class CriptografiaColunar {
         return caractere; // Retorna o caractere inalterado se não for uma letra
     }
 
+    private static char cesarIda(char c) {
+        return c < 128 ? CESAR_ASCII_IDA[c] : aplicarCifraCesar(c, DESLOCAMENTO_CESAR);
+    }
+
+    private static char cesarVolta(char c) {
+        return c < 128 ? CESAR_ASCII_VOLTA[c] : aplicarCifraCesar(c, -DESLOCAMENTO_CESAR);
+    }
+
+    // Tamanho máximo do resultado de criptografar() para uma entrada do tamanho informado.
+    public int tamanhoMaximoCriptografado(int tamanho) {
+        return tamanho + numColunas - 1;
+    }
+
     public String criptografar(String textoOriginal) {
         if (textoOriginal == null || textoOriginal.isEmpty()) {
             return "";
         }
+        char[][] buffers = BUFFERS.get();
+        char[] entrada = garantirCapacidade(buffers, 0, textoOriginal.length());
+        textoOriginal.getChars(0, textoOriginal.length(), entrada, 0);
+        char[] saida = garantirCapacidade(buffers, 1, tamanhoMaximoCriptografado(textoOriginal.length()));
+        char[] letras = garantirCapacidade(buffers, 2, textoOriginal.length());
+        int tamanho = criptografar(entrada, textoOriginal.length(), saida, letras);
+        return new String(saida, 0, tamanho);
+    }
 
-        StringBuilder letrasParaCifrar = new StringBuilder();
-        List<SimpleEntry<Integer, Character>> caracteresNaoLetras = new ArrayList<>();
-
-        for (int i = 0; i < textoOriginal.length(); i++) {
-            char caractere = textoOriginal.charAt(i);
-            if (Character.isLetter(caractere)) {
-                letrasParaCifrar.append(caractere);
-            } else {
-                caracteresNaoLetras.add(new SimpleEntry<>(i, caractere));
-            }
-        }
-
-        String letrasNormalizadas = letrasParaCifrar.toString();
-        if (letrasNormalizadas.isEmpty()) {
-            return textoOriginal;
+    public String descriptografar(String textoCifrado) {
+        if (textoCifrado == null || textoCifrado.isEmpty()) {
+            return "";
         }
+        char[][] buffers = BUFFERS.get();
+        char[] entrada = garantirCapacidade(buffers, 0, textoCifrado.length());
+        textoCifrado.getChars(0, textoCifrado.length(), entrada, 0);
+        char[] letras = garantirCapacidade(buffers, 2, textoCifrado.length());
+        // O resultado nunca é maior que a entrada, então pode ser escrito sobre ela
+        int tamanho = descriptografar(entrada, textoCifrado.length(), entrada, letras);
+        return new String(entrada, 0, tamanho);
+    }
 
-        int numColunas = chave.length();
-        int numLinhas = (int) Math.ceil((double) letrasNormalizadas.length() / numColunas);
-        char[][] grade = new char[numLinhas][numColunas];
-
-        int k = 0;
-        for (int i = 0; i < numLinhas; i++) {
-            for (int j = 0; j < numColunas; j++) {
-                if (k < letrasNormalizadas.length()) {
-                    grade[i][j] = letrasNormalizadas.charAt(k++);
-                } else {
-                    grade[i][j] = 'X';
-                }
+    /**
+     * Criptografa entrada[0..tamanho) em saida, que pode ser o próprio array de entrada se tiver
+     * capacidade para tamanhoMaximoCriptografado(tamanho) caracteres.
+     *
+     * @param letras Área de trabalho com ao menos 'tamanho' posições.
+     * @return Quantidade de caracteres escritos em saida.
+     */
+    public int criptografar(char[] entrada, int tamanho, char[] saida, char[] letras) {
+        int numLetras = 0;
+        for (int i = 0; i < tamanho; i++) {
+            if (Character.isLetter(entrada[i])) {
+                letras[numLetras++] = entrada[i];
             }
         }
-
-        SimpleEntry<Character, Integer>[] colunasOrdenadas = new SimpleEntry[numColunas];
-        for (int i = 0; i < numColunas; i++) {
-            colunasOrdenadas[i] = new SimpleEntry<>(chave.charAt(i), i);
-        }
-        Arrays.sort(colunasOrdenadas, Comparator.comparing(SimpleEntry::getKey));
-
-        StringBuilder letrasCifradas = new StringBuilder();
-        for (SimpleEntry<Character, Integer> entry : colunasOrdenadas) {
-            int indiceColunaOriginal = entry.getValue();
-            for (int i = 0; i < numLinhas; i++) {
-                letrasCifradas.append(grade[i][indiceColunaOriginal]);
+        if (numLetras == 0) {
+            if (saida != entrada) {
+                System.arraycopy(entrada, 0, saida, 0, tamanho);
             }
+            return tamanho;
         }
 
-        // --- Aplicar Cifra de César +3 após a transposição colunar ---
-        StringBuilder cifradoComCesar = new StringBuilder();
-        for (char c : letrasCifradas.toString().toCharArray()) {
-            cifradoComCesar.append(aplicarCifraCesar(c, DESLOCAMENTO_CESAR));
-        }
-        String cifradoTemporario = cifradoComCesar.toString();
-        // --- Fim da aplicação da Cifra de César ---
-
-        StringBuilder textoFinalCifrado = new StringBuilder();
+        int numLinhas = (numLetras + numColunas - 1) / numColunas;
+        int totalCifrado = numLinhas * numColunas;
+        // Posições de letra recebem, em ordem, a leitura da grade por colunas (na ordem da chave);
+        // o que sobra do preenchimento vai para o fim do texto
         int indiceCifrado = 0;
-
-        for (int i = 0; i < textoOriginal.length(); i++) {
-            boolean isNonLetter = false;
-            for(SimpleEntry<Integer, Character> nonLetter : caracteresNaoLetras) {
-                if (nonLetter.getKey() == i) {
-                    textoFinalCifrado.append(nonLetter.getValue());
-                    isNonLetter = true;
-                    break;
-                }
-            }
-            if (!isNonLetter) {
-                if (indiceCifrado < cifradoTemporario.length()) {
-                    textoFinalCifrado.append(cifradoTemporario.charAt(indiceCifrado++));
-                }
-            }
+        for (int i = 0; i < tamanho; i++) {
+            char c = entrada[i];
+            saida[i] = Character.isLetter(c) ? caractereCifrado(letras, numLetras, numLinhas, indiceCifrado++) : c;
         }
-        while (indiceCifrado < cifradoTemporario.length()) {
-            textoFinalCifrado.append(cifradoTemporario.charAt(indiceCifrado++));
+        int escritos = tamanho;
+        while (indiceCifrado < totalCifrado) {
+            saida[escritos++] = caractereCifrado(letras, numLetras, numLinhas, indiceCifrado++);
         }
-
-        return textoFinalCifrado.toString();
+        return escritos;
     }
 
-    public String descriptografar(String textoCifrado) {
-        if (textoCifrado == null || textoCifrado.isEmpty()) {
-            return "";
-        }
-
-        StringBuilder letrasCifradasParaDescript = new StringBuilder();
-        List<SimpleEntry<Integer, Character>> caracteresNaoLetras = new ArrayList<>();
+    // Caractere na posição 'indice' da leitura por colunas da grade, já com César aplicado.
+    private char caractereCifrado(char[] letras, int numLetras, int numLinhas, int indice) {
+        int coluna = colunasOrdenadas[indice / numLinhas];
+        int posicaoNaGrade = (indice % numLinhas) * numColunas + coluna;
+        return cesarIda(posicaoNaGrade < numLetras ? letras[posicaoNaGrade] : PREENCHIMENTO);
+    }
 
-        for (int i = 0; i < textoCifrado.length(); i++) {
-            char caractere = textoCifrado.charAt(i);
-            if (Character.isLetter(caractere)) {
-                letrasCifradasParaDescript.append(caractere);
-            } else {
-                caracteresNaoLetras.add(new SimpleEntry<>(i, caractere));
+    /**
+     * Descriptografa entrada[0..tamanho) em saida, que pode ser o próprio array de entrada.
+     *
+     * @param letras Área de trabalho com ao menos 'tamanho' posições.
+     * @return Quantidade de caracteres escritos em saida (nunca maior que 'tamanho').
+     */
+    public int descriptografar(char[] entrada, int tamanho, char[] saida, char[] letras) {
+        int numLetras = 0;
+        for (int i = 0; i < tamanho; i++) {
+            if (Character.isLetter(entrada[i])) {
+                letras[numLetras++] = cesarVolta(entrada[i]);
             }
         }
-
-        String cifradoNormalizado = letrasCifradasParaDescript.toString();
-        if (cifradoNormalizado.isEmpty()) {
-            return textoCifrado;
-        }
-
-        // --- Desfazer Cifra de César -3 antes da transposição colunar ---
-        StringBuilder decifradoCesar = new StringBuilder();
-        for (char c : cifradoNormalizado.toCharArray()) {
-            decifradoCesar.append(aplicarCifraCesar(c, -DESLOCAMENTO_CESAR)); // Deslocamento negativo para reverter
+        if (numLetras == 0) {
+            if (saida != entrada) {
+                System.arraycopy(entrada, 0, saida, 0, tamanho);
+            }
+            return tamanho;
         }
-        cifradoNormalizado = decifradoCesar.toString();
-        // --- Fim da reversão da Cifra de César ---
-
-        int numColunas = chave.length();
-        int numLinhas = (int) Math.ceil((double) cifradoNormalizado.length() / numColunas);
 
-        if (numLinhas == 0 && cifradoNormalizado.length() > 0) {
-            numLinhas = 1;
+        int numLinhas = (numLetras + numColunas - 1) / numColunas;
+        // Remove do fim da leitura por linhas o preenchimento 'X' e, depois, os espaços
+        int tamanhoLetras = numLinhas * numColunas;
+        while (tamanhoLetras > 0 && caractereDecifrado(letras, numLetras, numLinhas, tamanhoLetras - 1) == PREENCHIMENTO) {
+            tamanhoLetras--;
         }
-
-        char[][] grade = new char[numLinhas][numColunas];
-
-        SimpleEntry<Character, Integer>[] colunasOrdenadas = new SimpleEntry[numColunas];
-        for (int i = 0; i < numColunas; i++) {
-            colunasOrdenadas[i] = new SimpleEntry<>(chave.charAt(i), i);
-        }
-        Arrays.sort(colunasOrdenadas, Comparator.comparing(SimpleEntry::getKey));
-
-        int k = 0;
-        for (SimpleEntry<Character, Integer> entry : colunasOrdenadas) {
-            int indiceColunaOriginal = entry.getValue();
-            for (int i = 0; i < numLinhas; i++) {
-                if (k < cifradoNormalizado.length()) {
-                    grade[i][indiceColunaOriginal] = cifradoNormalizado.charAt(k++);
-                } else {
-                    grade[i][indiceColunaOriginal] = 'X'; 
-                }
-            }
+        while (tamanhoLetras > 0 && caractereDecifrado(letras, numLetras, numLinhas, tamanhoLetras - 1) == ' ') {
+            tamanhoLetras--;
         }
 
-        StringBuilder letrasDescriptografadas = new StringBuilder();
-        for (int i = 0; i < numLinhas; i++) {
-            for (int j = 0; j < numColunas; j++) {
-                letrasDescriptografadas.append(grade[i][j]);
+        int escritos = 0;
+        int indiceLetras = 0;
+        for (int i = 0; i < tamanho; i++) {
+            char c = entrada[i];
+            if (!Character.isLetter(c)) {
+                saida[escritos++] = c;
+            } else if (indiceLetras < tamanhoLetras) {
+                saida[escritos++] = caractereDecifrado(letras, numLetras, numLinhas, indiceLetras++);
             }
         }
+        return escritos;
+    }
 
-        String letrasDescript = letrasDescriptografadas.toString();
-        while (letrasDescript.length() > 0 && letrasDescript.endsWith("X")) {
-            letrasDescript = letrasDescript.substring(0, letrasDescript.length() - 1);
-        }
-        while (letrasDescript.length() > 0 && letrasDescript.endsWith(" ")) {
-            letrasDescript = letrasDescript.substring(0, letrasDescript.length() - 1);
-        }
-
-        StringBuilder textoOriginalRestaurado = new StringBuilder();
-        int indiceLetrasDescript = 0;
-        int proximoNaoLetra = 0;
+    // Caractere na posição 'indice' da leitura por linhas da grade remontada a partir das colunas.
+    private char caractereDecifrado(char[] letras, int numLetras, int numLinhas, int indice) {
+        int linha = indice / numColunas;
+        int coluna = indice % numColunas;
+        int posicaoCifrada = ordemDaColuna[coluna] * numLinhas + linha;
+        return posicaoCifrada < numLetras ? letras[posicaoCifrada] : PREENCHIMENTO;
+    }
 
-        for (int i = 0; i < textoCifrado.length(); i++) {
-            if (proximoNaoLetra < caracteresNaoLetras.size() && caracteresNaoLetras.get(proximoNaoLetra).getKey() == i) {
-                textoOriginalRestaurado.append(caracteresNaoLetras.get(proximoNaoLetra).getValue());
-                proximoNaoLetra++;
-            } else {
-                if (indiceLetrasDescript < letrasDescript.length()) {
-                    textoOriginalRestaurado.append(letrasDescript.charAt(indiceLetrasDescript++));
-                }
-            }
+    private static char[] garantirCapacidade(char[][] buffers, int indice, int capacidade) {
+        if (buffers[indice].length < capacidade) {
+            buffers[indice] = new char[Math.max(capacidade, buffers[indice].length * 2)];
         }
-        return textoOriginalRestaurado.toString();
+        return buffers[indice];
     }
 }
@@ -0,0 +1,209 @@
+package Services;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Dicionário LZW treinado a partir de uma amostra de registros. Registros de perfume são pequenos e
+// muito parecidos entre si (nomes de marca, preenchimento, layout dos campos), então comprimir cada um
+// partindo só dos 256 bytes simples quase não ganha nada. Com o dicionário pré-carregado, as frases
+// mais comuns já têm código desde o primeiro byte, e cada registro continua comprimido isoladamente,
+// permitindo acesso aleatório.
+//
+// Formato do arquivo: [int magic][int id][int quantidade] seguido de [short tamanho][bytes] por entrada.
+public class DicionarioLZW {
+
+    private static final int MAGIC = 0x504C5A44; // "PLZD"
+    public static final int MAX_ENTRADAS_PADRAO = 4096;
+    // Limite de frases durante o treino, antes da seleção das mais úteis
+    private static final int LIMITE_FRASES_TREINO = LZWCodec.MAX_ENTRADAS_DICIONARIO;
+    // Passadas sobre a amostra: a primeira descobre frases, a segunda conta o uso delas já crescidas
+    private static final int PASSADAS_TREINO = 2;
+    private static final int TAMANHO_MAXIMO_FRASE = Short.MAX_VALUE;
+
+    private final int id;
+    private final List<byte[]> entradas;
+    private volatile LZWCodec.Semente semente; // Construída no primeiro uso com o LZWCodec
+
+    private DicionarioLZW(int id, List<byte[]> entradas) {
+        this.id = id;
+        this.entradas = Collections.unmodifiableList(entradas);
+    }
+
+    /**
+     * Treina um dicionário a partir de uma amostra de registros.
+     *
+     * @param id          Identificador gravado junto do dicionário, para conferir quem o usa.
+     * @param amostras    Registros representativos (os bytes sem compressão).
+     * @param maxEntradas Quantidade máxima de frases; o restante dos 16 bits fica para o crescimento por registro.
+     */
+    public static DicionarioLZW treinar(int id, List<byte[]> amostras, int maxEntradas) {
+        if (maxEntradas <= 0 || maxEntradas > LIMITE_FRASES_TREINO) {
+            throw new IllegalArgumentException("Quantidade de entradas do dicionário inválida: " + maxEntradas);
+        }
+
+        // 1. Roda o LZW sobre a amostra inteira com um único dicionário, contando quantas vezes cada
+        // frase foi emitida na última passada.
+        Map<LZWCompressor.ByteArrayWrapper, Integer> codigos = new HashMap<>();
+        List<byte[]> frases = new ArrayList<>();
+        for (int i = 0; i < 256; i++) {
+            byte[] frase = new byte[]{(byte) i};
+            codigos.put(new LZWCompressor.ByteArrayWrapper(frase), i);
+            frases.add(frase);
+        }
+        int[] usos = new int[0];
+        for (int passada = 0; passada < PASSADAS_TREINO; passada++) {
+            usos = new int[256 + LIMITE_FRASES_TREINO];
+            for (byte[] amostra : amostras) {
+                if (amostra == null || amostra.length == 0) {
+                    continue;
+                }
+                LZWCompressor.ByteArrayWrapper atual = new LZWCompressor.ByteArrayWrapper(new byte[0]);
+                for (byte b : amostra) {
+                    LZWCompressor.ByteArrayWrapper nova = atual.append(b);
+                    if (codigos.containsKey(nova)) {
+                        atual = nova;
+                    } else {
+                        usos[codigos.get(atual)]++;
+                        if (frases.size() < 256 + LIMITE_FRASES_TREINO && nova.length() <= TAMANHO_MAXIMO_FRASE) {
+                            codigos.put(nova, frases.size());
+                            frases.add(nova.getData());
+                        }
+                        atual = new LZWCompressor.ByteArrayWrapper(new byte[]{b});
+                    }
+                }
+                usos[codigos.get(atual)]++;
+            }
+        }
+
+        // 2. Ordena as frases com mais de um byte pelo ganho estimado: bytes economizados por uso.
+        List<Integer> candidatas = new ArrayList<>();
+        for (int codigo = 256; codigo < frases.size(); codigo++) {
+            if (usos[codigo] > 0) {
+                candidatas.add(codigo);
+            }
+        }
+        final int[] usosFinais = usos;
+        candidatas.sort((a, b) -> Long.compare(
+                (long) usosFinais[b] * (frases.get(b).length - 1),
+                (long) usosFinais[a] * (frases.get(a).length - 1)));
+
+        // 3. Seleciona as melhores mantendo o dicionário fechado por prefixo: o compressor só alcança
+        // uma frase longa passando pelos prefixos dela, então cada frase entra junto com os que faltam.
+        Set<LZWCompressor.ByteArrayWrapper> selecionadas = new HashSet<>();
+        List<byte[]> entradas = new ArrayList<>();
+        for (int codigo : candidatas) {
+            byte[] frase = frases.get(codigo);
+            List<byte[]> faltantes = new ArrayList<>();
+            for (int tamanho = 2; tamanho <= frase.length; tamanho++) {
+                byte[] prefixo = Arrays.copyOf(frase, tamanho);
+                if (!selecionadas.contains(new LZWCompressor.ByteArrayWrapper(prefixo))) {
+                    faltantes.add(prefixo);
+                }
+            }
+            if (entradas.size() + faltantes.size() > maxEntradas) {
+                continue;
+            }
+            for (byte[] prefixo : faltantes) {
+                selecionadas.add(new LZWCompressor.ByteArrayWrapper(prefixo));
+                entradas.add(prefixo);
+            }
+            if (entradas.size() == maxEntradas) {
+                break;
+            }
+        }
+
+        // Prefixos antes das frases que os estendem, em ordem determinística
+        entradas.sort((a, b) -> a.length != b.length ? Integer.compare(a.length, b.length) : Arrays.compare(a, b));
+        return new DicionarioLZW(id, entradas);
+    }
+
+    public static DicionarioLZW treinar(int id, List<byte[]> amostras) {
+        return treinar(id, amostras, MAX_ENTRADAS_PADRAO);
+    }
+
+    // Comprime um registro com este dicionário (formato do LZWCodec).
+    public byte[] comprimir(byte[] dados) {
+        return LZWCodec.comprimir(dados, this);
+    }
+
+    // Descomprime um registro comprimido com este dicionário.
+    public byte[] descomprimir(byte[] comprimido) {
+        return LZWCodec.descomprimir(comprimido, this);
+    }
+
+    // Grava o dicionário no caminho informado, substituindo o arquivo anterior de forma atômica.
+    public void salvar(Path destino) throws IOException {
+        Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporario)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(id);
+                out.writeInt(entradas.size());
+                for (byte[] entrada : entradas) {
+                    out.writeShort(entrada.length);
+                    out.write(entrada);
+                }
+            }
+            Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporario);
+            throw e;
+        }
+    }
+
+    // Lê um dicionário gravado com salvar().
+    public static DicionarioLZW carregar(Path origem) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(origem)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Arquivo não é um dicionário LZW: " + origem);
+            }
+            int id = in.readInt();
+            int quantidade = in.readInt();
+            if (quantidade < 0 || quantidade > LIMITE_FRASES_TREINO) {
+                throw new IOException("Dicionário LZW corrompido: " + quantidade + " entradas em " + origem);
+            }
+            List<byte[]> entradas = new ArrayList<>(quantidade);
+            for (int i = 0; i < quantidade; i++) {
+                byte[] entrada = new byte[in.readUnsignedShort()];
+                in.readFully(entrada);
+                entradas.add(entrada);
+            }
+            return new DicionarioLZW(id, entradas);
+        }
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getQuantidadeEntradas() {
+        return entradas.size();
+    }
+
+    List<byte[]> getEntradas() {
+        return entradas;
+    }
+
+    LZWCodec.Semente getSemente() {
+        LZWCodec.Semente s = semente;
+        if (s == null) {
+            s = new LZWCodec.Semente(entradas);
+            semente = s;
+        }
+        return s;
+    }
+}
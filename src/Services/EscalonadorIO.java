@@ -0,0 +1,201 @@
+package Services;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+// Escalonador das operações assíncronas do GerenciadorArquivos (criarAsync, buscarAsync, ...). Cada ID
+// pertence a uma faixa, atendida por uma única thread, então as operações de um mesmo ID executam e
+// concluem na ordem em que foram enfileiradas; IDs de faixas diferentes andam em paralelo.
+//
+// A thread consome a fila em rodadas de até MAX_OPERACOES_POR_RODADA operações: executa a rodada, faz
+// uma única sincronização para todas as escritas dela e só então conclui os futuros das escritas, que
+// ao completar já estão duráveis. Leituras de IDs sem escrita pendente na rodada são concluídas na
+// hora, sem esperar a sincronização; as demais esperam, para manter a ordem por ID.
+//
+// As operações executadas na faixa não forçam o disco a cada gravação: o GerenciadorArquivos reconhece
+// a thread da faixa (daThreadAtual()) e deixa a durabilidade para a sincronização da rodada.
+//
+// Os futuros são concluídos na thread da faixa: estágios encadeados sem as variantes *Async rodam nela
+// e atrasam a faixa, então trabalho pesado deve ir para outro executor.
+class EscalonadorIO {
+
+    static final int MAX_OPERACOES_POR_RODADA = 256;
+    static final int CAPACIDADE_FILA_POR_FAIXA = 16384;
+    private static final long ESPERA_FILA_MS = 100;
+
+    interface Operacao<T> {
+        T executar() throws Exception;
+    }
+
+    interface Sincronizacao {
+        void sincronizar() throws IOException;
+    }
+
+    private final Faixa[] faixas;
+    private final Sincronizacao sincronizacao;
+    private volatile boolean encerrando = false;
+
+    EscalonadorIO(int quantidadeFaixas, Sincronizacao sincronizacao, String nome) {
+        this.sincronizacao = sincronizacao;
+        this.faixas = new Faixa[quantidadeFaixas];
+        for (int i = 0; i < quantidadeFaixas; i++) {
+            faixas[i] = new Faixa(nome + "-io-" + i);
+            faixas[i].thread.start();
+        }
+    }
+
+    /**
+     * Enfileira a operação na faixa do ID.
+     *
+     * @param escrita Se true, o futuro só é concluído depois da sincronização da rodada.
+     * @return O futuro da operação; falha com RejectedExecutionException se a fila estiver cheia ou o
+     *         escalonador encerrado.
+     */
+    <T> CompletableFuture<T> agendar(int id, boolean escrita, Operacao<T> operacao) {
+        Tarefa<T> tarefa = new Tarefa<>(id, escrita, operacao);
+        if (encerrando) {
+            tarefa.futuro.completeExceptionally(new RejectedExecutionException("O gerenciador está sendo fechado."));
+        } else if (!faixas[Math.floorMod(id, faixas.length)].fila.offer(tarefa)) {
+            tarefa.futuro.completeExceptionally(new RejectedExecutionException("Fila de I/O cheia para o ID " + id + "."));
+        }
+        return tarefa.futuro;
+    }
+
+    // O escalonador cuja faixa é a thread atual, ou null fora de uma faixa.
+    static EscalonadorIO daThreadAtual() {
+        Thread atual = Thread.currentThread();
+        return atual instanceof ThreadFaixa ? ((ThreadFaixa) atual).escalonador : null;
+    }
+
+    // Para de aceitar operações e espera as faixas concluírem as já enfileiradas.
+    void fechar() {
+        encerrando = true;
+        for (Faixa faixa : faixas) {
+            try {
+                faixa.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        // Alguma operação enfileirada depois da saída da thread da faixa
+        for (Faixa faixa : faixas) {
+            Tarefa<?> tarefa;
+            while ((tarefa = faixa.fila.poll()) != null) {
+                tarefa.futuro.completeExceptionally(new RejectedExecutionException("O gerenciador está sendo fechado."));
+            }
+        }
+    }
+
+    private final class Faixa implements Runnable {
+        final BlockingQueue<Tarefa<?>> fila = new LinkedBlockingQueue<>(CAPACIDADE_FILA_POR_FAIXA);
+        final Thread thread;
+
+        Faixa(String nome) {
+            this.thread = new ThreadFaixa(this, nome, EscalonadorIO.this);
+            this.thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            List<Tarefa<?>> rodada = new ArrayList<>(MAX_OPERACOES_POR_RODADA);
+            while (true) {
+                Tarefa<?> primeira;
+                try {
+                    primeira = fila.poll(ESPERA_FILA_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (primeira == null) {
+                    if (encerrando) {
+                        return;
+                    }
+                    continue;
+                }
+                rodada.add(primeira);
+                fila.drainTo(rodada, MAX_OPERACOES_POR_RODADA - 1);
+                processarRodada(rodada);
+                rodada.clear();
+            }
+        }
+
+        private void processarRodada(List<Tarefa<?>> rodada) {
+            Set<Integer> idsComEscritaPendente = new HashSet<>();
+            List<Tarefa<?>> aguardandoSincronizacao = new ArrayList<>();
+            for (Tarefa<?> tarefa : rodada) {
+                tarefa.executar();
+                if (tarefa.escrita || idsComEscritaPendente.contains(tarefa.id)) {
+                    idsComEscritaPendente.add(tarefa.id);
+                    aguardandoSincronizacao.add(tarefa);
+                } else {
+                    tarefa.concluir(null);
+                }
+            }
+            if (aguardandoSincronizacao.isEmpty()) {
+                return;
+            }
+            IOException falhaSincronizacao = null;
+            try {
+                sincronizacao.sincronizar();
+            } catch (IOException e) {
+                falhaSincronizacao = e;
+            }
+            for (Tarefa<?> tarefa : aguardandoSincronizacao) {
+                tarefa.concluir(tarefa.escrita ? falhaSincronizacao : null);
+            }
+        }
+    }
+
+    private static final class ThreadFaixa extends Thread {
+        final EscalonadorIO escalonador;
+
+        ThreadFaixa(Runnable faixa, String nome, EscalonadorIO escalonador) {
+            super(faixa, nome);
+            this.escalonador = escalonador;
+        }
+    }
+
+    private static final class Tarefa<T> {
+        final int id;
+        final boolean escrita;
+        final Operacao<T> operacao;
+        final CompletableFuture<T> futuro = new CompletableFuture<>();
+        private T resultado;
+        private Throwable erro;
+
+        Tarefa(int id, boolean escrita, Operacao<T> operacao) {
+            this.id = id;
+            this.escrita = escrita;
+            this.operacao = operacao;
+        }
+
+        void executar() {
+            try {
+                resultado = operacao.executar();
+            } catch (Throwable e) {
+                erro = e;
+            }
+        }
+
+        // Conclui com o resultado da execução, ou com a falha da sincronização de uma escrita bem-sucedida.
+        void concluir(IOException falhaSincronizacao) {
+            if (erro != null) {
+                futuro.completeExceptionally(erro);
+            } else if (falhaSincronizacao != null) {
+                futuro.completeExceptionally(new IOException("Operação no ID " + id + " executada, mas a sincronização falhou: "
+                        + falhaSincronizacao.getMessage(), falhaSincronizacao));
+            } else {
+                futuro.complete(resultado);
+            }
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package Services;
+
+import Models.Perfume;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Exportação diferencial para PerfumesCompact.dat. A primeira exportação (e cada fusão) gera uma base
+// completa; as seguintes gravam apenas segmentos delta com os registros alterados desde a exportação
+// anterior. Quando os deltas acumulados ficam grandes demais, eles são fundidos numa nova base.
+//
+// Formato de um segmento delta (PerfumesCompact.dat.delta.NNNNNN):
+//   [int magic][int sequência][int id do dicionário][int quantidade] seguido, para cada registro, de
+//   [int id][int version][byte ativo] e, se ativo, [int tamanho][bytes do registro comprimidos com o LZWCodec].
+// Cada nova base treina um dicionário LZW (PerfumesCompact.dat.dic) com uma amostra dos seus registros,
+// e os deltas comprimem registro a registro contra ele; id de dicionário 0 indica LZW sem dicionário.
+public class ExportadorIncremental {
+
+    static final int MAGIC_DELTA = 0x50444C33; // "PDL3"
+    static final String SUFIXO_DELTA = ".delta.";
+    static final String SUFIXO_DICIONARIO = ".dic";
+    private static final int AMOSTRAS_TREINO_DICIONARIO = 512;
+    private static final int MAX_DELTAS_ANTES_DA_FUSAO = 8;
+    private static final double FRACAO_MAXIMA_DELTAS = 0.5; // Deltas maiores que metade da base forçam a fusão
+
+    public enum TipoExportacao { BASE, DELTA, NENHUMA }
+
+    private final GerenciadorArquivos gerenciador;
+    private final Path caminhoBase;
+    private final Set<Integer> idsAlterados = ConcurrentHashMap.newKeySet();
+    // A base em disco pode não refletir alterações feitas por execuções anteriores do programa,
+    // então a primeira exportação de cada execução é sempre completa.
+    private boolean baseAtualizada = false;
+    private int proximoDelta = 1;
+    private DicionarioLZW dicionario;
+
+    public ExportadorIncremental(GerenciadorArquivos gerenciador, Path caminhoBase) {
+        this.gerenciador = gerenciador;
+        this.caminhoBase = caminhoBase;
+    }
+
+    // Marca o ID como alterado desde a última exportação.
+    public void registrarAlteracao(int id) {
+        idsAlterados.add(id);
+    }
+
+    public boolean temAlteracoesPendentes() {
+        return !baseAtualizada || !idsAlterados.isEmpty();
+    }
+
+    public Path getCaminhoBase() {
+        return caminhoBase;
+    }
+
+    // Exporta as alterações pendentes, gerando um delta ou, quando necessário, uma nova base.
+    public synchronized Resultado exportar() throws IOException, InterruptedException {
+        List<Path> deltas = listarDeltas();
+        if (!baseAtualizada || !Files.exists(caminhoBase) || deltas.size() >= MAX_DELTAS_ANTES_DA_FUSAO
+                || tamanhoTotal(deltas) > FRACAO_MAXIMA_DELTAS * Files.size(caminhoBase)) {
+            return fundirEmNovaBase(deltas);
+        }
+        if (idsAlterados.isEmpty()) {
+            return new Resultado(TipoExportacao.NENHUMA, 0, 0L);
+        }
+        return escreverDelta();
+    }
+
+    // Reescreve a base a partir dos registros ativos e descarta os deltas que ela substitui.
+    private Resultado fundirEmNovaBase(List<Path> deltas) throws IOException, InterruptedException {
+        List<Integer> drenados = drenarAlterados();
+        Path temporario = caminhoBase.resolveSibling(caminhoBase.getFileName() + ".tmp");
+        try {
+            gerenciador.compactar(temporario.toString());
+            Files.move(temporario, caminhoBase, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            idsAlterados.addAll(drenados);
+            Files.deleteIfExists(temporario);
+            throw e;
+        }
+        for (Path delta : deltas) {
+            Files.deleteIfExists(delta);
+        }
+        treinarDicionario();
+        baseAtualizada = true;
+        proximoDelta = 1;
+        return new Resultado(TipoExportacao.BASE, gerenciador.getRegistrosAtivos(), Files.size(caminhoBase));
+    }
+
+    // Treina o dicionário dos próximos deltas com registros espaçados uniformemente na base recém-gravada.
+    // Uma falha aqui não invalida a base: os deltas apenas passam a comprimir sem dicionário.
+    private void treinarDicionario() {
+        int proximoId = dicionario == null ? 1 : dicionario.getId() + 1;
+        Path caminhoDicionario = caminhoDicionario(caminhoBase);
+        try (ArquivoBlocosComprimidos arquivo = ArquivoBlocosComprimidos.abrir(caminhoBase)) {
+            int[] ids = arquivo.getIds();
+            List<byte[]> amostras = new ArrayList<>();
+            int passo = Math.max(1, ids.length / AMOSTRAS_TREINO_DICIONARIO);
+            for (int i = 0; i < ids.length; i += passo) {
+                amostras.add(arquivo.lerRegistro(ids[i]));
+            }
+            if (amostras.isEmpty()) {
+                dicionario = null;
+                Files.deleteIfExists(caminhoDicionario);
+                return;
+            }
+            DicionarioLZW novo = DicionarioLZW.treinar(proximoId, amostras);
+            novo.salvar(caminhoDicionario);
+            dicionario = novo;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Falha ao treinar o dicionário LZW dos deltas: " + e.getMessage());
+            dicionario = null;
+        }
+    }
+
+    // Grava um segmento delta contendo apenas os IDs alterados desde a última exportação.
+    private Resultado escreverDelta() throws IOException, InterruptedException {
+        List<Integer> ids = drenarAlterados();
+        Collections.sort(ids);
+        Path destino = caminhoDelta(proximoDelta);
+        Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporario)))) {
+                out.writeInt(MAGIC_DELTA);
+                out.writeInt(proximoDelta);
+                out.writeInt(dicionario == null ? 0 : dicionario.getId());
+                out.writeInt(ids.size());
+                for (int id : ids) {
+                    byte[] dadosBrutos = gerenciador.lerRegistroBruto(id);
+                    Perfume perfume = dadosBrutos == null ? null : Perfume.fromByteArray(dadosBrutos);
+                    out.writeInt(id);
+                    if (perfume != null && perfume.isAtivo()) {
+                        byte[] comprimido = LZWCodec.comprimir(dadosBrutos, dicionario);
+                        out.writeInt(perfume.getVersion());
+                        out.writeByte(1);
+                        out.writeInt(comprimido.length);
+                        out.write(comprimido);
+                    } else {
+                        out.writeInt(perfume == null ? 0 : perfume.getVersion());
+                        out.writeByte(0); // Registro removido desde a última exportação
+                    }
+                }
+            }
+            Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            idsAlterados.addAll(ids);
+            Files.deleteIfExists(temporario);
+            throw e;
+        }
+        proximoDelta++;
+        return new Resultado(TipoExportacao.DELTA, ids.size(), Files.size(destino));
+    }
+
+    // Retira do conjunto os IDs alterados até agora; alterações concorrentes ficam para a próxima exportação.
+    private List<Integer> drenarAlterados() {
+        List<Integer> ids = new ArrayList<>(idsAlterados);
+        idsAlterados.removeAll(ids);
+        return ids;
+    }
+
+    // Lê os segmentos delta da base informada, em ordem, e retorna o estado final de cada ID alterado:
+    // os bytes do registro, ou null se o ID foi removido depois da base.
+    static Map<Integer, byte[]> lerDeltas(Path caminhoBase) throws IOException {
+        Map<Integer, byte[]> alteracoes = new HashMap<>();
+        DicionarioLZW dicionario = null;
+        for (Path delta : listarDeltas(caminhoBase)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(delta)))) {
+                if (in.readInt() != MAGIC_DELTA) {
+                    throw new IOException("Segmento delta inválido: " + delta);
+                }
+                in.readInt(); // Sequência, já implícita no nome do arquivo
+                int idDicionario = in.readInt();
+                if (idDicionario == 0) {
+                    dicionario = null;
+                } else if (dicionario == null || dicionario.getId() != idDicionario) {
+                    dicionario = DicionarioLZW.carregar(caminhoDicionario(caminhoBase));
+                    if (dicionario.getId() != idDicionario) {
+                        throw new IOException("Segmento delta " + delta + " requer o dicionário " + idDicionario
+                                + ", mas o arquivo de dicionário tem o " + dicionario.getId());
+                    }
+                }
+                int quantidade = in.readInt();
+                for (int i = 0; i < quantidade; i++) {
+                    int id = in.readInt();
+                    in.readInt(); // version
+                    if (in.readByte() == 1) {
+                        byte[] comprimido = new byte[in.readInt()];
+                        in.readFully(comprimido);
+                        alteracoes.put(id, LZWCodec.descomprimir(comprimido, dicionario));
+                    } else {
+                        alteracoes.put(id, null);
+                    }
+                }
+            }
+        }
+        return alteracoes;
+    }
+
+    List<Path> listarDeltas() throws IOException {
+        return listarDeltas(caminhoBase);
+    }
+
+    // Lista os segmentos delta existentes, em ordem de sequência.
+    private static List<Path> listarDeltas(Path caminhoBase) throws IOException {
+        List<Path> deltas = new ArrayList<>();
+        Path diretorio = caminhoBase.toAbsolutePath().getParent();
+        if (diretorio == null || !Files.isDirectory(diretorio)) {
+            return deltas;
+        }
+        String prefixo = caminhoBase.getFileName() + SUFIXO_DELTA;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(diretorio, prefixo + "*")) {
+            for (Path p : stream) {
+                if (!p.getFileName().toString().endsWith(".tmp")) {
+                    deltas.add(p);
+                }
+            }
+        }
+        Collections.sort(deltas);
+        return deltas;
+    }
+
+    static Path caminhoDicionario(Path caminhoBase) {
+        return caminhoBase.resolveSibling(caminhoBase.getFileName() + SUFIXO_DICIONARIO);
+    }
+
+    private Path caminhoDelta(int sequencia) {
+        return caminhoBase.resolveSibling(caminhoBase.getFileName() + SUFIXO_DELTA + String.format("%06d", sequencia));
+    }
+
+    private static long tamanhoTotal(List<Path> arquivos) throws IOException {
+        long total = 0;
+        for (Path p : arquivos) {
+            total += Files.size(p);
+        }
+        return total;
+    }
+
+    // Resumo de uma exportação.
+    public static class Resultado {
+        private final TipoExportacao tipo;
+        private final int registros;
+        private final long bytesGravados;
+
+        Resultado(TipoExportacao tipo, int registros, long bytesGravados) {
+            this.tipo = tipo;
+            this.registros = registros;
+            this.bytesGravados = bytesGravados;
+        }
+
+        public TipoExportacao getTipo() {
+            return tipo;
+        }
+
+        public int getRegistros() {
+            return registros;
+        }
+
+        public long getBytesGravados() {
+            return bytesGravados;
+        }
+
+        @Override
+        public String toString() {
+            return "Resultado [tipo=" + tipo + ", registros=" + registros + ", bytesGravados=" + bytesGravados + "]";
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package Services;
 
 import Models.Perfume;
+import Models.PerfumeSobDemanda;
+import Models.ProjecaoPerfume;
 import Structures.Arvore_BPlus;
 import Structures.GerenciadorEspaco;
 import Services.CriptografiaColunar;
@@ -12,25 +14,40 @@ import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
 
-public class GerenciadorArquivos implements AutoCloseable {
+public class GerenciadorArquivos implements ArmazemPerfumes {
 
     // Constantes 
     private static final int ESTIMATED_MAX_RECORD_SIZE = 1024;
-    private static final int SEGMENT_COUNT = 32;
     private static final int BUFFER_POOL_SIZE = 100;
+    private static final int QUALQUER_VERSAO = -1; // Atualização ou remoção sem checagem de versão
+    private static final int TAMANHO_ETAPA_LOTE = 512;           // Registros por etapa do pipeline de lote
+    private static final int ETAPAS_EM_VOO = 4;                  // Etapas codificadas à frente da gravação
+    private static final int MAX_BYTES_ESCRITA_LOTE = 1024 * 1024; // Limite de uma escrita agrupada
+    private static final int FAIXAS_IO = Math.max(2, Runtime.getRuntime().availableProcessors()); // Threads do EscalonadorIO
+    private static final long INTERVALO_VERIFICACAO_MANUTENCAO_SEGUNDOS = 30;
+    private static final long INTERVALO_MINIMO_EXPORTACAO_MS = 10 * 60 * 1000L;
+    static final String CHAVE_CRIPTOGRAFIA = "PERFUMEKEY";
     private final CriptografiaColunar criptografador; 
+    private final CriptografiaAES criptografiaAES; // null = registros novos gravados sem AES
     // Constantes do Cabeçalho do Arquivo 
     private static final int FILE_HEADER_VALID_BYTE_SIZE = 1;
     private static final int FILE_HEADER_FILE_SIZE_LONG_SIZE = Long.BYTES;
@@ -45,16 +62,29 @@ public class GerenciadorArquivos implements AutoCloseable {
     private RandomAccessFile arquivoRAF;
     private final BufferPool bufferPool;
     private final GerenciadorEspaco gerenciadorEspaco;
+    private final AlocadorExtensoes alocadorExtensoes; // Espaço novo no fim do arquivo, por arenas
+    private final BufferEscrita bufferEscrita; // null = cada gravação vai direto ao arquivo, com fsync
 
     // Gerenciamento de Concorrência e Executores 
     private final ReadWriteLock gerenciadorLock = new ReentrantReadWriteLock(true);
-    private final List<ReadWriteLock> segmentLocks;
+    private final Object cabecalhoLock = new Object();
+    private final TabelaLatches latches = new TabelaLatches(); // Um StampedLock por faixa de IDs
+    private final VersoesRegistros versoes = new VersoesRegistros(); // Versões anteriores, para snapshots
+    private volatile LogReplicacao logReplicacao; // null = sem seguidores; ver ReplicacaoPrimario
+    private EscalonadorIO escalonadorIO; // Criado no primeiro uso das operações assíncronas
     private final ExecutorService batchExecutor;
     private final ScheduledExecutorService maintenanceExecutor;
+    private final CompactadorIncremental compactador;
+    private volatile PoliticaCompactacao politicaCompactacao = new PoliticaCompactacao();
+    private final ExportadorIncremental exportador;
+    private volatile boolean exportacaoAgendada = true; // false nas cópias de réplica; ver desativarExportacaoAgendada()
 
     //  Etado do Gerenciador 
     private final AtomicLong totalOperacoes = new AtomicLong(0);
     private final AtomicInteger registrosAtivos = new AtomicInteger(0);
+    private final AtomicLong bytesVivos = new AtomicLong(0); // Bytes ocupados por registros ativos
+    private final AtomicLong operacoesPrimeiroPlano = new AtomicLong(0); // Leituras e escritas de clientes
+    private final MetricasArmazenamento metricas = new MetricasArmazenamento(this);
     private final String filePath;
 
     // Propriedades do Cabeçalho em Memória 
@@ -64,6 +94,10 @@ public class GerenciadorArquivos implements AutoCloseable {
 
     // Construtor 
     public GerenciadorArquivos(Arvore_BPlus arvore, String filePath) throws IOException, InterruptedException {
+        this(arvore, filePath, new ConfiguracaoArmazenamento());
+    }
+
+    public GerenciadorArquivos(Arvore_BPlus arvore, String filePath, ConfiguracaoArmazenamento configuracao) throws IOException, InterruptedException {
         this.arvore = Objects.requireNonNull(arvore, "A Árvore B+ não pode ser nula.");
         this.filePath = Objects.requireNonNull(filePath, "O caminho do arquivo não pode ser nulo.");
         this.bufferPool = new BufferPool(BUFFER_POOL_SIZE, ESTIMATED_MAX_RECORD_SIZE);
@@ -72,19 +106,22 @@ public class GerenciadorArquivos implements AutoCloseable {
 
         this.arquivoRAF = new RandomAccessFile(filePath, "rw");
         this.arquivoChannel = arquivoRAF.getChannel();
-        this.criptografador = new CriptografiaColunar("PERFUMEKEY");
+        this.bufferEscrita = configuracao.isEscritaAdiada() ? new BufferEscrita(arquivoChannel, BufferEscrita.LIMITE_PADRAO) : null;
+        this.criptografador = new CriptografiaColunar(CHAVE_CRIPTOGRAFIA);
+        this.criptografiaAES = configuracao.criarCriptografiaAES();
+        this.gerenciadorEspaco.setMarcadorEspacoLivre(this::marcarEspacoLivre);
         inicializarArquivo();
         lerCabecalhoDoArquivo();
 
-        this.segmentLocks = new ArrayList<>(SEGMENT_COUNT);
-        for (int i = 0; i < SEGMENT_COUNT; i++) {
-            segmentLocks.add(new ReentrantReadWriteLock(true));
-        }
-
         this.batchExecutor = Executors.newWorkStealingPool();
         this.maintenanceExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.alocadorExtensoes = new AlocadorExtensoes(arquivoChannel, FILE_HEADER_TOTAL_SIZE, arquivoChannel.size(),
+                gerenciadorEspaco, this::marcarEspacoLivre);
+        this.compactador = new CompactadorIncremental(this);
+        this.exportador = new ExportadorIncremental(this, caminhoExportacaoPadrao());
         agendarManutencoes();
         recoverAndRebuildTree();
+        metricas.registrarJmx(Paths.get(filePath).toAbsolutePath().toString());
     }
 
     // Métodos de Gerenciamento do Cabeçalho do Arquivo 
@@ -125,30 +162,104 @@ public class GerenciadorArquivos implements AutoCloseable {
     }
     
    // Escreve o estado do cabeçalho do arquivo no disco.
+    // Usa um lock próprio para que possa ser chamado por quem já segura o lock de leitura do gerenciador.
+    // Com a escrita adiada, o cabeçalho fica durável na próxima sincronização, como os registros.
     private void escreverCabecalhoNoArquivo() throws IOException {
-        gerenciadorLock.writeLock().lock();
-        try {
+        escreverCabecalhoNoArquivo(forcarCadaEscrita());
+    }
+
+    // Sem forçar, a gravação fica para o próximo fsync do arquivo (ex.: a barreira de uma etapa de lote).
+    private void escreverCabecalhoNoArquivo(boolean forcar) throws IOException {
+        synchronized (cabecalhoLock) {
             ByteBuffer headerBuffer = ByteBuffer.allocate(FILE_HEADER_TOTAL_SIZE);
             headerBuffer.put(this.arquivoValido ? (byte) 1 : (byte) 0);
             headerBuffer.putLong(this.tamanhoDoArquivo);
             headerBuffer.putInt(this.ultimoId);
-            headerBuffer.flip();
-            arquivoChannel.write(headerBuffer, 0);
-            arquivoChannel.force(true);
-        } finally {
-            gerenciadorLock.writeLock().unlock();
+            gravarNoArquivo(0, headerBuffer.array());
+            if (forcar) {
+                sincronizar();
+            }
+        }
+    }
+
+    /**
+     * Barreira de durabilidade: descarrega o buffer de escrita adiada e faz o fsync do arquivo. Tudo o
+     * que foi concluído antes da chamada sobrevive a uma queda depois dela. O log da lista livre é
+     * forçado antes do arquivo, para que nenhum registro durável fique num trecho persistido como livre.
+     */
+    public void sincronizar() throws IOException {
+        if (bufferEscrita != null) {
+            bufferEscrita.descarregar();
+        }
+        gerenciadorEspaco.sincronizar();
+        forcar(arquivoChannel);
+    }
+
+    // Se cada gravação no arquivo de dados deve fazer o próprio fsync. Não com a escrita adiada, nem numa
+    // faixa do EscalonadorIO: lá a rodada inteira é sincronizada uma vez, antes de concluir os futuros.
+    private boolean forcarCadaEscrita() {
+        if (bufferEscrita != null) {
+            return false;
+        }
+        EscalonadorIO escalonador = EscalonadorIO.daThreadAtual();
+        return escalonador == null || escalonador != escalonadorIO;
+    }
+
+    // fsync medido (ver MetricasArmazenamento).
+    private void forcar(FileChannel canal) throws IOException {
+        long inicio = System.nanoTime();
+        canal.force(true);
+        metricas.registrarFsync(inicio);
+    }
+
+    // Escrita posicional no arquivo de dados, pelo buffer de escrita adiada quando ele está em uso.
+    private void gravarNoArquivo(long posicao, byte[] dados) throws IOException {
+        if (bufferEscrita != null) {
+            bufferEscrita.escrever(posicao, dados);
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(dados);
+        while (buffer.hasRemaining()) {
+            arquivoChannel.write(buffer, posicao + buffer.position());
+        }
+    }
+
+    // Numa realocação, a nova cópia precisa chegar ao disco antes da desativação da antiga: a descarga do
+    // buffer grava em ordem de posição, e uma queda no meio dela não pode deixar o registro sem cópia ativa.
+    // Sem fsync por gravação (escrita adiada ou faixa do EscalonadorIO), a barreira é feita aqui.
+    private void garantirNovaCopiaDuravel() throws IOException {
+        if (!forcarCadaEscrita()) {
+            sincronizar();
         }
     }
 
+    // Leitura posicional que enxerga as escritas ainda no buffer.
+    private int lerDoArquivo(ByteBuffer destino, long posicao) throws IOException {
+        return bufferEscrita != null ? bufferEscrita.ler(destino, posicao) : arquivoChannel.read(destino, posicao);
+    }
+
     // Gera e retorna um novo ID sequencial.
     public synchronized int novoID() {
         return ++this.ultimoId;
     }
 
+    // Maior ID já atribuído neste arquivo.
+    synchronized int getUltimoId() {
+        return this.ultimoId;
+    }
+
+    // Mantém ultimoId acima de IDs atribuídos fora de novoID().
+    private synchronized void registrarIdUsado(int id) {
+        if (id > this.ultimoId) {
+            this.ultimoId = id;
+        }
+    }
+
     // Métodos de CRUD 
 
     // Cria um novo registro de perfume no arquivo.
     public void criar(Perfume perfume) throws Exception {
+        long inicio = System.nanoTime();
         Transaction txn = new Transaction("CREATE", perfume.getId()); // O ID da transação será corrigido abaixo
         try {
             // *** MUDANÇA ESSENCIAL AQUI: ATRIBUIR O NOVO ID ***
@@ -162,325 +273,631 @@ public class GerenciadorArquivos implements AutoCloseable {
             
             byte[] dadosPerfumeBrutos = perfume.toByteArray(); // O perfume AGORA tem o ID correto e está criptografado
             
-            long posicao;
-            Optional<GerenciadorEspaco.FreeBlock> freeBlockOpt = gerenciadorEspaco.getFreeBlock(dadosPerfumeBrutos.length + Integer.BYTES);
-            if (freeBlockOpt.isPresent()) {
-                posicao = freeBlockOpt.get().getOffset();
-            } else {
-                posicao = arquivoChannel.size();
+            // A condição de atualização de ultimoId pode ser simplificada
+            // já que novoID() já garante que ele é o maior.
+            // Mas manter por segurança caso IDs sejam definidos manualmente fora.
+            if (perfume.getId() > this.ultimoId) {
+                this.ultimoId = perfume.getId(); // Garante que ultimoId está sempre no valor mais alto já visto
             }
 
-            getSegmentLock(posicao).writeLock().lock();
+            // O lock de leitura impede que a compactação trunque o fim do arquivo entre a alocação e a escrita
+            travarGerenciador();
+            // O latch ordena a criação antes de qualquer atualização do novo ID na cadeia de versões
+            long stamp = latches.doRegistro(perfume.getId()).writeLock();
+            // Checado com o latch: de duas criações concorrentes do mesmo ID, só a primeira passa
+            if (arvore.buscar(perfume.getId()) != -1) {
+                latches.doRegistro(perfume.getId()).unlockWrite(stamp);
+                gerenciadorLock.readLock().unlock();
+                throw new IllegalStateException("Já existe um perfume com o ID " + perfume.getId() + ".");
+            }
+            VersoesRegistros.Versao versao = versoes.registrar(perfume.getId(), null);
+            byte[] replicado = null;
             try {
-                escreverRegistro(posicao, dadosPerfumeBrutos, arquivoChannel);
-
-                // arvore.inserir() usará o ID atribuído acima
-                arvore.inserir(perfume.getId(), posicao);
-                registrosAtivos.incrementAndGet();
-
-                // A condição de atualização de ultimoId pode ser simplificada
-                // já que novoID() já garante que ele é o maior.
-                // Mas manter por segurança caso IDs sejam definidos manualmente fora.
-                if (perfume.getId() > this.ultimoId) {
-                    this.ultimoId = perfume.getId(); // Garante que ultimoId está sempre no valor mais alto já visto
-                }
-                this.tamanhoDoArquivo = Math.max(this.tamanhoDoArquivo, posicao + dadosPerfumeBrutos.length + Integer.BYTES);
-                escreverCabecalhoNoArquivo(); // Persiste o ultimoId e tamanhoDoArquivo atualizados
+                gravarNovoRegistro(perfume.getId(), dadosPerfumeBrutos); // Usa o ID atribuído acima
 
                 txn.commit();
+                replicado = dadosPerfumeBrutos;
             } finally {
-                getSegmentLock(posicao).writeLock().unlock();
+                versoes.confirmar(perfume.getId(), versao);
+                publicarAlteracao(perfume.getId(), replicado);
+                latches.doRegistro(perfume.getId()).unlockWrite(stamp);
+                gerenciadorLock.readLock().unlock();
             }
+        } catch (IllegalStateException e) {
+            txn.rollback();
+            throw e; // ID já existente: conflito, e não falha de I/O
         } catch (Exception e) {
             txn.rollback();
             throw new IOException("Falha ao criar perfume: " + e.getMessage(), e);
+        } finally {
+            metricas.registrar(MetricasArmazenamento.Operacao.CRIAR, inicio);
         }
     }
 
-    // Busca um registro de perfume pelo ID.
+    // Busca um registro de perfume pelo ID. Nome e marca só são descriptografados quando lidos.
     public Optional<Perfume> buscar(int id) throws IOException, InterruptedException {
-        gerenciadorLock.readLock().lock();
+        long inicio = System.nanoTime();
         try {
-            long posicao = arvore.buscar(id); // Busca a posição do ID na árvore
-            if (posicao == -1) {
+            byte[] dadosBrutos = lerRegistroDoId(id); // Lê os dados brutos do arquivo
+            if (dadosBrutos == null) {
                 // Se o ID não for encontrado na árvore, retorna Optional vazio.
                 return Optional.empty();
             }
+            // Converte para objeto Perfume; a descriptografia fica para o primeiro acesso às strings
+            Perfume perfume = PerfumeSobDemanda.fromByteArray(dadosBrutos, criptografador::descriptografar);
 
-            getSegmentLock(posicao).readLock().lock();
-            try {
-                byte[] dadosBrutos = lerRegistro(posicao, arquivoChannel); // Lê os dados brutos do arquivo
-                Perfume perfume = Perfume.fromByteArray(dadosBrutos); // Converte para objeto Perfume
+            // *** MUDANÇA AQUI: Removida a verificação '!perfume.isAtivo()' ***
+            if (perfume == null || perfume.getId() != id) {
+                System.err.println("Alerta: Registro do ID " + id + " não corresponde ao ID ou está corrompido. Ignorando.");
+                return Optional.empty();
+            }
 
-                // *** MUDANÇA AQUI: Removida a verificação '!perfume.isAtivo()' ***
-                if (perfume == null || perfume.getId() != id) {
-                    System.err.println("Alerta: Registro na posição " + posicao + " não corresponde ao ID " + id + " ou está corrompido. Ignorando.");
-                    return Optional.empty();
-                }
+            operacoesPrimeiroPlano.incrementAndGet();
+            return Optional.of(perfume);
+        } finally {
+            metricas.registrar(MetricasArmazenamento.Operacao.BUSCAR, inicio);
+        }
+    }
 
-                // *** MUDANÇA AQUI: Retorna o perfume DESCRIPTOGRAFADO ***
-                Perfume perfumeDescriptografado = descriptografarPerfume(perfume);
-                return Optional.of(perfumeDescriptografado); // Retorna o perfume descriptografado
-            } finally {
-                getSegmentLock(posicao).readLock().unlock();
+    /**
+     * Abre um snapshot: as leituras feitas com ele enxergam o arquivo como estava neste instante, sem
+     * bloquear escritas. Deve ser fechado ao fim do uso.
+     */
+    public SnapshotLeitura abrirSnapshot() {
+        return versoes.abrirSnapshot();
+    }
+
+    // Busca o registro na versão visível no snapshot, mesmo que tenha sido alterado ou removido depois.
+    public Optional<Perfume> buscar(int id, SnapshotLeitura snapshot) throws IOException {
+        byte[] dadosBrutos = lerRegistroNoSnapshot(id, snapshot);
+        if (dadosBrutos == null) {
+            return Optional.empty();
+        }
+        Perfume perfume = PerfumeSobDemanda.fromByteArray(dadosBrutos, criptografador::descriptografar);
+        if (perfume == null || perfume.getId() != id) {
+            System.err.println("Alerta: Registro do ID " + id + " não corresponde ao ID ou está corrompido. Ignorando.");
+            return Optional.empty();
+        }
+        operacoesPrimeiroPlano.incrementAndGet();
+        return Optional.of(perfume);
+    }
+
+    // Lê apenas os campos numéricos (valor, estoque, ativo, versão) de um registro, sem converter nem
+    // descriptografar nome e marca. Para consultas de estoque e filtros que não precisam dos textos.
+    public Optional<ProjecaoPerfume> buscarProjecao(int id) throws IOException, InterruptedException {
+        long inicio = System.nanoTime();
+        try {
+            byte[] dadosBrutos = lerRegistroDoId(id);
+            if (dadosBrutos == null) {
+                return Optional.empty();
             }
+            ProjecaoPerfume projecao = ProjecaoPerfume.fromByteArray(dadosBrutos);
+            if (projecao == null || projecao.getId() != id) {
+                System.err.println("Alerta: Registro do ID " + id + " não corresponde ao ID ou está corrompido. Ignorando.");
+                return Optional.empty();
+            }
+            operacoesPrimeiroPlano.incrementAndGet();
+            return Optional.of(projecao);
         } finally {
-            gerenciadorLock.readLock().unlock();
+            metricas.registrar(MetricasArmazenamento.Operacao.BUSCAR, inicio);
         }
     }
     // Atualiza um registro de perfume existente.
     public void atualizar(Perfume perfume) throws Exception {
-        gerenciadorLock.readLock().lock();
+        atualizarComVersao(perfume, QUALQUER_VERSAO);
+    }
+
+    /**
+     * Atualiza o registro só se a versão no arquivo ainda for 'versaoEsperada' (a lida pelo cliente).
+     * A comparação e a gravação acontecem com o latch do registro, então duas edições concorrentes do
+     * mesmo perfume nunca se sobrescrevem: a segunda recebe false, relê e decide o que fazer. Em caso
+     * de sucesso, o perfume passa a ter a nova versão, e pode ser usado numa próxima atualização.
+     *
+     * @return false se o registro foi alterado desde a leitura.
+     */
+    public boolean atualizarSeVersao(Perfume perfume, int versaoEsperada) throws Exception {
+        if (versaoEsperada < 0) {
+            throw new IllegalArgumentException("Versão esperada inválida: " + versaoEsperada);
+        }
+        return atualizarComVersao(perfume, versaoEsperada);
+    }
+
+    private boolean atualizarComVersao(Perfume perfume, int versaoEsperada) throws Exception {
+        long inicio = System.nanoTime();
+        travarGerenciador();
         Transaction txn = new Transaction("UPDATE", perfume.getId());
         try {
-            long posicaoExistente = arvore.buscar(perfume.getId());
+            long posicaoExistente = travarRegistro(perfume.getId(), true);
             if (posicaoExistente == -1) {
                 throw new IOException("Perfume com ID " + perfume.getId() + " não encontrado para atualização.");
             }
 
-            getSegmentLock(posicaoExistente).readLock().lock();
-            byte[] dadosBrutosExistente;
-            Perfume perfumeExistente;
-            int tamanhoRegistroAntigo;
+            VersoesRegistros.Versao versao = null;
+            byte[] replicado = null;
             try {
-                dadosBrutosExistente = lerRegistro(posicaoExistente, arquivoChannel);
-                perfumeExistente = Perfume.fromByteArray(dadosBrutosExistente);
-                tamanhoRegistroAntigo = dadosBrutosExistente.length + Integer.BYTES;
+                byte[] dadosBrutosExistente = lerRegistro(posicaoExistente, arquivoChannel);
+                Perfume perfumeExistente = Perfume.fromByteArray(dadosBrutosExistente);
+                int tamanhoRegistroAntigo = obterTamanhoRegistro(posicaoExistente);
 
                 if (perfumeExistente == null || perfumeExistente.getId() != perfume.getId() || !perfumeExistente.isAtivo()) {
                     throw new IOException("Registro na posição " + posicaoExistente + " não corresponde ao ID " + perfume.getId() + " ou está inativo/corrompido. Não será atualizado.");
                 }
+                if (versaoEsperada != QUALQUER_VERSAO && perfumeExistente.getVersion() != versaoEsperada) {
+                    return false;
+                }
                 perfume.setVersion(perfumeExistente.getVersion() + 1);
-            } finally {
-                getSegmentLock(posicaoExistente).readLock().unlock();
-            }
-
-            criptografarPerfume(perfume);
-            byte[] dadosAtualizadosBrutos = perfume.toByteArray();
-            int tamanhoNovoRegistro = dadosAtualizadosBrutos.length + Integer.BYTES;
+                // A versão atual fica disponível para os snapshots abertos antes desta atualização
+                versao = versoes.registrar(perfume.getId(), dadosBrutosExistente);
 
-            if (tamanhoNovoRegistro <= tamanhoRegistroAntigo) {
-                getSegmentLock(posicaoExistente).writeLock().lock();
-                try {
-                    escreverRegistro(posicaoExistente, dadosAtualizadosBrutos, arquivoChannel);
-                    if (tamanhoNovoRegistro < tamanhoRegistroAntigo) {
-                        gerenciadorEspaco.addFreeBlock(posicaoExistente + tamanhoNovoRegistro, tamanhoRegistroAntigo - tamanhoNovoRegistro);
-                    }
-                    txn.commit();
-                } finally {
-                    getSegmentLock(posicaoExistente).writeLock().unlock();
+                criptografarPerfume(perfume);
+                byte[] dadosAtualizadosBrutos = perfume.toByteArray();
+                regravarRegistro(perfume.getId(), posicaoExistente, tamanhoRegistroAntigo, perfumeExistente, dadosAtualizadosBrutos);
+                replicado = dadosAtualizadosBrutos;
+            } finally {
+                if (versao != null) {
+                    versoes.confirmar(perfume.getId(), versao);
                 }
-            } else {
-                getSegmentLock(posicaoExistente).writeLock().lock();
-                try {
-                    //perfumeExistente.desativar(); 
-                    perfumeExistente.setVersion(perfumeExistente.getVersion() + 1); 
-                    byte[] dadosInativosBrutos = perfumeExistente.toByteArray();
-                    escreverRegistro(posicaoExistente, dadosInativosBrutos, arquivoChannel); 
-                    gerenciadorEspaco.addFreeBlock(posicaoExistente, tamanhoRegistroAntigo); 
-                    registrosAtivos.decrementAndGet(); 
-                } finally {
-                    getSegmentLock(posicaoExistente).writeLock().unlock();
-                }
-                
-                criar(perfume);
-                arvore.remover(perfumeExistente.getId()); 
-
-                txn.commit();
+                publicarAlteracao(perfume.getId(), replicado);
+                destravarRegistro(perfume.getId(), true);
             }
+            txn.commit();
+            return true;
         } catch (Exception e) {
             txn.rollback();
             throw e;
         } finally {
             gerenciadorLock.readLock().unlock();
+            metricas.registrar(MetricasArmazenamento.Operacao.ATUALIZAR, inicio);
         }
     }
 
    // Marca um registro de perfume como inativo e o remove da árvore B+.
      
     public void deletar(int id) throws Exception {
-        gerenciadorLock.readLock().lock();
+        deletarComVersao(id, QUALQUER_VERSAO);
+    }
+
+    // Remove o registro só se a versão no arquivo ainda for 'versaoEsperada'; false se foi alterado.
+    public boolean deletarSeVersao(int id, int versaoEsperada) throws Exception {
+        if (versaoEsperada < 0) {
+            throw new IllegalArgumentException("Versão esperada inválida: " + versaoEsperada);
+        }
+        return deletarComVersao(id, versaoEsperada);
+    }
+
+    private boolean deletarComVersao(int id, int versaoEsperada) throws Exception {
+        long inicio = System.nanoTime();
+        travarGerenciador();
         Transaction txn = new Transaction("DELETE", id);
         try {
-            long posicao = arvore.buscar(id);
+            long posicao = travarRegistro(id, true);
             if (posicao == -1) {
                 throw new IOException("Perfume com ID " + id + " não encontrado para remoção.");
             }
 
-            getSegmentLock(posicao).writeLock().lock();
+            VersoesRegistros.Versao versao = null;
+            byte[] replicado = null;
             try {
                 byte[] dadosAtuaisBrutos = lerRegistro(posicao, arquivoChannel);
                 Perfume perfumeParaDesativar = Perfume.fromByteArray(dadosAtuaisBrutos);
+                int tamanhoRegistro = obterTamanhoRegistro(posicao);
 
                 if (perfumeParaDesativar == null || perfumeParaDesativar.getId() != id || !perfumeParaDesativar.isAtivo()) {
                     throw new IOException("Registro na posição " + posicao + " não corresponde ao ID " + id + " ou já está inativo/corrompido. Não será deletado.");
                 }
+                if (versaoEsperada != QUALQUER_VERSAO && perfumeParaDesativar.getVersion() != versaoEsperada) {
+                    return false;
+                }
 
+                versao = versoes.registrar(id, dadosAtuaisBrutos);
                 perfumeParaDesativar.desative();
                 perfumeParaDesativar.setVersion(perfumeParaDesativar.getVersion() + 1);
 
                 byte[] dadosDesativadosBrutos = perfumeParaDesativar.toByteArray();
-                escreverRegistro(posicao, dadosDesativadosBrutos, arquivoChannel);
-
-                boolean removidoDaArvore = arvore.remover(id);
-
-                if (!removidoDaArvore) {
-                    throw new IOException("Falha ao remover ID " + id + " da árvore B+, mesmo após marcar no arquivo.");
-                }
-
-                gerenciadorEspaco.addFreeBlock(posicao, dadosAtuaisBrutos.length + Integer.BYTES);
-                registrosAtivos.decrementAndGet();
+                desativarRegistro(id, posicao, tamanhoRegistro, dadosDesativadosBrutos);
                 txn.commit();
-
+                replicado = dadosDesativadosBrutos;
+                return true;
             } finally {
-                getSegmentLock(posicao).writeLock().unlock();
+                if (versao != null) {
+                    versoes.confirmar(id, versao);
+                }
+                publicarAlteracao(id, replicado);
+                destravarRegistro(id, true);
             }
         } catch (Exception e) {
             txn.rollback();
             throw e;
         } finally {
             gerenciadorLock.readLock().unlock();
+            metricas.registrar(MetricasArmazenamento.Operacao.DELETAR, inicio);
         }
     }
 
-    // Processa uma lista de perfumes em lote (criação)
-     
-    public CompletableFuture<Void> processarLote(List<Perfume> perfumes) {
-        return CompletableFuture.runAsync(() -> {
-            gerenciadorLock.readLock().lock();
-            Transaction txn = new Transaction("BATCH", -1);
-            try {
-                for (Perfume p : perfumes) {
-                    try {
-                        byte[] dadosPerfumeBrutos = p.toByteArray();
-                        int tamanhoRealRegistro = dadosPerfumeBrutos.length + Integer.BYTES;
-
-                        long posicao;
-                        Optional<GerenciadorEspaco.FreeBlock> freeBlockOpt = gerenciadorEspaco.getFreeBlock(tamanhoRealRegistro);
-                        if (freeBlockOpt.isPresent()) {
-                            posicao = freeBlockOpt.get().getOffset();
-                        } else {
-                            posicao = arquivoChannel.size();
-                        }
+    /**
+     * Soma 'delta' ao estoque do perfume (negativo numa venda), alterando só os campos numéricos do
+     * registro gravado: nada de desserializar, descriptografar ou reserializar nome e marca. Leitura,
+     * checagem e gravação acontecem com o latch do registro, então ajustes concorrentes nunca se perdem.
+     *
+     * @return O novo estoque.
+     * @throws IllegalStateException se o estoque ficaria negativo; nesse caso nada é gravado.
+     */
+    public int ajustarEstoque(int id, int delta) throws IOException, InterruptedException {
+        return alterarCamposNumericos(id, delta, false, 0);
+    }
 
-                        getSegmentLock(posicao).writeLock().lock();
-                        try {
-                            escreverRegistro(posicao, dadosPerfumeBrutos, arquivoChannel);
-                            arvore.inserir(p.getId(), posicao);
-                            registrosAtivos.incrementAndGet();
+    // Troca o valor (em centavos) do perfume, da mesma forma que ajustarEstoque().
+    public void definirValor(int id, int novoValor) throws IOException, InterruptedException {
+        if (novoValor < 0) {
+            throw new IllegalArgumentException("O valor não pode ser negativo: " + novoValor);
+        }
+        alterarCamposNumericos(id, 0, true, novoValor);
+    }
 
-                            if (p.getId() > this.ultimoId) {
-                                this.ultimoId = p.getId();
-                            }
-                            this.tamanhoDoArquivo = Math.max(this.tamanhoDoArquivo, posicao + tamanhoRealRegistro);
-                            escreverCabecalhoNoArquivo();
+    private int alterarCamposNumericos(int id, int deltaEstoque, boolean trocarValor, int novoValor) throws IOException, InterruptedException {
+        long inicio = System.nanoTime();
+        travarGerenciador();
+        Transaction txn = new Transaction("UPDATE", id);
+        try {
+            long posicao = travarRegistro(id, true);
+            if (posicao == -1) {
+                throw new IOException("Perfume com ID " + id + " não encontrado para atualização.");
+            }
 
-                        } finally {
-                            getSegmentLock(posicao).writeLock().unlock();
-                        }
-                    } catch (Exception e) {
-                        System.err.println("Erro ao processar perfume " + p.getId() + " no lote: " + e.getMessage());
+            VersoesRegistros.Versao versao = null;
+            byte[] replicado = null;
+            try {
+                byte[] dadosAtuais = lerRegistro(posicao, arquivoChannel);
+                ProjecaoPerfume atual = ProjecaoPerfume.fromByteArray(dadosAtuais);
+                if (atual == null || atual.getId() != id || !atual.isAtivo()) {
+                    throw new IOException("Registro na posição " + posicao + " não corresponde ao ID " + id + " ou está inativo/corrompido. Não será atualizado.");
+                }
+                long estoque = (long) atual.getEstoque() + deltaEstoque;
+                if (estoque < 0) {
+                    throw new IllegalStateException("Estoque insuficiente para o perfume " + id + ": " + atual.getEstoque() + " disponível, ajuste de " + deltaEstoque + ".");
+                }
+                if (estoque > Integer.MAX_VALUE) {
+                    throw new IllegalStateException("Estoque do perfume " + id + " excederia o limite.");
+                }
+
+                byte[] dadosNovos = dadosAtuais.clone();
+                Perfume.alterarCamposNumericos(dadosNovos, trocarValor ? novoValor : atual.getValor(), (int) estoque);
+                versao = versoes.registrar(id, dadosAtuais);
+                int tamanhoRegistro = obterTamanhoRegistro(posicao);
+                if (isCifradoNoDisco(tamanhoRegistro)) {
+                    // O AES-GCM autentica o registro inteiro: não há como alterar só alguns bytes
+                    escreverRegistro(posicao, dadosNovos, arquivoChannel, true);
+                } else {
+                    // Checksum e campos saem numa única escrita (o tamanho no início não muda)
+                    gravarNoArquivo(posicao + Integer.BYTES, dadosNovos);
+                    if (forcarCadaEscrita()) {
+                        forcar(arquivoChannel);
                     }
+                    totalOperacoes.incrementAndGet();
                 }
                 txn.commit();
-            } catch (Exception e) {
-                txn.rollback();
-                throw new CompletionException(e);
+                replicado = dadosNovos;
+                return (int) estoque;
             } finally {
-                gerenciadorLock.readLock().unlock();
+                if (versao != null) {
+                    versoes.confirmar(id, versao);
+                }
+                publicarAlteracao(id, replicado);
+                destravarRegistro(id, true);
             }
-        }, batchExecutor);
+        } catch (IOException | RuntimeException e) {
+            txn.rollback();
+            throw e;
+        } finally {
+            gerenciadorLock.readLock().unlock();
+            metricas.registrar(MetricasArmazenamento.Operacao.ATUALIZAR, inicio);
+        }
     }
 
-    // Compacta o arquivo de dados, reescrevendo apenas registros ativos e aplicando compactação LZW
-    public void compactar(String outputFilePath) throws IOException, InterruptedException {
-        gerenciadorLock.writeLock().lock();
-        Path outputFile = null;
-        boolean isExportingNewFile = (outputFilePath != null && !outputFilePath.isEmpty());
+    // Operações assíncronas: enfileiradas no EscalonadorIO, que executa as de um mesmo ID em ordem e
+    // compartilha uma sincronização entre as escritas de cada rodada (as gravações feitas na faixa não
+    // forçam o disco, ver forcarCadaEscrita()). Os futuros de escrita só completam
+    // com a alteração durável; falhas chegam como conclusão excepcional, com a exceção da operação síncrona.
+
+    // Cria o perfume; o ID (se for 0) é atribuído antes do retorno, e o futuro conclui com ele.
+    @Override
+    public CompletableFuture<Integer> criarAsync(Perfume perfume) {
+        if (perfume.getId() == 0) {
+            perfume.setId(novoID());
+        }
+        int id = perfume.getId();
+        return getEscalonadorIO().agendar(id, true, () -> {
+            criar(perfume);
+            return id;
+        });
+    }
 
+    @Override
+    public CompletableFuture<Optional<Perfume>> buscarAsync(int id) {
+        return getEscalonadorIO().agendar(id, false, () -> buscar(id));
+    }
+
+    @Override
+    public CompletableFuture<Void> atualizarAsync(Perfume perfume) {
+        return getEscalonadorIO().agendar(perfume.getId(), true, () -> {
+            atualizar(perfume);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deletarAsync(int id) {
+        return getEscalonadorIO().agendar(id, true, () -> {
+            deletar(id);
+            return null;
+        });
+    }
+
+    private synchronized EscalonadorIO getEscalonadorIO() {
+        if (escalonadorIO == null) {
+            escalonadorIO = new EscalonadorIO(FAIXAS_IO, this::sincronizar,
+                    Paths.get(filePath).getFileName().toString());
+        }
+        return escalonadorIO;
+    }
+
+    /**
+     * Cria os perfumes em lote. O lote passa por um pipeline em etapas de TAMANHO_ETAPA_LOTE registros:
+     * codificação (serialização e criptografia) em paralelo no pool de lotes; depois, em ordem, alocação
+     * de espaço da etapa inteira, gravação agrupando registros vizinhos numa única escrita, um único fsync
+     * e a inserção da etapa no índice. No máximo ETAPAS_EM_VOO etapas ficam codificadas à frente da
+     * gravação, o que limita a memória usada por importações grandes.
+     *
+     * @return Um resultado por perfume, na ordem da lista. Falhas de um registro não interrompem o lote.
+     */
+    public CompletableFuture<List<ResultadoLote>> processarLote(List<Perfume> perfumes) {
+        long inicioLote = System.nanoTime();
+        List<Perfume> entrada = new ArrayList<>(perfumes);
+        ResultadoLote[] resultados = new ResultadoLote[entrada.size()];
+        List<CompletableFuture<Void>> gravacoes = new ArrayList<>();
+        CompletableFuture<Void> anterior = CompletableFuture.completedFuture(null);
+
+        for (int inicio = 0; inicio < entrada.size(); inicio += TAMANHO_ETAPA_LOTE) {
+            int etapa = gravacoes.size();
+            int ini = inicio;
+            int fim = Math.min(entrada.size(), inicio + TAMANHO_ETAPA_LOTE);
+            // Contrapressão: a etapa só é codificada quando a gravação de ETAPAS_EM_VOO etapas atrás terminou
+            CompletableFuture<Void> liberacao = etapa < ETAPAS_EM_VOO
+                    ? CompletableFuture.completedFuture(null) : gravacoes.get(etapa - ETAPAS_EM_VOO);
+            CompletableFuture<List<ItemLote>> codificada =
+                    liberacao.thenApplyAsync(v -> codificarEtapa(entrada, ini, fim, resultados), batchExecutor);
+            CompletableFuture<Void> gravada =
+                    anterior.thenCombineAsync(codificada, (v, itens) -> gravarEtapa(itens, resultados), batchExecutor);
+            gravacoes.add(gravada);
+            anterior = gravada;
+        }
+        return anterior.thenApply(v -> Arrays.asList(resultados))
+                .whenComplete((r, e) -> metricas.registrar(MetricasArmazenamento.Operacao.LOTE, inicioLote));
+    }
+
+    // Etapa 1: atribui IDs e serializa e criptografa cada registro no formato em que vai para o disco.
+    private List<ItemLote> codificarEtapa(List<Perfume> entrada, int inicio, int fim, ResultadoLote[] resultados) {
+        List<ItemLote> itens = new ArrayList<>(fim - inicio);
+        for (int i = inicio; i < fim; i++) {
+            Perfume p = entrada.get(i);
+            try {
+                if (p.getId() == 0) {
+                    p.setId(novoID());
+                } else {
+                    registrarIdUsado(p.getId());
+                }
+                criptografarPerfume(p);
+                byte[] registro = p.toByteArray();
+                byte[] dados = registro;
+                if (criptografiaAES != null) {
+                    dados = criptografiaAES.cifrar(registro);
+                }
+                itens.add(new ItemLote(i, p.getId(), registro, dados));
+            } catch (Exception e) {
+                resultados[i] = ResultadoLote.falha(p.getId(), e.getMessage());
+            }
+        }
+        return itens;
+    }
+
+    // Etapas 2 a 5, em ordem entre as etapas do lote: aloca, grava, sincroniza e indexa.
+    private Void gravarEtapa(List<ItemLote> itens, ResultadoLote[] resultados) {
+        if (itens.isEmpty()) {
+            return null;
+        }
+        travarGerenciador();
+        Transaction txn = new Transaction("BATCH", -1);
         try {
-            if (isExportingNewFile) {
-                outputFile = Paths.get(outputFilePath);
-                Files.createDirectories(outputFile.getParent());
-            } else {
-                outputFile = Files.createTempFile("compact", ".dat");
-            }
-
-            try (FileChannel outputChannel = FileChannel.open(outputFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
-                ByteBuffer tempHeader = ByteBuffer.allocate(FILE_HEADER_TOTAL_SIZE);
-                tempHeader.put(this.arquivoValido ? (byte) 1 : (byte) 0);
-                tempHeader.putLong(0L);
-                tempHeader.putInt(this.ultimoId);
-                tempHeader.flip();
-                outputChannel.write(tempHeader, 0);
-
-                List<Integer> todosIds = arvore.buscarTodosIds();
-
-                long novaPosicao = FILE_HEADER_TOTAL_SIZE;
-                int novosRegistrosAtivosCount = 0;
-
-                for (int id : todosIds) {
-                    long posAntiga = arvore.buscar(id);
-
-                    if (posAntiga != -1) {
-                        getSegmentLock(posAntiga).readLock().lock();
-                        try {
-                            byte[] dadosBrutosDoOriginal = lerRegistro(posAntiga, arquivoChannel);
-                            Perfume perfume = Perfume.fromByteArray(dadosBrutosDoOriginal);
-
-                            if (perfume != null && perfume.getId() == id && perfume.isAtivo()) {
-                                byte[] dadosRecomprimidos = LZWCompressor.compress(dadosBrutosDoOriginal);
-                                escreverRegistroComprimido(novaPosicao, dadosRecomprimidos, outputChannel);
-
-                                if (!isExportingNewFile) {
-                                    arvore.atualizarPosicao(id, novaPosicao);
-                                }
-                                novaPosicao += (dadosRecomprimidos.length + Integer.BYTES);
-                                novosRegistrosAtivosCount++;
-                            } else {
-                                System.err.println("Aviso: Registro inativo/inválido (ID: " + id + ") na posição " + posAntiga + " durante compactação. Será ignorado na saída.");
-                            }
-                        } finally {
-                            getSegmentLock(posAntiga).readLock().unlock();
-                        }
-                    } else {
-                         System.err.println("Aviso: ID " + id + " não encontrado na árvore B+ durante compactação (pode ter sido removido por outra thread ou ser um índice órfão). Será ignorado na saída.");
-                    }
+            List<ItemLote> alocados = new ArrayList<>(itens.size());
+            Set<Integer> idsDaEtapa = new HashSet<>(); // Repetições dentro da própria etapa, que a árvore ainda não tem
+            long fimEscrito = 0;
+            for (ItemLote item : itens) {
+                if (arvore.buscar(item.id) != -1 || !idsDaEtapa.add(item.id)) {
+                    resultados[item.indice] = ResultadoLote.falha(item.id, "ID já existe.");
+                    continue;
                 }
+                int tamanho = Integer.BYTES + item.dados.length;
+                Optional<GerenciadorEspaco.FreeBlock> freeBlockOpt = gerenciadorEspaco.getFreeBlock(tamanho);
+                item.posicao = freeBlockOpt.isPresent() ? freeBlockOpt.get().getOffset() : alocadorExtensoes.alocar(tamanho);
+                alocados.add(item);
+            }
+            // Registros alocados da mesma arena ficam contíguos e saem numa única escrita
+            alocados.sort(Comparator.comparingLong(item -> item.posicao));
+            List<ItemLote> gravados = new ArrayList<>(alocados.size());
+            int i = 0;
+            while (i < alocados.size()) {
+                int j = i + 1;
+                long fimGrupo = alocados.get(i).getFim();
+                while (j < alocados.size() && alocados.get(j).posicao == fimGrupo
+                        && fimGrupo - alocados.get(i).posicao < MAX_BYTES_ESCRITA_LOTE) {
+                    fimGrupo = alocados.get(j).getFim();
+                    j++;
+                }
+                List<ItemLote> grupo = alocados.subList(i, j);
+                try {
+                    gravarGrupo(grupo, fimGrupo);
+                    gravados.addAll(grupo);
+                    fimEscrito = Math.max(fimEscrito, fimGrupo);
+                } catch (IOException e) {
+                    descartarItens(grupo, e.getMessage(), resultados);
+                }
+                i = j;
+            }
 
-                long finalOutputFileSize = outputChannel.size();
-                ByteBuffer finalHeaderUpdate = ByteBuffer.allocate(FILE_HEADER_TOTAL_SIZE);
-                finalHeaderUpdate.put(this.arquivoValido ? (byte) 1 : (byte) 0);
-                finalHeaderUpdate.putLong(finalOutputFileSize);
-                finalHeaderUpdate.putInt(this.ultimoId);
-                finalHeaderUpdate.flip();
-                outputChannel.write(finalHeaderUpdate, 0);
-                outputChannel.force(true);
-
-                if (!isExportingNewFile) {
-                     // Se for "in-place", substituir o arquivo original pelo compactado
-                    this.tamanhoDoArquivo = finalOutputFileSize;
-                    substituirArquivo(outputFile); // Reinsere o método para 'in-place' se essa for a intenção
-                    registrosAtivos.set(novosRegistrosAtivosCount);
-                    gerenciadorEspaco.clearFreeList();
-                    System.out.println("Compactação 'in-place' concluída. Novo tamanho do arquivo original: " + finalOutputFileSize + " bytes. Registros ativos: " + registrosAtivos.get());
-                } else {
-                    System.out.println("Compactação para novo arquivo concluída com sucesso. Arquivo gerado: " + outputFile.toAbsolutePath());
+            synchronized (cabecalhoLock) {
+                this.tamanhoDoArquivo = Math.max(this.tamanhoDoArquivo, fimEscrito);
+            }
+            escreverCabecalhoNoArquivo(false);
+            // Barreira de durabilidade da etapa: os registros só entram no índice depois dela
+            try {
+                sincronizar();
+            } catch (IOException e) {
+                descartarItens(gravados, e.getMessage(), resultados);
+                return null;
+            }
+            totalOperacoes.addAndGet(gravados.size());
+            indexarEtapa(gravados, resultados);
+            txn.commit();
+        } catch (Exception e) {
+            txn.rollback();
+            for (ItemLote item : itens) {
+                if (resultados[item.indice] == null) {
+                    resultados[item.indice] = ResultadoLote.falha(item.id, e.getMessage());
                 }
+            }
+        } finally {
+            gerenciadorLock.readLock().unlock();
+        }
+        return null;
+    }
 
-            } finally {
-                if (!isExportingNewFile) {
-                    Files.deleteIfExists(outputFile);
+    private void gravarGrupo(List<ItemLote> grupo, long fimGrupo) throws IOException {
+        long inicio = grupo.get(0).posicao;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (fimGrupo - inicio));
+        for (ItemLote item : grupo) {
+            buffer.putInt(item.dados.length);
+            buffer.put(item.dados);
+        }
+        gravarNoArquivo(inicio, buffer.array());
+    }
+
+    // Insere a etapa no índice de uma vez, com os latches dos IDs travados para que a criação entre na
+    // cadeia de versões antes de qualquer atualização concorrente dos mesmos IDs.
+    private void indexarEtapa(List<ItemLote> gravados, ResultadoLote[] resultados) throws IOException {
+        int[] ids = new int[gravados.size()];
+        for (int k = 0; k < gravados.size(); k++) {
+            ids[k] = gravados.get(k).id;
+        }
+        TabelaLatches.LatchesTravados travados = latches.travarEscrita(ids, ids.length);
+        List<ItemLote> indexados = new ArrayList<>(gravados.size());
+        long[] posicoes = new long[gravados.size()];
+        VersoesRegistros.Versao[] criacoes = new VersoesRegistros.Versao[gravados.size()];
+        boolean inseridos = false;
+        try {
+            for (ItemLote item : gravados) {
+                if (arvore.buscar(item.id) != -1) {
+                    // Criado por outra operação depois da verificação da alocação
+                    descartarItens(Collections.singletonList(item), "ID já existe.", resultados);
+                    continue;
                 }
+                ids[indexados.size()] = item.id;
+                posicoes[indexados.size()] = item.posicao;
+                criacoes[indexados.size()] = versoes.registrar(item.id, null);
+                indexados.add(item);
             }
+            arvore.inserirTodos(ids, posicoes, indexados.size());
+            inseridos = true;
         } finally {
-            gerenciadorLock.writeLock().unlock();
+            for (int k = 0; k < indexados.size(); k++) {
+                versoes.confirmar(ids[k], criacoes[k]);
+                if (inseridos) {
+                    publicarAlteracao(ids[k], indexados.get(k).registro);
+                }
+            }
+            travados.liberar();
+        }
+        for (ItemLote item : indexados) {
+            registrosAtivos.incrementAndGet();
+            bytesVivos.addAndGet(item.getFim() - item.posicao);
+            exportador.registrarAlteracao(item.id);
+            resultados[item.indice] = ResultadoLote.sucesso(item.id, item.posicao);
+        }
+    }
+
+    // Devolve o espaço de registros que não chegaram ao índice, marcando-o como livre no arquivo para que
+    // a recuperação não reindexe uma cópia gravada.
+    private void descartarItens(List<ItemLote> itens, String erro, ResultadoLote[] resultados) {
+        for (ItemLote item : itens) {
+            resultados[item.indice] = ResultadoLote.falha(item.id, erro);
+            int tamanho = (int) (item.getFim() - item.posicao);
+            try {
+                marcarEspacoLivre(item.posicao, tamanho);
+                gerenciadorEspaco.addFreeBlock(item.posicao, tamanho);
+            } catch (IOException e) {
+                System.err.println("Erro ao liberar o espaço do perfume " + item.id + " no lote: " + e.getMessage());
+            }
+        }
+    }
+
+    // Compacta o arquivo de dados. Sem caminho de saída, executa a compactação incremental no próprio
+    // arquivo; com caminho, exporta os registros ativos para um arquivo de blocos comprimidos
+    // (ver ArquivoBlocosComprimidos), que pode ser consultado diretamente com ArmazemCompactado.
+    // Nenhum dos dois modos segura o lock global durante toda a operação.
+    public void compactar(String outputFilePath) throws IOException, InterruptedException {
+        long inicio = System.nanoTime();
+        try {
+            if (outputFilePath == null || outputFilePath.isEmpty()) {
+                CompactadorIncremental.Resultado resultado = compactador.executar();
+                System.out.println("Compactação incremental concluída. " + resultado + ". Registros ativos: " + registrosAtivos.get());
+            } else {
+                compactarEmBlocos(Paths.get(outputFilePath));
+            }
+        } finally {
+            metricas.registrar(MetricasArmazenamento.Operacao.COMPACTACAO, inicio);
         }
     }
 
+    // Exporta os registros ativos para um arquivo de blocos comprimidos (modo com caminho de compactar()).
+    private void compactarEmBlocos(Path outputFile) throws IOException, InterruptedException {
+        if (outputFile.getParent() != null) {
+            Files.createDirectories(outputFile.getParent());
+        }
+
+        // Os blocos são comprimidos em paralelo no pool de lotes enquanto esta thread lê os registros
+        try (ArquivoBlocosComprimidos.Escritor escritor = new ArquivoBlocosComprimidos.Escritor(outputFile, this.ultimoId,
+                ArquivoBlocosComprimidos.TAMANHO_BLOCO_PADRAO, batchExecutor, Runtime.getRuntime().availableProcessors());
+             SnapshotLeitura snapshot = abrirSnapshot()) {
+            // A saída reflete o arquivo no início da exportação; escritas concorrentes não esperam por ela
+            for (int id : idsNoSnapshot(snapshot)) { // Em ordem crescente, como o escritor exige
+                byte[] dadosBrutosDoOriginal = lerRegistroNoSnapshot(id, snapshot);
+
+                if (dadosBrutosDoOriginal != null) {
+                    Perfume perfume = Perfume.fromByteArray(dadosBrutosDoOriginal);
+
+                    if (perfume != null && perfume.getId() == id && perfume.isAtivo()) {
+                        escritor.adicionar(id, dadosBrutosDoOriginal);
+                    } else {
+                        System.err.println("Aviso: Registro inativo/inválido (ID: " + id + ") durante compactação. Será ignorado na saída.");
+                    }
+                } else {
+                    // Criado depois do início da exportação: não faz parte do snapshot
+                }
+            }
+        }
+        System.out.println("Compactação para novo arquivo concluída com sucesso. Arquivo gerado: " + outputFile.toAbsolutePath());
+    }
+
     // Fecha todos os recursos do gerenciador de arquivos
     @Override
     public void close() throws IOException {
+        metricas.removerJmx();
+        EscalonadorIO escalonador;
+        synchronized (this) {
+            escalonador = escalonadorIO;
+        }
+        if (escalonador != null) {
+            escalonador.fechar(); // Conclui as operações assíncronas já enfileiradas
+        }
         maintenanceExecutor.shutdown();
         batchExecutor.shutdown();
 
@@ -495,8 +912,13 @@ public class GerenciadorArquivos implements AutoCloseable {
             Thread.currentThread().interrupt();
         }
 
+        // Devolve a sobra das arenas e corta o espaço livre e pré-alocado no fim do arquivo
+        recuperarEspacoFinal();
+        if (bufferEscrita != null) {
+            bufferEscrita.descarregar();
+        }
         this.tamanhoDoArquivo = arquivoChannel.size();
-        escreverCabecalhoNoArquivo();
+        escreverCabecalhoNoArquivo(true);
 
         if (bufferPool != null) {
             bufferPool.close();
@@ -512,17 +934,16 @@ public class GerenciadorArquivos implements AutoCloseable {
         }
     }
     public List<Perfume> buscarPorPadrao(String padrao) throws IOException, InterruptedException {
+        long inicio = System.nanoTime();
         List<Perfume> resultados = new ArrayList<>();
         String padraoLowerCase = padrao.toLowerCase(); // Converte o padrão para minúsculas para busca case-insensitive
 
-        gerenciadorLock.readLock().lock(); // Adquire um lock de leitura para acesso seguro ao arquivo
-        try {
-            List<Integer> todosIds = arvore.buscarTodosIds(); // Obtém todos os IDs da sua B-Tree
-
-            for (int id : todosIds) {
-                // Reutiliza o método buscar(id) existente para carregar o perfume
-                // O buscar(id) já lida com descriptografia e locks de segmento.
-                Optional<Perfume> pOpt = buscar(id); // Chamada ao seu método buscar(int id)
+        // A varredura lê um snapshot: o resultado é consistente com o início da busca, e escritas
+        // concorrentes não esperam por ela nem são vistas pela metade.
+        try (SnapshotLeitura snapshot = abrirSnapshot()) {
+            for (int id : idsNoSnapshot(snapshot)) {
+                // Nome e marca só são descriptografados se o perfume estiver ativo, pois isAtivo() é testado primeiro.
+                Optional<Perfume> pOpt = buscar(id, snapshot);
 
                 if (pOpt.isPresent()) {
                     Perfume perfume = pOpt.get();
@@ -534,11 +955,11 @@ public class GerenciadorArquivos implements AutoCloseable {
                         resultados.add(perfume); // Adiciona o perfume à lista de resultados
                     }
                 }
-                // Não é necessário um 'else' para o pOpt.isPresent() aqui, pois o buscar(id)
+                // Não é necessário um 'else' para o pOpt.isPresent() aqui, pois o buscar(id, snapshot)
                 // já imprime um erro se o registro não puder ser carregado/descomprimido.
             }
         } finally {
-            gerenciadorLock.readLock().unlock(); // Libera o lock de leitura
+            metricas.registrar(MetricasArmazenamento.Operacao.BUSCA_PADRAO, inicio);
         }
         return resultados; // Retorna a lista de perfumes que correspondem ao padrão
     }
@@ -555,21 +976,31 @@ public class GerenciadorArquivos implements AutoCloseable {
         perfume.setMarca(marcaCriptografada);
         return perfume;
     }
-
-    private Perfume descriptografarPerfume(Perfume perfume) {
-        if (perfume == null) return null;
-        // Descriptografa o nome e a marca
-        String nomeDescriptografado = criptografador.descriptografar(perfume.getNome());
-        String marcaDescriptografada = criptografador.descriptografar(perfume.getMarca());
-
-        // Atualiza o objeto Perfume com os campos descriptografados
-        perfume.setNome(nomeDescriptografado);
-        perfume.setMarca(marcaDescriptografada);
-        return perfume;
-    }
-    // Escreve um array de bytes brutos no FileChannel, prefixando-o com seu tamanho.
+    // Escreve um array de bytes brutos no FileChannel, prefixando-o com seu tamanho. Com AES configurado,
+    // o registro é cifrado antes da gravação.
     private void escreverRegistro(long posicao, byte[] dadosBrutos, FileChannel channel) throws IOException, InterruptedException {
+        escreverRegistro(posicao, dadosBrutos, channel, criptografiaAES != null);
+    }
+
+    // Variante que fixa o formato: regravações no lugar precisam manter o formato (e o tamanho) do registro antigo.
+    private void escreverRegistro(long posicao, byte[] dadosBrutos, FileChannel channel, boolean cifrar) throws IOException, InterruptedException {
+        if (cifrar) {
+            if (criptografiaAES == null) {
+                throw new IOException("Registro cifrado com AES na posição " + posicao + ", mas nenhuma chave AES foi configurada.");
+            }
+            dadosBrutos = criptografiaAES.cifrar(dadosBrutos);
+        }
         int tamanhoDados = dadosBrutos.length;
+        if (bufferEscrita != null) {
+            // Escrita adiada: sem fsync aqui; o registro fica durável na próxima sincronização
+            ByteBuffer registro = ByteBuffer.allocate(Integer.BYTES + tamanhoDados);
+            registro.putInt(tamanhoDados);
+            registro.put(dadosBrutos);
+            bufferEscrita.escrever(posicao, registro.array());
+            totalOperacoes.incrementAndGet();
+            return;
+        }
+        metricas.registrarEmprestimoBuffer(bufferPool.availableBuffers() > 0); // Sem buffer livre, take() espera
         ByteBuffer buffer = bufferPool.borrowBuffer();
         try {
             buffer.clear();
@@ -581,7 +1012,9 @@ public class GerenciadorArquivos implements AutoCloseable {
             if (bytesWritten != (tamanhoDados + Integer.BYTES)) {
                 throw new IOException("Erro ao escrever no arquivo: esperado " + (tamanhoDados + Integer.BYTES) + " bytes, escrito " + bytesWritten);
             }
-            channel.force(true);
+            if (channel != arquivoChannel || forcarCadaEscrita()) {
+                forcar(channel);
+            }
             totalOperacoes.incrementAndGet();
         } finally {
             bufferPool.returnBuffer(buffer);
@@ -591,7 +1024,7 @@ public class GerenciadorArquivos implements AutoCloseable {
     // Lê um array de bytes brutos de um FileChannel, lendo primeiro seu tamanho.
     private byte[] lerRegistro(long posicao, FileChannel channel) throws IOException {
         ByteBuffer sizeBuffer = ByteBuffer.allocate(Integer.BYTES);
-        int bytesReadSize = channel.read(sizeBuffer, posicao);
+        int bytesReadSize = lerDoArquivo(sizeBuffer, posicao);
         if (bytesReadSize == -1) {
             throw new EOFException("Fim inesperado do arquivo ao tentar ler tamanho na posição: " + posicao);
         }
@@ -606,12 +1039,17 @@ public class GerenciadorArquivos implements AutoCloseable {
         }
 
         ByteBuffer dataBuffer = null;
+        boolean bufferDoPool = false;
         try {
-            if (bufferPool.availableBuffers() > 0) {
+            boolean disponivel = bufferPool.availableBuffers() > 0;
+            metricas.registrarEmprestimoBuffer(disponivel);
+            if (disponivel) {
                 ByteBuffer borrowed = bufferPool.borrowBuffer();
                 if (borrowed.capacity() >= tamanhoDadosBrutos) {
                     dataBuffer = borrowed;
                     dataBuffer.clear();
+                    dataBuffer.limit(tamanhoDadosBrutos);
+                    bufferDoPool = true;
                 } else {
                     bufferPool.returnBuffer(borrowed);
                     dataBuffer = ByteBuffer.allocate(tamanhoDadosBrutos);
@@ -620,7 +1058,7 @@ public class GerenciadorArquivos implements AutoCloseable {
                 dataBuffer = ByteBuffer.allocate(tamanhoDadosBrutos);
             }
 
-            int bytesReadData = channel.read(dataBuffer, posicao + Integer.BYTES);
+            int bytesReadData = lerDoArquivo(dataBuffer, posicao + Integer.BYTES);
             if (bytesReadData == -1) {
                 throw new EOFException("Fim inesperado do arquivo ao tentar ler dados na posição: " + (posicao + Integer.BYTES));
             }
@@ -630,41 +1068,39 @@ public class GerenciadorArquivos implements AutoCloseable {
             dataBuffer.flip();
             byte[] dados = new byte[tamanhoDadosBrutos];
             dataBuffer.get(dados);
+            if (CriptografiaAES.isCifrado(dados)) {
+                if (criptografiaAES == null) {
+                    throw new IOException("Registro cifrado com AES na posição " + posicao + ", mas nenhuma chave AES foi configurada.");
+                }
+                return criptografiaAES.decifrar(dados);
+            }
             return dados;
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw new IOException("Leitura do buffer interrompida", e);
         } finally {
-            if (dataBuffer != null && bufferPool.contains(dataBuffer)) { // Verifica se o buffer pertence ao pool antes de retornar
+            if (bufferDoPool) { // Só devolve ao pool o buffer que foi emprestado dele
                 bufferPool.returnBuffer(dataBuffer);
             }
         }
     }
 
  
-    private void escreverRegistroComprimido(long posicao, byte[] dadosComprimidos, FileChannel channel) throws IOException, InterruptedException {
-        int tamanhoDados = dadosComprimidos.length;
-        ByteBuffer buffer = bufferPool.borrowBuffer();
-        try {
-            buffer.clear();
-            buffer.putInt(tamanhoDados);
-            buffer.put(dadosComprimidos);
-            buffer.flip();
+    // Tamanho total em disco de um registro lógico (dados, sobrecarga do AES se cifrado, e o inteiro de tamanho).
+    private static int tamanhoEmDisco(int tamanhoLogico, boolean cifrado) {
+        return (cifrado ? CriptografiaAES.tamanhoCifrado(tamanhoLogico) : tamanhoLogico) + Integer.BYTES;
+    }
 
-            int bytesWritten = channel.write(buffer, posicao);
-            if (bytesWritten != (tamanhoDados + Integer.BYTES)) {
-                throw new IOException("Erro ao escrever no arquivo compactado: esperado " + (tamanhoDados + Integer.BYTES) + " bytes, escrito " + bytesWritten);
-            }
-            channel.force(true);
-        } finally {
-            bufferPool.returnBuffer(buffer);
-        }
+    private static boolean isCifradoNoDisco(int tamanhoTotalRegistro) {
+        return tamanhoTotalRegistro == tamanhoEmDisco(Perfume.RECORD_SIZE, true);
     }
 
     // Obtém o tamanho total de um registro (tamanho dos dados + 4 bytes do inteiro de tamanho).
-    private int obterTamanhoRegistro(long posicao) throws IOException {
+    // Lê o int que abre cada posição do arquivo: o tamanho do registro ou, se negativo, um marcador de
+    // espaço livre.
+    private int lerCabecalhoRegistro(long posicao) throws IOException {
         ByteBuffer sizeBuffer = ByteBuffer.allocate(Integer.BYTES);
-        int bytesReadSize = arquivoChannel.read(sizeBuffer, posicao);
+        int bytesReadSize = lerDoArquivo(sizeBuffer, posicao);
         if (bytesReadSize == -1) {
             throw new EOFException("Fim inesperado do arquivo ao tentar ler tamanho na posição: " + posicao);
         }
@@ -672,34 +1108,30 @@ public class GerenciadorArquivos implements AutoCloseable {
             throw new IOException("Dados de tamanho incompletos na posição: " + posicao);
         }
         sizeBuffer.flip();
-        int tamanhoDados = sizeBuffer.getInt();
-        if (tamanhoDados < 0) {
-            throw new IOException("Tamanho de registro inválido (negativo) na posição: " + posicao + " - " + tamanhoDados);
-        }
-        return tamanhoDados + Integer.BYTES;
+        return sizeBuffer.getInt();
     }
 
-    // Substitui o arquivo de dados original por um novo arquivo (geralmente compactado).
-    private void substituirArquivo(Path tempFile) throws IOException {
-        Path originalPath = Paths.get(filePath);
+    // Grava no início de um trecho livre um marcador [-tamanho], para que a recuperação salte o trecho
+    // inteiro mesmo que ele comece no meio de um registro antigo.
+    private void marcarEspacoLivre(long posicao, int tamanho) throws IOException {
+        ByteBuffer marcador = ByteBuffer.allocate(Integer.BYTES);
+        marcador.putInt(-tamanho);
+        gravarNoArquivo(posicao, marcador.array());
+    }
 
-        if (arquivoChannel != null && arquivoChannel.isOpen()) {
-            arquivoChannel.close();
-        }
-        if (arquivoRAF != null) {
-            arquivoRAF.close();
+    private int obterTamanhoRegistro(long posicao) throws IOException {
+        int tamanhoDados = lerCabecalhoRegistro(posicao);
+        if (tamanhoDados < 0) {
+            throw new IOException("Tamanho de registro inválido (negativo) na posição: " + posicao + " - " + tamanhoDados);
         }
-
-        Files.move(tempFile, originalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
-
-        this.arquivoRAF = new RandomAccessFile(originalPath.toString(), "rw");
-        this.arquivoChannel = arquivoRAF.getChannel();
+        return tamanhoDados + Integer.BYTES;
     }
 
     // Recupera o estado do arquivo e reconstrói a árvore B+.
     private void recoverAndRebuildTree() throws IOException, InterruptedException {
         arvore.limpar();
         registrosAtivos.set(0);
+        bytesVivos.set(0);
 
         long currentFilePosition = FILE_HEADER_TOTAL_SIZE;
         long actualFileSize = arquivoChannel.size();
@@ -710,9 +1142,21 @@ public class GerenciadorArquivos implements AutoCloseable {
                 byte[] dadosBrutos;
                 Perfume p = null;
                 try {
-                    getSegmentLock(currentFilePosition).readLock().lock();
-                    try {
-                        tamanhoRegistroTotal = obterTamanhoRegistro(currentFilePosition);
+                    int cabecalho = lerCabecalhoRegistro(currentFilePosition);
+                    if (cabecalho < 0) {
+                        // Marcador de espaço livre: sobra de um bloco dividido, sem registro dentro
+                        tamanhoRegistroTotal = -cabecalho;
+                        gerenciadorEspaco.addFreeBlock(currentFilePosition, tamanhoRegistroTotal);
+                    } else if (cabecalho == 0) {
+                        // Parte de um trecho pré-alocado que nenhuma arena usou: livre até o limite do trecho
+                        long limite = Math.min(AlocadorExtensoes.proximoLimite(currentFilePosition, FILE_HEADER_TOTAL_SIZE), actualFileSize);
+                        tamanhoRegistroTotal = (int) (limite - currentFilePosition);
+                        gerenciadorEspaco.addFreeBlock(currentFilePosition, tamanhoRegistroTotal);
+                    } else {
+                        tamanhoRegistroTotal = cabecalho + Integer.BYTES;
+                        if (criptografiaAES == null && isCifradoNoDisco(tamanhoRegistroTotal)) {
+                            throw new IllegalStateException("O arquivo " + filePath + " contém registros cifrados com AES; configure o keystore para abri-lo.");
+                        }
                         dadosBrutos = lerRegistro(currentFilePosition, arquivoChannel);
 
                         p = Perfume.fromByteArray(dadosBrutos);
@@ -720,14 +1164,13 @@ public class GerenciadorArquivos implements AutoCloseable {
                         if (p != null && p.isAtivo()) {
                             arvore.inserir(p.getId(), currentFilePosition);
                             registrosAtivos.incrementAndGet();
+                            bytesVivos.addAndGet(tamanhoRegistroTotal);
                             if (p.getId() > this.ultimoId) {
                                 this.ultimoId = p.getId();
                             }
                         } else {
                             gerenciadorEspaco.addFreeBlock(currentFilePosition, tamanhoRegistroTotal);
                         }
-                    } finally {
-                        getSegmentLock(currentFilePosition).readLock().unlock();
                     }
                 } catch (EOFException e) {
                     gerenciadorEspaco.addFreeBlock(currentFilePosition, (int)(actualFileSize - currentFilePosition));
@@ -740,24 +1183,53 @@ public class GerenciadorArquivos implements AutoCloseable {
             }
         }
         this.tamanhoDoArquivo = actualFileSize;
-        escreverCabecalhoNoArquivo();
+        escreverCabecalhoNoArquivo(true);
     }
 
-    // Agenda tarefas de manutenção, como a compactação do arquivo.
+    // Agenda tarefas de manutenção. A verificação é periódica, mas a compactação só roda quando a
+    // política indica fragmentação suficiente, e a exportação só roda quando houve alterações desde a última.
     private void agendarManutencoes() {
-        maintenanceExecutor.scheduleAtFixedRate(() -> {
+        if (bufferEscrita != null) {
+            // Limita o que uma queda pode perder com a escrita adiada; sem escritas novas, não faz fsync
+            final long[] escritasSincronizadas = {0};
+            maintenanceExecutor.scheduleWithFixedDelay(() -> {
+                long escritas = bufferEscrita.getEscritasRecebidas();
+                if (escritas == escritasSincronizadas[0]) {
+                    return;
+                }
+                try {
+                    sincronizar();
+                    escritasSincronizadas[0] = escritas;
+                } catch (IOException e) {
+                    System.err.println("GerenciadorArquivos: Erro ao sincronizar o arquivo: " + e.getMessage());
+                }
+            }, ConfiguracaoArmazenamento.INTERVALO_SINCRONIZACAO_MS, ConfiguracaoArmazenamento.INTERVALO_SINCRONIZACAO_MS, TimeUnit.MILLISECONDS);
+        }
+
+        final long[] ultimaLeitura = {System.currentTimeMillis(), operacoesPrimeiroPlano.get()};
+        final long[] ultimaExportacao = {System.currentTimeMillis()};
+
+        maintenanceExecutor.scheduleWithFixedDelay(() -> {
             try {
-            	System.out.println("Manutenção agendada - campactando...");
-                Path pathOriginal = Paths.get(this.filePath);
-                String dirOriginal = "";
-                if (pathOriginal.getParent() != null) {
-                    dirOriginal = pathOriginal.getParent().toString();
-                } else {
-                    dirOriginal = Paths.get("").toAbsolutePath().toString();
+                long agora = System.currentTimeMillis();
+                long operacoes = operacoesPrimeiroPlano.get();
+                double segundos = Math.max(1L, agora - ultimaLeitura[0]) / 1000.0;
+                double operacoesPorSegundo = (operacoes - ultimaLeitura[1]) / segundos;
+                ultimaLeitura[0] = agora;
+                ultimaLeitura[1] = operacoes;
+
+                PoliticaCompactacao politica = this.politicaCompactacao;
+                if (politica.deveCompactar(calcularTaxaFragmentacao(), gerenciadorEspaco.getQuantidadeBlocosLivres(), operacoesPorSegundo, agora)) {
+                    System.out.println("Manutenção agendada - compactando (fragmentação: " + String.format("%.2f", calcularTaxaFragmentacao()) + ")...");
+                    politica.registrarExecucao(agora);
+                    compactar(null);
+                }
+
+                if (exportacaoAgendada && exportador.temAlteracoesPendentes() && agora - ultimaExportacao[0] >= INTERVALO_MINIMO_EXPORTACAO_MS) {
+                    ExportadorIncremental.Resultado resultado = exportar();
+                    System.out.println("Manutenção agendada - exportação concluída: " + resultado);
+                    ultimaExportacao[0] = agora;
                 }
-                String nomeArquivoCompactado = "PerfumesCompact.dat";
-                String caminhoCompletoCompactado = Paths.get(dirOriginal, nomeArquivoCompactado).toString();
-                compactar(caminhoCompletoCompactado);
             } catch (IOException e) {
                 System.err.println("GerenciadorArquivos: Erro durante a compactação agendada: " + e.getMessage());
                 e.printStackTrace();
@@ -765,17 +1237,508 @@ public class GerenciadorArquivos implements AutoCloseable {
                 Thread.currentThread().interrupt();
                 System.err.println("GerenciadorArquivos: Compactação agendada interrompida: " + e.getMessage());
             }
-        }, 10, 10, TimeUnit.MINUTES);
-        System.out.println("Compactacao concluida!");
+        }, INTERVALO_VERIFICACAO_MANUTENCAO_SEGUNDOS, INTERVALO_VERIFICACAO_MANUTENCAO_SEGUNDOS, TimeUnit.SECONDS);
+    }
+
+    // Exporta para PerfumesCompact.dat apenas o que mudou desde a última exportação (ou uma nova base, se necessário).
+    public ExportadorIncremental.Resultado exportar() throws IOException, InterruptedException {
+        return exportador.exportar();
+    }
+
+    // Caminho do arquivo exportado: PerfumesCompact.dat no mesmo diretório do arquivo de dados.
+    private Path caminhoExportacaoPadrao() {
+        Path pathOriginal = Paths.get(this.filePath);
+        String dirOriginal = "";
+        if (pathOriginal.getParent() != null) {
+            dirOriginal = pathOriginal.getParent().toString();
+        } else {
+            dirOriginal = Paths.get("").toAbsolutePath().toString();
+        }
+        String nomeArquivoCompactado = "PerfumesCompact.dat";
+        return Paths.get(dirOriginal, nomeArquivoCompactado);
+    }
+
+    // IDs de todos os registros ativos, em ordem crescente, como estão na árvore.
+    public List<Integer> buscarTodosIds() {
+        return arvore.buscarTodosIds();
+    }
+
+    public int getRegistrosAtivos() {
+        return registrosAtivos.get();
+    }
+
+    // Gravações de registro e transações confirmadas desde a abertura do arquivo.
+    public long getTotalOperacoes() {
+        return totalOperacoes.get();
+    }
+
+    // Histogramas de latência e contadores operacionais; também publicados via JMX.
+    public MetricasArmazenamento getMetricas() {
+        return metricas;
+    }
+
+    @Override
+    public String relatorioMetricas() {
+        return metricas.relatorio();
+    }
+
+    int getBlocosLivres() {
+        return gerenciadorEspaco.getQuantidadeBlocosLivres();
+    }
+
+    long getBytesLivres() {
+        return gerenciadorEspaco.getTotalBytesLivres();
+    }
+
+    int getBuffersDisponiveis() {
+        return bufferPool.availableBuffers();
+    }
+
+    BufferEscrita getBufferEscrita() {
+        return bufferEscrita;
+    }
+
+    // Versões anteriores ainda retidas em memória por snapshots abertos.
+    public int getVersoesRetidas() {
+        return versoes.getVersoesRetidas();
+    }
+
+    // Lê os bytes do registro atualmente associado ao ID, como estão no arquivo, ou null se o ID não existir.
+    byte[] lerRegistroBruto(int id) throws IOException {
+        return lerRegistroDoId(id);
+    }
+
+    // Métodos usados pela replicação (ReplicacaoPrimario e ReplicaLeitura)
+
+    // A exportação agendada grava no PerfumesCompact.dat do diretório do arquivo; numa cópia de réplica,
+    // que pode estar no mesmo diretório do primário, ela sobrescreveria a exportação dele.
+    void desativarExportacaoAgendada() {
+        exportacaoAgendada = false;
+    }
+
+    // Passa a publicar as alterações confirmadas num log em memória, lido pelos seguidores.
+    synchronized LogReplicacao ativarReplicacao(int capacidade) {
+        if (logReplicacao == null) {
+            logReplicacao = new LogReplicacao(capacidade);
+        }
+        return logReplicacao;
+    }
+
+    // Publica o registro lógico gravado, depois de confirmar a versão e ainda com o latch do ID: assim
+    // as alterações de um ID entram no log em ordem, e um snapshot aberto depois de uma publicação
+    // sempre enxerga a alteração publicada. Nada a fazer sem replicação ou se a operação falhou (null).
+    private void publicarAlteracao(int id, byte[] registro) {
+        LogReplicacao log = logReplicacao;
+        if (log != null && registro != null) {
+            log.publicar(id, registro);
+        }
+    }
+
+    /**
+     * Aplica na cópia local um registro recebido do primário: cria, regrava ou desativa o registro
+     * conforme o recebido. Com 'somenteMaisNova', versões iguais ou anteriores à local são ignoradas, o
+     * que torna reaplicar uma alteração inofensivo; sem ela (na carga completa), o primário prevalece
+     * sempre que o registro for diferente.
+     *
+     * @return true se a cópia local mudou.
+     */
+    boolean aplicarReplicado(int id, byte[] registro, boolean somenteMaisNova) throws IOException, InterruptedException {
+        ProjecaoPerfume recebido = ProjecaoPerfume.fromByteArray(registro);
+        if (recebido == null || recebido.getId() != id) {
+            throw new IOException("Registro replicado do ID " + id + " inválido ou corrompido.");
+        }
+        travarGerenciador();
+        Transaction txn = new Transaction("REPLICA", id);
+        StampedLock latch = latches.doRegistro(id);
+        long stamp = latch.writeLock();
+        VersoesRegistros.Versao versao = null;
+        try {
+            long posicao = arvore.buscar(id);
+            if (posicao == -1) {
+                if (!recebido.isAtivo()) {
+                    return false;
+                }
+                versao = versoes.registrar(id, null);
+                registrarIdUsado(id);
+                gravarNovoRegistro(id, registro);
+            } else {
+                byte[] dadosLocais = lerRegistro(posicao, arquivoChannel);
+                Perfume local = Perfume.fromByteArray(dadosLocais);
+                if (local == null || local.getId() != id) {
+                    throw new IOException("Registro na posição " + posicao + " não corresponde ao ID " + id + " ou está corrompido.");
+                }
+                boolean ignorar = somenteMaisNova ? recebido.getVersion() <= local.getVersion() : Arrays.equals(dadosLocais, registro);
+                if (ignorar) {
+                    return false;
+                }
+                int tamanhoRegistro = obterTamanhoRegistro(posicao);
+                versao = versoes.registrar(id, dadosLocais);
+                if (recebido.isAtivo()) {
+                    regravarRegistro(id, posicao, tamanhoRegistro, local, registro);
+                } else {
+                    desativarRegistro(id, posicao, tamanhoRegistro, registro);
+                }
+            }
+            txn.commit();
+            return true;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            txn.rollback();
+            throw e;
+        } finally {
+            if (versao != null) {
+                versoes.confirmar(id, versao);
+            }
+            latch.unlockWrite(stamp);
+            gerenciadorLock.readLock().unlock();
+        }
+    }
+
+    // Fração da área de dados do arquivo que não está ocupada por registros ativos (0 a 1).
+    public double calcularTaxaFragmentacao() {
+        long areaDados = tamanhoDoArquivo - FILE_HEADER_TOTAL_SIZE;
+        if (areaDados <= 0) {
+            return 0.0;
+        }
+        return Math.max(0.0, 1.0 - (double) bytesVivos.get() / areaDados);
+    }
+
+    public PoliticaCompactacao getPoliticaCompactacao() {
+        return politicaCompactacao;
+    }
+
+    public void setPoliticaCompactacao(PoliticaCompactacao politicaCompactacao) {
+        this.politicaCompactacao = Objects.requireNonNull(politicaCompactacao, "A política de compactação não pode ser nula.");
     }
 
-    // Obtém o ReadWriteLock de segmento apropriado para uma dada posição no arquivo.
-    private ReadWriteLock getSegmentLock(long posicao) {
-        if (posicao < FILE_HEADER_TOTAL_SIZE) {
-            return gerenciadorLock; // Usa o lock global para o cabeçalho
+    // Trava o latch do registro e retorna sua posição. Toda escrita ou realocação do registro trava o
+    // latch, então a posição não muda até ele ser liberado. Retorna -1, sem latch travado, se o ID não
+    // existir; caso contrário, quem chamou deve liberar com destravarRegistro(id, escrita).
+    private long travarRegistro(int id, boolean escrita) {
+        StampedLock latch = latches.doRegistro(id);
+        Lock lock = escrita ? latch.asWriteLock() : latch.asReadLock();
+        long inicioEspera = System.nanoTime();
+        lock.lock();
+        metricas.registrarEsperaLock(inicioEspera);
+        long posicao = arvore.buscar(id);
+        if (posicao == -1) {
+            lock.unlock();
+        }
+        return posicao;
+    }
+
+    // Trava o lock global para leitura (modo das operações de registro), medindo a espera.
+    private void travarGerenciador() {
+        long inicioEspera = System.nanoTime();
+        gerenciadorLock.readLock().lock();
+        metricas.registrarEsperaLock(inicioEspera);
+    }
+
+    private void destravarRegistro(int id, boolean escrita) {
+        StampedLock latch = latches.doRegistro(id);
+        if (escrita) {
+            latch.asWriteLock().unlock();
+        } else {
+            latch.asReadLock().unlock();
+        }
+    }
+
+    /**
+     * Lê os bytes do registro do ID, ou null se ele não existir. Tenta primeiro sem lock nenhum: lê com
+     * um stamp otimista do latch e só aceita o resultado se nenhuma escrita no registro tiver começado
+     * nesse meio tempo. Se houve (ou a leitura falhou por pegar a escrita pela metade), repete com o
+     * latch travado para leitura.
+     */
+    private byte[] lerRegistroDoId(int id) throws IOException {
+        StampedLock latch = latches.doRegistro(id);
+        long stamp = latch.tryOptimisticRead();
+        if (stamp != 0L) {
+            try {
+                long posicao = arvore.buscar(id);
+                byte[] dados = posicao == -1 ? null : lerRegistro(posicao, arquivoChannel);
+                if (latch.validate(stamp)) {
+                    metricas.registrarLeituraOtimista(true);
+                    return dados;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (latch.validate(stamp)) {
+                    throw e; // Nenhuma escrita concorrente: o erro é real
+                }
+            }
+        }
+        metricas.registrarLeituraOtimista(false);
+        long inicioEspera = System.nanoTime();
+        stamp = latch.readLock();
+        metricas.registrarEsperaLock(inicioEspera);
+        try {
+            long posicao = arvore.buscar(id);
+            return posicao == -1 ? null : lerRegistro(posicao, arquivoChannel);
+        } finally {
+            latch.unlockRead(stamp);
+        }
+    }
+
+    // Lê a versão atual sem lock e a troca pela versão retida, se o registro mudou depois do snapshot.
+    // A versão anterior é registrada antes da escrita, então uma leitura que já pegou a nova versão
+    // sempre encontra a anterior na cadeia.
+    byte[] lerRegistroNoSnapshot(int id, SnapshotLeitura snapshot) throws IOException {
+        return versoes.resolver(id, lerRegistroDoId(id), snapshot.getMarca());
+    }
+
+    // IDs a considerar numa varredura do snapshot, em ordem crescente: os do índice mais os alterados
+    // depois do início (removidos ainda visíveis). Os criados depois são descartados na leitura.
+    Set<Integer> idsNoSnapshot(SnapshotLeitura snapshot) {
+        Set<Integer> ids = new TreeSet<>(arvore.buscarTodosIds());
+        ids.addAll(versoes.idsAlteradosApos(snapshot.getMarca()));
+        return ids;
+    }
+
+    // Aloca espaço para o registro (bloco livre ou arena da thread) e o grava, atualizando o cabeçalho.
+    // Chamado com o lock global de leitura, que impede o truncamento do arquivo no meio da operação.
+    private long alocarEGravar(byte[] dadosBrutos) throws IOException, InterruptedException {
+        int tamanho = tamanhoEmDisco(dadosBrutos.length, criptografiaAES != null);
+        Optional<GerenciadorEspaco.FreeBlock> freeBlockOpt = gerenciadorEspaco.getFreeBlock(tamanho);
+        long posicao = freeBlockOpt.isPresent() ? freeBlockOpt.get().getOffset() : alocadorExtensoes.alocar(tamanho);
+        escreverRegistro(posicao, dadosBrutos, arquivoChannel);
+        synchronized (cabecalhoLock) {
+            this.tamanhoDoArquivo = Math.max(this.tamanhoDoArquivo, posicao + tamanho);
+        }
+        escreverCabecalhoNoArquivo(); // Persiste o ultimoId e tamanhoDoArquivo atualizados
+        return posicao;
+    }
+
+    // Grava um registro novo e o insere na árvore. Chamado com o latch de escrita do ID.
+    private void gravarNovoRegistro(int id, byte[] dadosBrutos) throws IOException, InterruptedException {
+        long posicao = alocarEGravar(dadosBrutos);
+        arvore.inserir(id, posicao);
+        registrosAtivos.incrementAndGet();
+        bytesVivos.addAndGet(tamanhoEmDisco(dadosBrutos.length, criptografiaAES != null));
+    }
+
+    // Grava a nova versão de um registro ativo no lugar, se couber; senão em outro espaço, trocando a
+    // posição na árvore e desativando a cópia antiga. Chamado com o latch de escrita do ID.
+    private void regravarRegistro(int id, long posicaoExistente, int tamanhoRegistroAntigo, Perfume perfumeExistente,
+                                  byte[] dadosAtualizadosBrutos) throws IOException, InterruptedException {
+        // Se a criptografia mudou desde a gravação anterior, o tamanho muda e o registro é realocado
+        int tamanhoNovoRegistro = tamanhoEmDisco(dadosAtualizadosBrutos.length, criptografiaAES != null);
+
+        if (tamanhoNovoRegistro <= tamanhoRegistroAntigo) {
+            escreverRegistro(posicaoExistente, dadosAtualizadosBrutos, arquivoChannel);
+            if (tamanhoNovoRegistro < tamanhoRegistroAntigo) {
+                marcarEspacoLivre(posicaoExistente + tamanhoNovoRegistro, tamanhoRegistroAntigo - tamanhoNovoRegistro);
+                gerenciadorEspaco.addFreeBlock(posicaoExistente + tamanhoNovoRegistro, tamanhoRegistroAntigo - tamanhoNovoRegistro);
+                bytesVivos.addAndGet(tamanhoNovoRegistro - tamanhoRegistroAntigo);
+            }
+        } else {
+            // Não cabe no lugar: grava a nova versão em outro espaço e troca a posição na árvore,
+            // ainda com o latch, para que leitores vejam a versão antiga ou a nova, nunca nenhuma
+            long novaPosicao = alocarEGravar(dadosAtualizadosBrutos);
+            arvore.atualizarPosicao(id, novaPosicao);
+            garantirNovaCopiaDuravel();
+            // A cópia antiga precisa ficar inativa: ativa, a recuperação a reindexaria junto com a nova
+            perfumeExistente.desative();
+            perfumeExistente.setVersion(perfumeExistente.getVersion() + 1); 
+            byte[] dadosInativosBrutos = perfumeExistente.toByteArray();
+            escreverRegistro(posicaoExistente, dadosInativosBrutos, arquivoChannel, isCifradoNoDisco(tamanhoRegistroAntigo)); 
+            gerenciadorEspaco.addFreeBlock(posicaoExistente, tamanhoRegistroAntigo); 
+            bytesVivos.addAndGet(tamanhoNovoRegistro - tamanhoRegistroAntigo);
+        }
+    }
+
+    // Grava a versão desativada do registro no mesmo espaço e o tira da árvore. Chamado com o latch de escrita do ID.
+    private void desativarRegistro(int id, long posicao, int tamanhoRegistro, byte[] dadosDesativadosBrutos) throws IOException, InterruptedException {
+        // Regravado no mesmo formato em que estava, para caber no espaço do registro
+        escreverRegistro(posicao, dadosDesativadosBrutos, arquivoChannel, isCifradoNoDisco(tamanhoRegistro));
+
+        boolean removidoDaArvore = arvore.remover(id);
+
+        if (!removidoDaArvore) {
+            throw new IOException("Falha ao remover ID " + id + " da árvore B+, mesmo após marcar no arquivo.");
+        }
+
+        gerenciadorEspaco.addFreeBlock(posicao, tamanhoRegistro);
+        registrosAtivos.decrementAndGet();
+        bytesVivos.addAndGet(-tamanhoRegistro);
+    }
+
+    // Métodos usados pelo CompactadorIncremental
+
+    // Retorna os IDs ativos ordenados da maior para a menor posição no arquivo.
+    List<Integer> idsPorPosicaoDecrescente() {
+        List<long[]> posicoes = new ArrayList<>();
+        for (int id : arvore.buscarTodosIds()) {
+            long posicao = arvore.buscar(id);
+            if (posicao != -1) {
+                posicoes.add(new long[]{posicao, id});
+            }
+        }
+        posicoes.sort(Comparator.comparingLong((long[] par) -> par[0]).reversed());
+        List<Integer> ids = new ArrayList<>(posicoes.size());
+        for (long[] par : posicoes) {
+            ids.add((int) par[1]);
+        }
+        return ids;
+    }
+
+    // Move um registro ativo para um bloco livre anterior à sua posição atual. A troca de posição no
+    // índice é feita com compare-and-set, e a cópia antiga é marcada como inativa para que a
+    // recuperação não a considere. Só os segmentos de origem e destino ficam travados.
+    CompactadorIncremental.ResultadoRelocacao relocarRegistro(int id) throws IOException, InterruptedException {
+        return moverRegistro(id, false);
+    }
+
+    // Regrava no formato de criptografia atual todos os registros gravados no outro formato (por exemplo,
+    // registros anteriores à configuração do AES). Usa o mesmo caminho da compactação, registro a
+    // registro, sem bloquear as operações de primeiro plano. Retorna a quantidade de registros migrados.
+    public int migrarCriptografia() throws IOException, InterruptedException {
+        int migrados = 0;
+        for (int id : arvore.buscarTodosIds()) {
+            if (moverRegistro(id, true) == CompactadorIncremental.ResultadoRelocacao.MOVIDO) {
+                migrados++;
+            }
+        }
+        return migrados;
+    }
+
+    // Com somenteMigracao, move apenas registros em formato diferente do atual, para qualquer bloco livre
+    // (ou para o fim do arquivo); sem, move para um bloco livre anterior, como a compactação exige.
+    private CompactadorIncremental.ResultadoRelocacao moverRegistro(int id, boolean somenteMigracao) throws IOException, InterruptedException {
+        travarGerenciador();
+        try {
+            long origem = travarRegistro(id, true);
+            if (origem == -1) {
+                return CompactadorIncremental.ResultadoRelocacao.IGNORADO;
+            }
+            try {
+                byte[] dadosBrutos = lerRegistro(origem, arquivoChannel);
+                Perfume perfume = Perfume.fromByteArray(dadosBrutos);
+                if (perfume == null || perfume.getId() != id || !perfume.isAtivo()) {
+                    return CompactadorIncremental.ResultadoRelocacao.IGNORADO;
+                }
+                int tamanhoRegistro = obterTamanhoRegistro(origem);
+                boolean origemCifrada = isCifradoNoDisco(tamanhoRegistro);
+                // A cópia é gravada no formato atual, então mover um registro também o migra de criptografia
+                int tamanhoNovo = tamanhoEmDisco(dadosBrutos.length, criptografiaAES != null);
+                if (somenteMigracao && origemCifrada == (criptografiaAES != null)) {
+                    return CompactadorIncremental.ResultadoRelocacao.IGNORADO;
+                }
+
+                Optional<GerenciadorEspaco.FreeBlock> destinoOpt = somenteMigracao
+                        ? gerenciadorEspaco.getFreeBlock(tamanhoNovo)
+                        : gerenciadorEspaco.getFreeBlockAntesDe(tamanhoNovo, origem);
+                if (destinoOpt.isEmpty() && !somenteMigracao) {
+                    return CompactadorIncremental.ResultadoRelocacao.SEM_ESPACO;
+                }
+
+                // Sem bloco livre, a migração grava no fim do arquivo, como um registro novo. O destino acabou
+                // de ser alocado e só este registro o usa, então o latch do registro basta.
+                long destino = destinoOpt.isPresent() ? destinoOpt.get().getOffset() : alocadorExtensoes.alocar(tamanhoNovo);
+                escreverRegistro(destino, dadosBrutos, arquivoChannel);
+                if (!arvore.atualizarPosicaoSe(id, origem, destino)) {
+                    // A cópia não pode ficar ativa no arquivo, ou a recuperação a reindexaria
+                    marcarEspacoLivre(destino, tamanhoNovo);
+                    gerenciadorEspaco.addFreeBlock(destino, tamanhoNovo);
+                    return CompactadorIncremental.ResultadoRelocacao.IGNORADO;
+                }
+                if (destinoOpt.isEmpty()) {
+                    synchronized (cabecalhoLock) {
+                        this.tamanhoDoArquivo = Math.max(this.tamanhoDoArquivo, destino + tamanhoNovo);
+                    }
+                    escreverCabecalhoNoArquivo();
+                }
+
+                garantirNovaCopiaDuravel();
+                perfume.desative();
+                escreverRegistro(origem, perfume.toByteArray(), arquivoChannel, origemCifrada);
+                gerenciadorEspaco.addFreeBlock(origem, tamanhoRegistro);
+                bytesVivos.addAndGet(tamanhoNovo - tamanhoRegistro);
+                return CompactadorIncremental.ResultadoRelocacao.MOVIDO;
+            } finally {
+                destravarRegistro(id, true);
+            }
+        } finally {
+            gerenciadorLock.readLock().unlock();
+        }
+    }
+
+    // Trunca o espaço livre contíguo no fim do arquivo. O lock de escrita global é mantido apenas
+    // pelo tempo do truncamento, depois que os registros já foram movidos.
+    long recuperarEspacoFinal() throws IOException {
+        long inicioEspera = System.nanoTime();
+        gerenciadorLock.writeLock().lock();
+        metricas.registrarEsperaLock(inicioEspera);
+        try {
+            // A parte pré-alocada que nenhuma arena recebeu é cortada antes e não conta como recuperada
+            long fimAtual = alocadorExtensoes.liberarArenas();
+            long novoFim = fimAtual;
+            Optional<GerenciadorEspaco.FreeBlock> blocoFinal;
+            while ((blocoFinal = gerenciadorEspaco.removerBlocoFinal(novoFim)).isPresent()) {
+                novoFim = blocoFinal.get().getOffset();
+            }
+            if (novoFim < fimAtual) {
+                if (bufferEscrita != null) {
+                    bufferEscrita.descarregar(); // Pendências depois do corte voltariam a estender o arquivo
+                }
+                arquivoChannel.truncate(novoFim);
+                this.tamanhoDoArquivo = novoFim;
+                escreverCabecalhoNoArquivo();
+            }
+            alocadorExtensoes.redefinirFim(novoFim);
+            return fimAtual - novoFim;
+        } finally {
+            gerenciadorLock.writeLock().unlock();
+        }
+    }
+
+    // Registro de um lote entre as etapas do pipeline.
+    private static final class ItemLote {
+        final int indice;   // Posição na lista de entrada
+        final int id;
+        final byte[] registro; // Registro lógico, antes do AES
+        final byte[] dados;    // Já no formato do disco
+        long posicao = -1;
+
+        ItemLote(int indice, int id, byte[] registro, byte[] dados) {
+            this.indice = indice;
+            this.id = id;
+            this.registro = registro;
+            this.dados = dados;
+        }
+
+        long getFim() {
+            return posicao + Integer.BYTES + dados.length;
+        }
+    }
+
+    // Resultado de um perfume em processarLote().
+    public static final class ResultadoLote {
+        private final int id;
+        private final long posicao;
+        private final String erro;
+
+        private ResultadoLote(int id, long posicao, String erro) {
+            this.id = id;
+            this.posicao = posicao;
+            this.erro = erro;
+        }
+
+        static ResultadoLote sucesso(int id, long posicao) {
+            return new ResultadoLote(id, posicao, null);
+        }
+
+        static ResultadoLote falha(int id, String erro) {
+            return new ResultadoLote(id, -1, erro == null ? "Erro desconhecido." : erro);
+        }
+
+        public int getId() { return id; }
+        public long getPosicao() { return posicao; }
+        public boolean isSucesso() { return erro == null; }
+        public String getErro() { return erro; }
+
+        @Override
+        public String toString() {
+            return isSucesso() ? "ResultadoLote[id=" + id + ", posicao=" + posicao + "]"
+                    : "ResultadoLote[id=" + id + ", erro=" + erro + "]";
         }
-        int segmentIndex = (int) (((posicao - FILE_HEADER_TOTAL_SIZE) / ESTIMATED_MAX_RECORD_SIZE) % SEGMENT_COUNT);
-        return segmentLocks.get(segmentIndex);
     }
 
     // Classe Interna para Transações
@@ -798,6 +1761,10 @@ public class GerenciadorArquivos implements AutoCloseable {
          */
         void commit() {
             totalOperacoes.incrementAndGet();
+            operacoesPrimeiroPlano.incrementAndGet();
+            if (perfumeId > 0) {
+                exportador.registrarAlteracao(perfumeId);
+            }
         }
 
         /**
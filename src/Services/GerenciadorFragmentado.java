@@ -0,0 +1,387 @@
+package Services;
+
+import Models.Perfume;
+import Models.ProjecaoPerfume;
+import Structures.Arvore_BPlus;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Armazém dividido em fragmentos independentes, cada um um GerenciadorArquivos completo, com arquivo,
+// árvore B+, lista de espaço livre, buffer de escrita e locks próprios. Cada ID pertence a um único
+// fragmento, escolhido por hash, então escritas em IDs diferentes quase nunca disputam as mesmas
+// estruturas e, com os fragmentos em discos diferentes, nem o mesmo dispositivo. Os IDs continuam
+// globais: são gerados aqui e só então o perfume é encaminhado ao seu fragmento.
+//
+// Buscas por padrão, lotes, sincronização e manutenção são distribuídos entre os fragmentos, executados
+// em paralelo e os resultados reunidos. Snapshots continuam valendo por fragmento; não há um snapshot
+// consistente entre fragmentos.
+//
+// Cada diretório de fragmento guarda em ARQUIVO_IDENTIFICACAO o seu índice e o total de fragmentos, e a
+// abertura falha se eles não baterem: mudar a quantidade de fragmentos exige redistribuir os registros.
+public class GerenciadorFragmentado implements ArmazemPerfumes {
+
+    static final String ARQUIVO_IDENTIFICACAO = "FRAGMENTO";
+    private static final String PREFIXO_DIRETORIO = "fragmento-";
+
+    private final GerenciadorArquivos[] fragmentos;
+    private final ExecutorService executorDistribuicao;
+    private final AtomicInteger ultimoId = new AtomicInteger(0);
+
+    // Conveniência: 'quantidade' fragmentos em subdiretórios de 'base' (fragmento-00, fragmento-01, ...).
+    public GerenciadorFragmentado(Path base, String nomeArquivo, int quantidade, int ordemArvore,
+                                  ConfiguracaoArmazenamento configuracao) throws IOException, InterruptedException {
+        this(diretoriosPadrao(base, quantidade), nomeArquivo, ordemArvore, configuracao);
+    }
+
+    /**
+     * Abre (ou cria) um fragmento por diretório, cada um com o arquivo de dados 'nomeArquivo'. Os
+     * diretórios podem estar em discos diferentes, mas devem ser passados sempre na mesma ordem.
+     *
+     * @param ordemArvore Ordem da árvore B+ de cada fragmento.
+     */
+    public GerenciadorFragmentado(List<Path> diretorios, String nomeArquivo, int ordemArvore,
+                                  ConfiguracaoArmazenamento configuracao) throws IOException, InterruptedException {
+        if (diretorios.isEmpty()) {
+            throw new IllegalArgumentException("É necessário ao menos um fragmento.");
+        }
+        this.fragmentos = new GerenciadorArquivos[diretorios.size()];
+        try {
+            for (int i = 0; i < fragmentos.length; i++) {
+                Path diretorio = diretorios.get(i);
+                Files.createDirectories(diretorio);
+                verificarIdentificacao(diretorio, i, fragmentos.length);
+                fragmentos[i] = new GerenciadorArquivos(new Arvore_BPlus(ordemArvore),
+                        diretorio.resolve(nomeArquivo).toString(), configuracao);
+                ultimoId.accumulateAndGet(fragmentos[i].getUltimoId(), Math::max);
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            fecharAbertos(e);
+            throw e;
+        }
+        this.executorDistribuicao = Executors.newFixedThreadPool(fragmentos.length);
+    }
+
+    public static List<Path> diretoriosPadrao(Path base, int quantidade) {
+        if (quantidade < 1) {
+            throw new IllegalArgumentException("Quantidade de fragmentos inválida: " + quantidade);
+        }
+        List<Path> diretorios = new ArrayList<>(quantidade);
+        for (int i = 0; i < quantidade; i++) {
+            diretorios.add(base.resolve(String.format("%s%02d", PREFIXO_DIRETORIO, i)));
+        }
+        return diretorios;
+    }
+
+    // Grava a identificação num diretório novo, ou confere a de um diretório já usado.
+    private static void verificarIdentificacao(Path diretorio, int indice, int total) throws IOException {
+        Path arquivo = diretorio.resolve(ARQUIVO_IDENTIFICACAO);
+        String esperada = indice + "/" + total;
+        if (!Files.exists(arquivo)) {
+            Files.write(arquivo, esperada.getBytes(StandardCharsets.US_ASCII));
+            return;
+        }
+        String gravada = new String(Files.readAllBytes(arquivo), StandardCharsets.US_ASCII).trim();
+        if (!gravada.equals(esperada)) {
+            throw new IOException("O diretório " + diretorio + " pertence ao fragmento " + gravada
+                    + ", mas foi aberto como " + esperada + ". A quantidade ou a ordem dos fragmentos mudou.");
+        }
+    }
+
+    // Fragmento dono do ID. O hash espalha IDs sequenciais, então criações seguidas vão a fragmentos diferentes.
+    private int indiceDoFragmento(int id) {
+        int h = id * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), fragmentos.length);
+    }
+
+    private GerenciadorArquivos fragmentoDe(int id) {
+        return fragmentos[indiceDoFragmento(id)];
+    }
+
+    public int getQuantidadeFragmentos() {
+        return fragmentos.length;
+    }
+
+    @Override
+    public int novoID() {
+        return ultimoId.incrementAndGet();
+    }
+
+    // Atribui o ID (se for 0) ou mantém o contador global acima dele.
+    private void atribuirId(Perfume perfume) {
+        if (perfume.getId() == 0) {
+            perfume.setId(novoID());
+        } else {
+            ultimoId.accumulateAndGet(perfume.getId(), Math::max);
+        }
+    }
+
+    @Override
+    public void criar(Perfume perfume) throws Exception {
+        atribuirId(perfume);
+        fragmentoDe(perfume.getId()).criar(perfume);
+    }
+
+    @Override
+    public Optional<Perfume> buscar(int id) throws IOException, InterruptedException {
+        return fragmentoDe(id).buscar(id);
+    }
+
+    @Override
+    public Optional<ProjecaoPerfume> buscarProjecao(int id) throws IOException, InterruptedException {
+        return fragmentoDe(id).buscarProjecao(id);
+    }
+
+    @Override
+    public void atualizar(Perfume perfume) throws Exception {
+        fragmentoDe(perfume.getId()).atualizar(perfume);
+    }
+
+    @Override
+    public boolean atualizarSeVersao(Perfume perfume, int versaoEsperada) throws Exception {
+        return fragmentoDe(perfume.getId()).atualizarSeVersao(perfume, versaoEsperada);
+    }
+
+    @Override
+    public void deletar(int id) throws Exception {
+        fragmentoDe(id).deletar(id);
+    }
+
+    @Override
+    public boolean deletarSeVersao(int id, int versaoEsperada) throws Exception {
+        return fragmentoDe(id).deletarSeVersao(id, versaoEsperada);
+    }
+
+    @Override
+    public int ajustarEstoque(int id, int delta) throws IOException, InterruptedException {
+        return fragmentoDe(id).ajustarEstoque(id, delta);
+    }
+
+    @Override
+    public void definirValor(int id, int novoValor) throws IOException, InterruptedException {
+        fragmentoDe(id).definirValor(id, novoValor);
+    }
+
+    @Override
+    public CompletableFuture<Integer> criarAsync(Perfume perfume) {
+        atribuirId(perfume);
+        return fragmentoDe(perfume.getId()).criarAsync(perfume);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Perfume>> buscarAsync(int id) {
+        return fragmentoDe(id).buscarAsync(id);
+    }
+
+    @Override
+    public CompletableFuture<Void> atualizarAsync(Perfume perfume) {
+        return fragmentoDe(perfume.getId()).atualizarAsync(perfume);
+    }
+
+    @Override
+    public CompletableFuture<Void> deletarAsync(int id) {
+        return fragmentoDe(id).deletarAsync(id);
+    }
+
+    /**
+     * Atribui os IDs, separa o lote por fragmento e processa as partes em paralelo, cada uma no pipeline
+     * do seu fragmento.
+     *
+     * @return Um resultado por perfume, na ordem da lista original.
+     */
+    @Override
+    public CompletableFuture<List<GerenciadorArquivos.ResultadoLote>> processarLote(List<Perfume> perfumes) {
+        List<Perfume> entrada = new ArrayList<>(perfumes);
+        List<List<Perfume>> partes = new ArrayList<>(fragmentos.length);
+        List<List<Integer>> indicesOriginais = new ArrayList<>(fragmentos.length);
+        for (int i = 0; i < fragmentos.length; i++) {
+            partes.add(new ArrayList<>());
+            indicesOriginais.add(new ArrayList<>());
+        }
+        for (int i = 0; i < entrada.size(); i++) {
+            Perfume p = entrada.get(i);
+            atribuirId(p);
+            int f = indiceDoFragmento(p.getId());
+            partes.get(f).add(p);
+            indicesOriginais.get(f).add(i);
+        }
+
+        GerenciadorArquivos.ResultadoLote[] resultados = new GerenciadorArquivos.ResultadoLote[entrada.size()];
+        List<CompletableFuture<Void>> pendentes = new ArrayList<>();
+        for (int f = 0; f < fragmentos.length; f++) {
+            if (partes.get(f).isEmpty()) {
+                continue;
+            }
+            List<Integer> indices = indicesOriginais.get(f);
+            pendentes.add(fragmentos[f].processarLote(partes.get(f)).thenAccept(parcial -> {
+                for (int i = 0; i < parcial.size(); i++) {
+                    resultados[indices.get(i)] = parcial.get(i);
+                }
+            }));
+        }
+        return CompletableFuture.allOf(pendentes.toArray(new CompletableFuture<?>[0]))
+                .thenApply(v -> Arrays.asList(resultados));
+    }
+
+    // Reúne os IDs de todos os fragmentos, em ordem crescente.
+    @Override
+    public List<Integer> buscarTodosIds() throws IOException, InterruptedException {
+        List<Integer> ids = new ArrayList<>();
+        for (List<Integer> parcial : emTodos(GerenciadorArquivos::buscarTodosIds)) {
+            ids.addAll(parcial);
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    // Busca em todos os fragmentos em paralelo; o resultado vem ordenado por ID, como num arquivo único.
+    @Override
+    public List<Perfume> buscarPorPadrao(String padrao) throws IOException, InterruptedException {
+        List<Perfume> resultados = new ArrayList<>();
+        for (List<Perfume> parcial : emTodos(f -> f.buscarPorPadrao(padrao))) {
+            resultados.addAll(parcial);
+        }
+        resultados.sort(Comparator.comparingInt(Perfume::getId));
+        return resultados;
+    }
+
+    // Sincroniza todos os fragmentos em paralelo: com um disco por fragmento, os fsyncs se sobrepõem.
+    @Override
+    public void sincronizar() throws IOException {
+        try {
+            emTodos(f -> {
+                f.sincronizar();
+                return null;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Sincronização dos fragmentos interrompida", e);
+        }
+    }
+
+    // Compactação incremental de cada fragmento, em paralelo.
+    public void compactar() throws IOException, InterruptedException {
+        emTodos(f -> {
+            f.compactar(null);
+            return null;
+        });
+    }
+
+    // Exportação incremental de cada fragmento para o PerfumesCompact.dat do seu próprio diretório.
+    public List<ExportadorIncremental.Resultado> exportar() throws IOException, InterruptedException {
+        return emTodos(GerenciadorArquivos::exportar);
+    }
+
+    @Override
+    public int getRegistrosAtivos() {
+        int total = 0;
+        for (GerenciadorArquivos fragmento : fragmentos) {
+            total += fragmento.getRegistrosAtivos();
+        }
+        return total;
+    }
+
+    // Um relatório por fragmento; cada um também tem o próprio MBean, identificado pelo arquivo.
+    @Override
+    public String relatorioMetricas() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fragmentos.length; i++) {
+            sb.append("--- fragmento ").append(i).append('/').append(fragmentos.length).append(" ---")
+                    .append(System.lineSeparator()).append(fragmentos[i].relatorioMetricas());
+        }
+        return sb.toString();
+    }
+
+    public int getVersoesRetidas() {
+        int total = 0;
+        for (GerenciadorArquivos fragmento : fragmentos) {
+            total += fragmento.getVersoesRetidas();
+        }
+        return total;
+    }
+
+    // Fecha todos os fragmentos, mesmo que algum falhe; a primeira falha é relançada ao final.
+    @Override
+    public void close() throws IOException {
+        executorDistribuicao.shutdown();
+        try {
+            if (!executorDistribuicao.awaitTermination(10, TimeUnit.SECONDS)) {
+                executorDistribuicao.shutdownNow();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        IOException falha = null;
+        for (GerenciadorArquivos fragmento : fragmentos) {
+            try {
+                fragmento.close();
+            } catch (IOException e) {
+                if (falha == null) {
+                    falha = e;
+                } else {
+                    falha.addSuppressed(e);
+                }
+            }
+        }
+        if (falha != null) {
+            throw falha;
+        }
+    }
+
+    // Fecha os fragmentos já abertos quando a abertura de outro falha.
+    private void fecharAbertos(Exception causa) {
+        for (GerenciadorArquivos fragmento : fragmentos) {
+            if (fragmento != null) {
+                try {
+                    fragmento.close();
+                } catch (IOException e) {
+                    causa.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    // Executa a operação em todos os fragmentos em paralelo e devolve os resultados na ordem dos fragmentos.
+    private <T> List<T> emTodos(OperacaoFragmento<T> operacao) throws IOException, InterruptedException {
+        List<Future<T>> futuros = new ArrayList<>(fragmentos.length);
+        for (GerenciadorArquivos fragmento : fragmentos) {
+            Callable<T> tarefa = () -> operacao.executar(fragmento);
+            futuros.add(executorDistribuicao.submit(tarefa));
+        }
+        List<T> resultados = new ArrayList<>(fragmentos.length);
+        for (Future<T> futuro : futuros) {
+            try {
+                resultados.add(futuro.get());
+            } catch (ExecutionException e) {
+                Throwable causa = e.getCause();
+                if (causa instanceof IOException) {
+                    throw (IOException) causa;
+                }
+                if (causa instanceof RuntimeException) {
+                    throw (RuntimeException) causa;
+                }
+                throw new IOException("Falha num fragmento: " + causa.getMessage(), causa);
+            }
+        }
+        return resultados;
+    }
+
+    private interface OperacaoFragmento<T> {
+        T executar(GerenciadorArquivos fragmento) throws IOException, InterruptedException;
+    }
+}
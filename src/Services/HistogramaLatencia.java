@@ -0,0 +1,95 @@
+package Services;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histograma de latências em nanossegundos, no estilo do HdrHistogram: os valores até 2 * SUBFAIXAS
+// têm faixa própria, e acima disso cada potência de dois é dividida em SUBFAIXAS faixas iguais, o que
+// mantém o erro relativo abaixo de 1/SUBFAIXAS (cerca de 3%) de 1 ns a dezenas de horas com memória fixa.
+// O registro é sem lock (um incremento atômico), então pode ser feito em todo caminho quente; as
+// leituras percorrem as faixas e podem não enxergar registros concorrentes.
+public class HistogramaLatencia {
+
+    private static final int BITS_SUBFAIXA = 5;
+    private static final int SUBFAIXAS = 1 << BITS_SUBFAIXA;
+    private static final int FAIXAS = (64 - BITS_SUBFAIXA) * SUBFAIXAS;
+
+    private final AtomicLongArray contagens = new AtomicLongArray(FAIXAS);
+    private final AtomicLong total = new AtomicLong(0);
+    private final AtomicLong somaNanos = new AtomicLong(0);
+    private final AtomicLong maximoNanos = new AtomicLong(0);
+
+    public void registrar(long nanos) {
+        if (nanos < 0) {
+            nanos = 0; // nanoTime() não é monotônico entre núcleos em algumas plataformas
+        }
+        contagens.incrementAndGet(indice(nanos));
+        total.incrementAndGet();
+        somaNanos.addAndGet(nanos);
+        long maximo;
+        while (nanos > (maximo = maximoNanos.get()) && !maximoNanos.compareAndSet(maximo, nanos)) {
+            // Outra thread registrou um máximo ao mesmo tempo; tenta de novo
+        }
+    }
+
+    // Registra o tempo decorrido desde 'inicioNanos', obtido de System.nanoTime().
+    public void registrarDesde(long inicioNanos) {
+        registrar(System.nanoTime() - inicioNanos);
+    }
+
+    public long getContagem() {
+        return total.get();
+    }
+
+    public double getMediaMicros() {
+        long contagem = total.get();
+        return contagem == 0 ? 0.0 : somaNanos.get() / 1000.0 / contagem;
+    }
+
+    public double getMaximoMicros() {
+        return maximoNanos.get() / 1000.0;
+    }
+
+    public double getTotalMillis() {
+        return somaNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * Latência abaixo da qual está a fração 'percentil' (0 a 100) dos registros, pelo limite superior
+     * da faixa onde ela cai, como o highestEquivalentValue do HdrHistogram.
+     */
+    public double getPercentilMicros(double percentil) {
+        long contagem = total.get();
+        if (contagem == 0) {
+            return 0.0;
+        }
+        long alvo = Math.max(1, (long) Math.ceil(contagem * Math.min(100.0, Math.max(0.0, percentil)) / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < FAIXAS; i++) {
+            acumulado += contagens.get(i);
+            if (acumulado >= alvo) {
+                return Math.min(limiteSuperior(i), maximoNanos.get()) / 1000.0;
+            }
+        }
+        return getMaximoMicros();
+    }
+
+    // Valores abaixo de 2 * SUBFAIXAS vão direto para sua faixa; acima, os BITS_SUBFAIXA + 1 bits mais
+    // significativos (o primeiro sempre 1) escolhem a subfaixa, e a quantidade de bits descartados, o grupo.
+    private static int indice(long valor) {
+        if (valor < 2 * SUBFAIXAS) {
+            return (int) valor;
+        }
+        int deslocamento = 63 - Long.numberOfLeadingZeros(valor) - BITS_SUBFAIXA;
+        return deslocamento * SUBFAIXAS + (int) (valor >>> deslocamento);
+    }
+
+    private static long limiteSuperior(int indice) {
+        if (indice < 2 * SUBFAIXAS) {
+            return indice;
+        }
+        int deslocamento = indice / SUBFAIXAS - 1;
+        long subfaixa = indice % SUBFAIXAS + SUBFAIXAS;
+        return ((subfaixa + 1) << deslocamento) - 1;
+    }
+}
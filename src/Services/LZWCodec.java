@@ -0,0 +1,457 @@
+package Services;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Implementação do LZW voltada a desempenho, usada pelos formatos comprimidos novos. Em vez de mapas
+// de arrays de bytes, o dicionário é uma trie em arrays de int: na compressão, uma tabela hash de
+// endereçamento aberto indexada por (código do prefixo, próximo byte); na descompressão, arrays de
+// prefixo/sufixo percorridos de trás para frente. Nada é encaixotado e as tabelas são reaproveitadas
+// por thread, então comprimir um registro pequeno não custa uma alocação grande.
+//
+// Formato: códigos de 9 a 16 bits empacotados do bit mais significativo para o menos significativo.
+// A largura acompanha o tamanho do dicionário; quando ele enche, o código LIMPAR (256) o reinicia e o
+// código FIM (257) encerra os dados. Não é compatível com o formato de 16 bits fixos do LZWCompressor.
+public final class LZWCodec {
+
+    static final int CODIGO_LIMPAR = 256;
+    static final int CODIGO_FIM = 257;
+    static final int PRIMEIRO_CODIGO = 258;
+    private static final int LARGURA_MINIMA = 9;
+    static final int LARGURA_MAXIMA = 16;
+    static final int CAPACIDADE = 1 << LARGURA_MAXIMA;
+    // Frases de um dicionário treinado; sobra ao menos um código para o crescimento durante a compressão
+    public static final int MAX_ENTRADAS_DICIONARIO = CAPACIDADE - PRIMEIRO_CODIGO - 1;
+
+    private static final ThreadLocal<TabelaCompressao> TABELAS_COMPRESSAO = ThreadLocal.withInitial(TabelaCompressao::new);
+    private static final ThreadLocal<TabelaDescompressao> TABELAS_DESCOMPRESSAO = ThreadLocal.withInitial(TabelaDescompressao::new);
+
+    private LZWCodec() {
+    }
+
+    public static byte[] comprimir(byte[] dados) {
+        return comprimir(dados, 0, dados == null ? 0 : dados.length, null);
+    }
+
+    public static byte[] comprimir(byte[] dados, DicionarioLZW dicionario) {
+        return comprimir(dados, 0, dados == null ? 0 : dados.length, dicionario);
+    }
+
+    // Comprime o trecho informado; com dicionário, a compressão parte das frases treinadas.
+    public static byte[] comprimir(byte[] dados, int offset, int tamanho, DicionarioLZW dicionario) {
+        if (dados == null || tamanho == 0) {
+            return new byte[0];
+        }
+        SaidaBits saida = new SaidaBits(tamanho / 2 + 16);
+        Codificador codificador = new Codificador(semente(dicionario), TABELAS_COMPRESSAO.get());
+        codificador.processar(dados, offset, tamanho, saida);
+        codificador.finalizar(saida);
+        return saida.toByteArray();
+    }
+
+    public static byte[] descomprimir(byte[] comprimido) {
+        return descomprimir(comprimido, null);
+    }
+
+    // Descomprime dados gerados por comprimir(), com o mesmo dicionário usado na compressão.
+    public static byte[] descomprimir(byte[] comprimido, DicionarioLZW dicionario) {
+        if (comprimido == null || comprimido.length == 0) {
+            return new byte[0];
+        }
+        Decodificador decodificador = new Decodificador(semente(dicionario), TABELAS_DESCOMPRESSAO.get());
+        EntradaBits entrada = new EntradaBits(comprimido);
+        byte[] saida = new byte[Math.max(64, comprimido.length * 3)];
+        int tamanho = 0;
+        int codigo;
+        while ((codigo = decodificador.lerCodigo(entrada)) != CODIGO_FIM) {
+            if (codigo < 0) {
+                throw new IllegalArgumentException("Dados comprimidos inválidos: fim inesperado antes do código FIM.");
+            }
+            int tamanhoFrase = decodificador.tamanhoFrase(codigo);
+            if (tamanho + tamanhoFrase > saida.length) {
+                saida = Arrays.copyOf(saida, Math.max(saida.length * 2, tamanho + tamanhoFrase));
+            }
+            tamanho = decodificador.escreverFrase(codigo, saida, tamanho);
+        }
+        return tamanho == saida.length ? saida : Arrays.copyOf(saida, tamanho);
+    }
+
+    private static Semente semente(DicionarioLZW dicionario) {
+        return dicionario == null ? null : dicionario.getSemente();
+    }
+
+    // Largura, em bits, do próximo código a ser emitido quando o dicionário tem 'proximo' entradas.
+    static int largura(int proximo) {
+        return Math.max(LARGURA_MINIMA, 32 - Integer.numberOfLeadingZeros(proximo - 1));
+    }
+
+    private static int espalhar(int chave, int bits) {
+        return (chave * 0x9E3779B1) >>> (32 - bits);
+    }
+
+    // Estado da compressão. Pode receber os dados em partes, o que permite usá-lo em streams.
+    static final class Codificador {
+        private final Semente semente;
+        private final int base;
+        private final TabelaCompressao tabela;
+        private int proximo;
+        private int atual = -1; // Código da frase em andamento, ou -1 se nenhuma
+
+        Codificador(Semente semente, TabelaCompressao tabela) {
+            this.semente = semente;
+            this.base = semente == null ? PRIMEIRO_CODIGO : semente.base;
+            this.tabela = tabela;
+            reiniciar();
+        }
+
+        private void reiniciar() {
+            tabela.limpar();
+            proximo = base;
+        }
+
+        void processar(byte[] dados, int offset, int tamanho, SaidaBits saida) {
+            int fim = offset + tamanho;
+            int i = offset;
+            int atual = this.atual;
+            if (atual < 0 && i < fim) {
+                atual = dados[i++] & 0xFF;
+            }
+            for (; i < fim; i++) {
+                int b = dados[i] & 0xFF;
+                int chave = (atual << 8) | b;
+                int filho = semente == null ? -1 : semente.buscar(chave);
+                if (filho < 0) {
+                    filho = tabela.buscar(chave);
+                }
+                if (filho >= 0) {
+                    atual = filho;
+                    continue;
+                }
+                saida.escrever(atual, largura(proximo));
+                if (proximo < CAPACIDADE) {
+                    tabela.inserir(chave, proximo++);
+                } else {
+                    // Dicionário cheio: recomeça para se adaptar ao trecho seguinte dos dados
+                    saida.escrever(CODIGO_LIMPAR, largura(proximo));
+                    reiniciar();
+                }
+                atual = b;
+            }
+            this.atual = atual;
+        }
+
+        // Emite a frase pendente e o código FIM, completando o último byte.
+        void finalizar(SaidaBits saida) {
+            if (atual >= 0) {
+                saida.escrever(atual, largura(proximo));
+                // O decodificador conta uma entrada por código lido, então o FIM usa a largura seguinte
+                proximo = Math.min(proximo + 1, CAPACIDADE);
+                atual = -1;
+            }
+            saida.escrever(CODIGO_FIM, largura(proximo));
+            saida.completarByte();
+        }
+    }
+
+    // Estado da descompressão: lê códigos e reconstrói as frases a partir dos arrays de prefixo/sufixo.
+    static final class Decodificador {
+        private final int base;
+        private final TabelaDescompressao tabela;
+        private int proximo;
+        private int lidosDesdeReinicio = 0;
+        private int anterior = -1;
+
+        Decodificador(Semente semente, TabelaDescompressao tabela) {
+            this.base = semente == null ? PRIMEIRO_CODIGO : semente.base;
+            this.tabela = tabela;
+            tabela.preparar(semente);
+            proximo = base;
+        }
+
+        // Lê o próximo código de dados, tratando LIMPAR internamente e registrando a nova entrada do
+        // dicionário. Retorna CODIGO_FIM no fim dos dados, ou -1 se a entrada acabar antes dele.
+        int lerCodigo(EntradaBits entrada) {
+            while (true) {
+                // O codificador tinha base + (códigos já emitidos) entradas ao emitir este código
+                int codigo = entrada.ler(largura(Math.min(base + lidosDesdeReinicio, CAPACIDADE)));
+                if (codigo < 0) {
+                    return -1;
+                }
+                lidosDesdeReinicio++;
+                if (codigo == CODIGO_LIMPAR) {
+                    proximo = base;
+                    lidosDesdeReinicio = 0;
+                    anterior = -1;
+                    continue;
+                }
+                if (codigo == CODIGO_FIM) {
+                    return CODIGO_FIM;
+                }
+                if (anterior < 0) {
+                    if (codigo >= base) {
+                        throw new IllegalArgumentException("Dados comprimidos inválidos: primeiro código " + codigo + " não está no dicionário inicial.");
+                    }
+                    anterior = codigo;
+                    return codigo;
+                }
+                if (codigo > proximo) {
+                    throw new IllegalArgumentException("Dados comprimidos corrompidos ou código LZW inválido: " + codigo);
+                }
+                if (proximo < CAPACIDADE) {
+                    // Nova entrada = frase anterior + primeiro byte da atual. No caso KwKwK (código ainda
+                    // não definido) a frase atual começa com o mesmo byte da anterior.
+                    int primeiroByte = tabela.primeiroByte(codigo == proximo ? anterior : codigo);
+                    tabela.definir(proximo++, anterior, primeiroByte);
+                }
+                anterior = codigo;
+                return codigo;
+            }
+        }
+
+        int tamanhoFrase(int codigo) {
+            return tabela.tamanhos[codigo];
+        }
+
+        // Escreve a frase do código em destino[posicao...] e retorna a posição seguinte.
+        int escreverFrase(int codigo, byte[] destino, int posicao) {
+            int tamanho = tabela.tamanhos[codigo];
+            int p = posicao + tamanho - 1;
+            int c = codigo;
+            while (c >= 256) {
+                destino[p--] = tabela.sufixos[c];
+                c = tabela.prefixos[c];
+            }
+            destino[p] = (byte) c;
+            return posicao + tamanho;
+        }
+    }
+
+    // Tabela hash (código do prefixo, byte) -> código, limpa em O(1) trocando a geração das entradas.
+    static final class TabelaCompressao {
+        private static final int BITS = 17; // Dobro da capacidade do dicionário, para manter as sondagens curtas
+        private static final int MASCARA = (1 << BITS) - 1;
+        private final int[] chaves = new int[1 << BITS];
+        private final int[] valores = new int[1 << BITS];
+        private final int[] geracoes = new int[1 << BITS];
+        private int geracao = 0;
+
+        void limpar() {
+            if (++geracao == 0) {
+                Arrays.fill(geracoes, 0);
+                geracao = 1;
+            }
+        }
+
+        int buscar(int chave) {
+            int i = espalhar(chave, BITS);
+            while (geracoes[i] == geracao) {
+                if (chaves[i] == chave) {
+                    return valores[i];
+                }
+                i = (i + 1) & MASCARA;
+            }
+            return -1;
+        }
+
+        void inserir(int chave, int valor) {
+            int i = espalhar(chave, BITS);
+            while (geracoes[i] == geracao) {
+                i = (i + 1) & MASCARA;
+            }
+            chaves[i] = chave;
+            valores[i] = valor;
+            geracoes[i] = geracao;
+        }
+    }
+
+    // Arrays de prefixo/sufixo/tamanho de cada código. Entradas acima do próximo código nunca são lidas
+    // antes de serem redefinidas, então reiniciar o dicionário não exige limpar nada.
+    static final class TabelaDescompressao {
+        final int[] prefixos = new int[CAPACIDADE];
+        final byte[] sufixos = new byte[CAPACIDADE];
+        final int[] tamanhos = new int[CAPACIDADE];
+        private final int[] primeiros = new int[CAPACIDADE];
+        private Semente sementeCarregada = null;
+
+        TabelaDescompressao() {
+            for (int i = 0; i < 256; i++) {
+                prefixos[i] = -1;
+                sufixos[i] = (byte) i;
+                tamanhos[i] = 1;
+                primeiros[i] = i;
+            }
+        }
+
+        // Carrega as entradas do dicionário treinado, se forem diferentes das que já estão na tabela.
+        void preparar(Semente semente) {
+            if (semente == null || semente == sementeCarregada) {
+                return;
+            }
+            System.arraycopy(semente.prefixos, PRIMEIRO_CODIGO, prefixos, PRIMEIRO_CODIGO, semente.base - PRIMEIRO_CODIGO);
+            System.arraycopy(semente.sufixos, PRIMEIRO_CODIGO, sufixos, PRIMEIRO_CODIGO, semente.base - PRIMEIRO_CODIGO);
+            System.arraycopy(semente.tamanhos, PRIMEIRO_CODIGO, tamanhos, PRIMEIRO_CODIGO, semente.base - PRIMEIRO_CODIGO);
+            System.arraycopy(semente.primeiros, PRIMEIRO_CODIGO, primeiros, PRIMEIRO_CODIGO, semente.base - PRIMEIRO_CODIGO);
+            sementeCarregada = semente;
+        }
+
+        void definir(int codigo, int prefixo, int sufixo) {
+            prefixos[codigo] = prefixo;
+            sufixos[codigo] = (byte) sufixo;
+            tamanhos[codigo] = tamanhos[prefixo] + 1;
+            primeiros[codigo] = primeiros[prefixo];
+            // Uma entrada nova pode sobrescrever uma semente carregada antes; força recarregar na próxima vez
+            if (sementeCarregada != null && codigo < sementeCarregada.base) {
+                sementeCarregada = null;
+            }
+        }
+
+        int primeiroByte(int codigo) {
+            return primeiros[codigo];
+        }
+    }
+
+    // Forma compilada de um DicionarioLZW: a trie das frases treinadas, consultada sem cópia durante a
+    // compressão, e os arrays de prefixo/sufixo copiados para a tabela de descompressão.
+    static final class Semente {
+        final int base;
+        private final int bits;
+        private final int[] chaves; // chave + 1; 0 indica posição vazia
+        private final int[] valores;
+        final int[] prefixos;
+        final byte[] sufixos;
+        final int[] tamanhos;
+        final int[] primeiros;
+
+        Semente(List<byte[]> entradas) {
+            if (entradas.size() > MAX_ENTRADAS_DICIONARIO) {
+                throw new IllegalArgumentException("Dicionário LZW com entradas demais: " + entradas.size());
+            }
+            this.base = PRIMEIRO_CODIGO + entradas.size();
+            this.bits = Math.max(4, 33 - Integer.numberOfLeadingZeros(Math.max(1, entradas.size())));
+            this.chaves = new int[1 << bits];
+            this.valores = new int[1 << bits];
+            this.prefixos = new int[base];
+            this.sufixos = new byte[base];
+            this.tamanhos = new int[base];
+            this.primeiros = new int[base];
+            int codigo = PRIMEIRO_CODIGO;
+            for (byte[] entrada : entradas) {
+                if (entrada.length < 2) {
+                    throw new IllegalArgumentException("Entrada de dicionário LZW com menos de dois bytes.");
+                }
+                // Entradas vêm em ordem de tamanho e fechadas por prefixo, então o prefixo já está na trie
+                int prefixo = entrada[0] & 0xFF;
+                for (int j = 1; j < entrada.length - 1; j++) {
+                    prefixo = buscar((prefixo << 8) | (entrada[j] & 0xFF));
+                    if (prefixo < 0) {
+                        throw new IllegalArgumentException("Dicionário LZW não é fechado por prefixo.");
+                    }
+                }
+                int chave = (prefixo << 8) | (entrada[entrada.length - 1] & 0xFF);
+                if (buscar(chave) >= 0) {
+                    throw new IllegalArgumentException("Dicionário LZW com entrada repetida.");
+                }
+                inserir(chave, codigo);
+                prefixos[codigo] = prefixo;
+                sufixos[codigo] = entrada[entrada.length - 1];
+                tamanhos[codigo] = entrada.length;
+                primeiros[codigo] = entrada[0] & 0xFF;
+                codigo++;
+            }
+        }
+
+        int buscar(int chave) {
+            int mascara = chaves.length - 1;
+            int i = espalhar(chave, bits);
+            while (chaves[i] != 0) {
+                if (chaves[i] == chave + 1) {
+                    return valores[i];
+                }
+                i = (i + 1) & mascara;
+            }
+            return -1;
+        }
+
+        private void inserir(int chave, int valor) {
+            int mascara = chaves.length - 1;
+            int i = espalhar(chave, bits);
+            while (chaves[i] != 0) {
+                i = (i + 1) & mascara;
+            }
+            chaves[i] = chave + 1;
+            valores[i] = valor;
+        }
+    }
+
+    // Acumula códigos de largura variável num array de bytes que cresce conforme necessário.
+    static class SaidaBits {
+        protected byte[] buffer;
+        protected int tamanho = 0;
+        private long acumulador = 0;
+        private int bitsPendentes = 0;
+
+        SaidaBits(int capacidadeInicial) {
+            this.buffer = new byte[Math.max(16, capacidadeInicial)];
+        }
+
+        final void escrever(int codigo, int largura) {
+            acumulador = (acumulador << largura) | codigo;
+            bitsPendentes += largura;
+            while (bitsPendentes >= 8) {
+                bitsPendentes -= 8;
+                if (tamanho == buffer.length) {
+                    bufferCheio();
+                }
+                buffer[tamanho++] = (byte) (acumulador >>> bitsPendentes);
+            }
+        }
+
+        final void completarByte() {
+            if (bitsPendentes > 0) {
+                escrever(0, 8 - bitsPendentes);
+            }
+        }
+
+        // Chamado quando o buffer enche; por padrão dobra a capacidade.
+        protected void bufferCheio() {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, tamanho);
+        }
+    }
+
+    // Lê códigos de largura variável de um array de bytes.
+    static class EntradaBits {
+        protected byte[] buffer;
+        protected int posicao;
+        protected int limite;
+        private long acumulador = 0;
+        private int bitsDisponiveis = 0;
+
+        EntradaBits(byte[] dados) {
+            this.buffer = dados;
+            this.posicao = 0;
+            this.limite = dados.length;
+        }
+
+        // Retorna o próximo código, ou -1 se não houver bits suficientes.
+        final int ler(int largura) {
+            while (bitsDisponiveis < largura) {
+                if (posicao == limite && !recarregar()) {
+                    return -1;
+                }
+                acumulador = (acumulador << 8) | (buffer[posicao++] & 0xFF);
+                bitsDisponiveis += 8;
+            }
+            bitsDisponiveis -= largura;
+            return (int) (acumulador >>> bitsDisponiveis) & ((1 << largura) - 1);
+        }
+
+        // Chamado quando o buffer acaba; retorna false se não houver mais dados.
+        protected boolean recarregar() {
+            return false;
+        }
+    }
+}
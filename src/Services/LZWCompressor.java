@@ -10,9 +10,17 @@ import java.util.Arrays;
 public class LZWCompressor {
 
     private static final int DICTIONARY_SIZE = 4096;
+    // Com dicionário treinado, o dicionário pode crescer até o limite dos códigos de 16 bits
+    static final int DICTIONARY_SIZE_COM_DICIONARIO = 1 << 16;
 
     // Comprime um array de bytes utilizando o algoritmo LZW.
     public static byte[] compress(byte[] uncompressedData) {
+        return compress(uncompressedData, null);
+    }
+
+    // Comprime um array de bytes partindo de um dicionário treinado (ver DicionarioLZW), em vez de
+    // apenas os 256 bytes simples. O resultado só pode ser descomprimido com o mesmo dicionário.
+    public static byte[] compress(byte[] uncompressedData, DicionarioLZW dicionarioTreinado) {
         if (uncompressedData == null || uncompressedData.length == 0) {
             return new byte[0];
         }
@@ -21,10 +29,17 @@ public class LZWCompressor {
         for (int i = 0; i < 256; i++) {
             dictionary.put(new ByteArrayWrapper(new byte[]{(byte) i}), i);
         }
+        int nextCode = 256;
+        int dictionarySize = DICTIONARY_SIZE;
+        if (dicionarioTreinado != null) {
+            for (byte[] entrada : dicionarioTreinado.getEntradas()) {
+                dictionary.put(new ByteArrayWrapper(entrada), nextCode++);
+            }
+            dictionarySize = DICTIONARY_SIZE_COM_DICIONARIO;
+        }
 
         ByteArrayWrapper currentSequence = new ByteArrayWrapper(new byte[0]);
         List<Integer> compressedCodes = new ArrayList<>();
-        int nextCode = 256;
 
         for (byte b : uncompressedData) {
             ByteArrayWrapper newSequence = currentSequence.append(b);
@@ -34,7 +49,7 @@ public class LZWCompressor {
             } else {
                 compressedCodes.add(dictionary.get(currentSequence));
 
-                if (nextCode < DICTIONARY_SIZE) {
+                if (nextCode < dictionarySize) {
                     dictionary.put(newSequence, nextCode++);
                 }
                 currentSequence = new ByteArrayWrapper(new byte[]{b});
@@ -57,6 +72,11 @@ public class LZWCompressor {
 
     // Descomprime um array de bytes utilizando o algoritmo LZW.
     public static byte[] decompress(byte[] compressedData) {
+        return decompress(compressedData, null);
+    }
+
+    // Descomprime dados gerados por compress(dados, dicionarioTreinado), com o mesmo dicionário.
+    public static byte[] decompress(byte[] compressedData, DicionarioLZW dicionarioTreinado) {
         if (compressedData == null || compressedData.length == 0) {
             return new byte[0];
         }
@@ -72,6 +92,13 @@ public class LZWCompressor {
         }
 
         int nextCode = 256;
+        int dictionarySize = DICTIONARY_SIZE;
+        if (dicionarioTreinado != null) {
+            for (byte[] entrada : dicionarioTreinado.getEntradas()) {
+                dictionary.put(nextCode++, new ByteArrayWrapper(entrada));
+            }
+            dictionarySize = DICTIONARY_SIZE_COM_DICIONARIO;
+        }
 
         List<Byte> decompressedBytes = new ArrayList<>();
 
@@ -112,7 +139,7 @@ public class LZWCompressor {
             }
 
             // Adiciona nova entrada ao dicionário, se houver espaço
-            if (previousSequence != null && nextCode < DICTIONARY_SIZE) {
+            if (previousSequence != null && nextCode < dictionarySize) {
                 dictionary.put(nextCode++, previousSequence.append(currentSequence.getData()[0]));
             }
 
@@ -0,0 +1,131 @@
+package Services;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+// Descomprime, sob demanda, dados gerados pelo LZWOutputStream ou por LZWCodec.comprimir(). Lê a
+// origem em pedaços de tamanho fixo e guarda no máximo uma frase do dicionário decodificada, então a
+// memória usada não depende do tamanho dos dados.
+public class LZWInputStream extends InputStream {
+
+    private static final int TAMANHO_BUFFER = 8 * 1024;
+
+    private final InputStream origem;
+    private final LZWCodec.Decodificador decodificador;
+    private final EntradaStream entrada;
+    // Uma frase tem no máximo um byte a mais que a anterior, então cabe sempre na capacidade do dicionário
+    private final byte[] frase = new byte[LZWCodec.CAPACIDADE];
+    private int inicioFrase = 0;
+    private int fimFrase = 0;
+    private boolean fim = false;
+    private final byte[] umByte = new byte[1];
+
+    public LZWInputStream(InputStream origem) {
+        this(origem, null);
+    }
+
+    // O dicionário deve ser o mesmo usado na compressão.
+    public LZWInputStream(InputStream origem, DicionarioLZW dicionario) {
+        this.origem = origem;
+        this.decodificador = new LZWCodec.Decodificador(dicionario == null ? null : dicionario.getSemente(), new LZWCodec.TabelaDescompressao());
+        this.entrada = new EntradaStream();
+    }
+
+    @Override
+    public int read() throws IOException {
+        int lidos = read(umByte, 0, 1);
+        return lidos < 0 ? -1 : umByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        int copiados = 0;
+        while (copiados < len) {
+            if (inicioFrase == fimFrase && !decodificarProximaFrase()) {
+                break;
+            }
+            int n = Math.min(len - copiados, fimFrase - inicioFrase);
+            System.arraycopy(frase, inicioFrase, b, off + copiados, n);
+            inicioFrase += n;
+            copiados += n;
+        }
+        return copiados == 0 ? -1 : copiados;
+    }
+
+    @Override
+    public int available() {
+        return fimFrase - inicioFrase;
+    }
+
+    // Decodifica o próximo código para o buffer de frase. Retorna false no fim dos dados.
+    private boolean decodificarProximaFrase() throws IOException {
+        if (fim) {
+            return false;
+        }
+        int codigo;
+        try {
+            codigo = decodificador.lerCodigo(entrada);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (codigo == LZWCodec.CODIGO_FIM) {
+            fim = true;
+            return false;
+        }
+        if (codigo < 0) {
+            fim = true;
+            // Entrada vazia equivale a dados vazios, como em LZWCodec.descomprimir()
+            if (entrada.totalLido == 0) {
+                return false;
+            }
+            throw new IOException("Dados comprimidos inválidos: fim inesperado antes do código FIM.");
+        }
+        inicioFrase = 0;
+        fimFrase = decodificador.escreverFrase(codigo, frase, 0);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        fim = true;
+        origem.close();
+    }
+
+    // Entrada de bits que recarrega o buffer a partir do stream de origem.
+    private class EntradaStream extends LZWCodec.EntradaBits {
+        long totalLido = 0;
+
+        EntradaStream() {
+            super(new byte[TAMANHO_BUFFER]);
+            this.limite = 0;
+        }
+
+        @Override
+        protected boolean recarregar() {
+            try {
+                int lidos = origem.read(buffer, 0, buffer.length);
+                while (lidos == 0) {
+                    lidos = origem.read(buffer, 0, buffer.length);
+                }
+                if (lidos < 0) {
+                    return false;
+                }
+                posicao = 0;
+                limite = lidos;
+                totalLido += lidos;
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package Services;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+// Comprime com o LZWCodec à medida que os dados são escritos, repassando os bytes comprimidos ao stream
+// de destino em pedaços de tamanho fixo. A memória usada não depende do tamanho da entrada: apenas a
+// tabela do dicionário e o buffer de saída. Usa o formato de LZWCodec.comprimir(), inclusive nenhum byte
+// para entrada vazia, então pode ser lido tanto pelo LZWInputStream quanto por LZWCodec.descomprimir().
+public class LZWOutputStream extends OutputStream {
+
+    private static final int TAMANHO_BUFFER = 8 * 1024;
+
+    private final OutputStream destino;
+    private final LZWCodec.Codificador codificador;
+    private final SaidaStream saida;
+    private final byte[] umByte = new byte[1];
+    private boolean finalizado = false;
+    private boolean recebeuDados = false;
+
+    public LZWOutputStream(OutputStream destino) {
+        this(destino, null);
+    }
+
+    // Com dicionário, a leitura precisa usar o mesmo dicionário.
+    public LZWOutputStream(OutputStream destino, DicionarioLZW dicionario) {
+        this.destino = destino;
+        this.codificador = new LZWCodec.Codificador(dicionario == null ? null : dicionario.getSemente(), new LZWCodec.TabelaCompressao());
+        this.saida = new SaidaStream();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        umByte[0] = (byte) b;
+        write(umByte, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finalizado) {
+            throw new IOException("LZWOutputStream já finalizado.");
+        }
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return;
+        }
+        recebeuDados = true;
+        try {
+            codificador.processar(b, off, len, saida);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // Envia ao destino os bytes comprimidos já completos. Os bits do último código parcial e a frase em
+    // andamento só saem em finish() ou close().
+    @Override
+    public void flush() throws IOException {
+        saida.descarregar();
+        destino.flush();
+    }
+
+    // Encerra os dados comprimidos (código FIM) sem fechar o stream de destino. Sem nenhum byte escrito
+    // não há o que encerrar, como em LZWCodec.comprimir().
+    public void finish() throws IOException {
+        if (finalizado) {
+            return;
+        }
+        finalizado = true;
+        if (recebeuDados) {
+            try {
+                codificador.finalizar(saida);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        saida.descarregar();
+        destino.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            destino.close();
+        }
+    }
+
+    // Buffer de saída que, ao encher, é escrito no destino em vez de crescer.
+    private class SaidaStream extends LZWCodec.SaidaBits {
+        SaidaStream() {
+            super(TAMANHO_BUFFER);
+        }
+
+        @Override
+        protected void bufferCheio() {
+            try {
+                descarregar();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void descarregar() throws IOException {
+            if (tamanho > 0) {
+                destino.write(buffer, 0, tamanho);
+                tamanho = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package Services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Log em memória das alterações confirmadas no primário, numeradas por sequência a partir de 1. Cada
+// alteração leva o registro lógico completo (o mesmo que iria para o disco, antes do AES): aplicar uma
+// alteração é gravar o registro, e a versão dentro dele torna a aplicação idempotente.
+//
+// Guarda só as últimas 'capacidade' alterações num anel. Um seguidor que ficou mais atrás do que isso
+// (ou que nunca sincronizou) recebe uma carga completa em vez do log.
+class LogReplicacao {
+
+    static final class Alteracao {
+        final long sequencia;
+        final int id;
+        final byte[] registro;
+
+        Alteracao(long sequencia, int id, byte[] registro) {
+            this.sequencia = sequencia;
+            this.id = id;
+            this.registro = registro;
+        }
+    }
+
+    private final Alteracao[] anel;
+    private long ultimaSequencia = 0;
+
+    LogReplicacao(int capacidade) {
+        if (capacidade < 1) {
+            throw new IllegalArgumentException("Capacidade do log de replicação inválida: " + capacidade);
+        }
+        this.anel = new Alteracao[capacidade];
+    }
+
+    // Chamado com o latch do registro travado, o que mantém as alterações de um mesmo ID em ordem de versão.
+    synchronized void publicar(int id, byte[] registro) {
+        ultimaSequencia++;
+        anel[(int) (ultimaSequencia % anel.length)] = new Alteracao(ultimaSequencia, id, registro);
+        notifyAll();
+    }
+
+    synchronized long getUltimaSequencia() {
+        return ultimaSequencia;
+    }
+
+    /**
+     * Alterações com sequência maior que 'aPartirDe', no máximo 'maximo'. Sem nenhuma disponível, espera
+     * até 'esperaMs' por uma nova.
+     *
+     * @return As alterações em ordem (possivelmente nenhuma), ou null se alguma delas já saiu do anel.
+     */
+    synchronized List<Alteracao> lerApos(long aPartirDe, int maximo, long esperaMs) throws InterruptedException {
+        if (aPartirDe >= ultimaSequencia && esperaMs > 0) {
+            wait(esperaMs);
+        }
+        if (ultimaSequencia - aPartirDe > anel.length) {
+            return null;
+        }
+        long fim = Math.min(ultimaSequencia, aPartirDe + maximo);
+        List<Alteracao> alteracoes = new ArrayList<>((int) Math.max(0, fim - aPartirDe));
+        for (long s = aPartirDe + 1; s <= fim; s++) {
+            alteracoes.add(anel[(int) (s % anel.length)]);
+        }
+        return alteracoes;
+    }
+}
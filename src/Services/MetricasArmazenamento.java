@@ -0,0 +1,277 @@
+package Services;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Instrumentação de um GerenciadorArquivos: histogramas de latência por operação, de fsync e de espera
+// por locks, contadores de buffers e caches, e leituras instantâneas da lista livre e da fragmentação.
+// Publicada como MBean (ver MetricasArmazenamentoMBean) e em texto por relatorio().
+//
+// Os registros ficam nos caminhos quentes do gerenciador, então são só incrementos atômicos; os
+// valores derivados (percentis, taxas) são calculados na leitura.
+public class MetricasArmazenamento implements MetricasArmazenamentoMBean {
+
+    public static final String DOMINIO_JMX = "Services";
+
+    public enum Operacao {
+        CRIAR("criar"),
+        BUSCAR("buscar"),
+        ATUALIZAR("atualizar"),
+        DELETAR("deletar"),
+        LOTE("lote"),
+        COMPACTACAO("compactacao"),
+        BUSCA_PADRAO("busca_padrao");
+
+        private final String rotulo;
+
+        Operacao(String rotulo) {
+            this.rotulo = rotulo;
+        }
+
+        public String getRotulo() {
+            return rotulo;
+        }
+    }
+
+    private final GerenciadorArquivos gerenciador;
+    private final HistogramaLatencia[] latencias = new HistogramaLatencia[Operacao.values().length];
+    private final HistogramaLatencia fsync = new HistogramaLatencia();
+    private final HistogramaLatencia esperaLock = new HistogramaLatencia();
+    private final AtomicLong emprestimosBufferPool = new AtomicLong(0);
+    private final AtomicLong esgotamentosBufferPool = new AtomicLong(0);
+    private final AtomicLong leiturasOtimistas = new AtomicLong(0);
+    private final AtomicLong leiturasOtimistasValidas = new AtomicLong(0);
+    private ObjectName nomeJmx; // null = não registrado
+
+    MetricasArmazenamento(GerenciadorArquivos gerenciador) {
+        this.gerenciador = gerenciador;
+        for (int i = 0; i < latencias.length; i++) {
+            latencias[i] = new HistogramaLatencia();
+        }
+    }
+
+    // Registro, chamado pelo gerenciador
+
+    void registrar(Operacao operacao, long inicioNanos) {
+        latencias[operacao.ordinal()].registrarDesde(inicioNanos);
+    }
+
+    void registrarFsync(long inicioNanos) {
+        fsync.registrarDesde(inicioNanos);
+    }
+
+    void registrarEsperaLock(long inicioNanos) {
+        esperaLock.registrarDesde(inicioNanos);
+    }
+
+    // Empréstimo do pool de buffers; sem buffer disponível, quem pediu esperou ou alocou um buffer avulso.
+    void registrarEmprestimoBuffer(boolean disponivel) {
+        emprestimosBufferPool.incrementAndGet();
+        if (!disponivel) {
+            esgotamentosBufferPool.incrementAndGet();
+        }
+    }
+
+    // Leitura sem lock de lerRegistroDoId(); inválida quando uma escrita concorrente obrigou a repetir com o latch.
+    void registrarLeituraOtimista(boolean valida) {
+        leiturasOtimistas.incrementAndGet();
+        if (valida) {
+            leiturasOtimistasValidas.incrementAndGet();
+        }
+    }
+
+    public HistogramaLatencia getHistograma(Operacao operacao) {
+        return latencias[operacao.ordinal()];
+    }
+
+    public HistogramaLatencia getHistogramaFsync() {
+        return fsync;
+    }
+
+    public HistogramaLatencia getHistogramaEsperaLock() {
+        return esperaLock;
+    }
+
+    // Atributos do MBean
+
+    @Override
+    public long getOperacoesTotais() {
+        return gerenciador.getTotalOperacoes();
+    }
+
+    @Override
+    public int getRegistrosAtivos() {
+        return gerenciador.getRegistrosAtivos();
+    }
+
+    @Override
+    public int getVersoesRetidas() {
+        return gerenciador.getVersoesRetidas();
+    }
+
+    @Override
+    public int getBlocosLivres() {
+        return gerenciador.getBlocosLivres();
+    }
+
+    @Override
+    public long getBytesLivres() {
+        return gerenciador.getBytesLivres();
+    }
+
+    @Override
+    public double getTaxaFragmentacao() {
+        return gerenciador.calcularTaxaFragmentacao();
+    }
+
+    @Override
+    public int getBuffersDisponiveis() {
+        return gerenciador.getBuffersDisponiveis();
+    }
+
+    @Override
+    public long getEsgotamentosBufferPool() {
+        return esgotamentosBufferPool.get();
+    }
+
+    @Override
+    public double getTaxaAcertoBufferPool() {
+        return taxa(emprestimosBufferPool.get() - esgotamentosBufferPool.get(), emprestimosBufferPool.get());
+    }
+
+    @Override
+    public double getTaxaAcertoLeituraOtimista() {
+        return taxa(leiturasOtimistasValidas.get(), leiturasOtimistas.get());
+    }
+
+    // Fração das leituras que encontraram escritas ainda no buffer de escrita adiada.
+    @Override
+    public double getTaxaLeiturasDoBufferEscrita() {
+        BufferEscrita buffer = gerenciador.getBufferEscrita();
+        return buffer == null ? 0.0 : taxa(buffer.getLeiturasComPendentes(), buffer.getLeituras());
+    }
+
+    // Escritas recebidas pelo buffer de escrita adiada por escrita feita no arquivo (1 sem agrupamento).
+    @Override
+    public double getEscritasPorChamadaNoArquivo() {
+        BufferEscrita buffer = gerenciador.getBufferEscrita();
+        if (buffer == null || buffer.getChamadasEscrita() == 0) {
+            return 1.0;
+        }
+        return (double) buffer.getEscritasRecebidas() / buffer.getChamadasEscrita();
+    }
+
+    @Override
+    public long getFsyncs() {
+        return fsync.getContagem();
+    }
+
+    @Override
+    public double getFsyncMediaMicros() {
+        return fsync.getMediaMicros();
+    }
+
+    @Override
+    public double getFsyncP99Micros() {
+        return fsync.getPercentilMicros(99);
+    }
+
+    @Override
+    public double getEsperaLockP99Micros() {
+        return esperaLock.getPercentilMicros(99);
+    }
+
+    @Override
+    public double getEsperaLockTotalMillis() {
+        return esperaLock.getTotalMillis();
+    }
+
+    @Override
+    public String[] getLatencias() {
+        List<String> linhas = new ArrayList<>();
+        for (Operacao operacao : Operacao.values()) {
+            linhas.add(linhaHistograma(operacao.getRotulo(), getHistograma(operacao)));
+        }
+        linhas.add(linhaHistograma("fsync", fsync));
+        linhas.add(linhaHistograma("espera_lock", esperaLock));
+        return linhas.toArray(new String[0]);
+    }
+
+    @Override
+    public double percentilMicros(String operacao, double percentil) {
+        for (Operacao o : Operacao.values()) {
+            if (o.getRotulo().equalsIgnoreCase(operacao)) {
+                return getHistograma(o).getPercentilMicros(percentil);
+            }
+        }
+        if ("fsync".equalsIgnoreCase(operacao)) {
+            return fsync.getPercentilMicros(percentil);
+        }
+        if ("espera_lock".equalsIgnoreCase(operacao)) {
+            return esperaLock.getPercentilMicros(percentil);
+        }
+        throw new IllegalArgumentException("Operação desconhecida: " + operacao);
+    }
+
+    // Texto com todas as métricas, para logs e para o menu/servidor.
+    @Override
+    public String relatorio() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-14s %10s %10s %10s %10s %10s %10s %10s%n",
+                "operação", "contagem", "média(µs)", "p50", "p90", "p99", "p99,9", "máx"));
+        for (String linha : getLatencias()) {
+            sb.append(linha).append(System.lineSeparator());
+        }
+        sb.append(String.format("registros ativos: %d | operações: %d | versões retidas: %d%n",
+                getRegistrosAtivos(), getOperacoesTotais(), getVersoesRetidas()));
+        sb.append(String.format("lista livre: %d blocos, %d bytes | fragmentação: %.2f%%%n",
+                getBlocosLivres(), getBytesLivres(), getTaxaFragmentacao() * 100));
+        sb.append(String.format("buffer pool: %d disponíveis, %d esgotamentos, acerto %.2f%%%n",
+                getBuffersDisponiveis(), getEsgotamentosBufferPool(), getTaxaAcertoBufferPool() * 100));
+        sb.append(String.format("leituras otimistas válidas: %.2f%% | leituras do buffer de escrita: %.2f%% | escritas por chamada: %.2f%n",
+                getTaxaAcertoLeituraOtimista() * 100, getTaxaLeiturasDoBufferEscrita() * 100, getEscritasPorChamadaNoArquivo()));
+        return sb.toString();
+    }
+
+    private static String linhaHistograma(String rotulo, HistogramaLatencia h) {
+        return String.format("%-14s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f", rotulo, h.getContagem(), h.getMediaMicros(),
+                h.getPercentilMicros(50), h.getPercentilMicros(90), h.getPercentilMicros(99), h.getPercentilMicros(99.9),
+                h.getMaximoMicros());
+    }
+
+    private static double taxa(long parte, long total) {
+        return total == 0 ? 0.0 : (double) parte / total;
+    }
+
+    // JMX
+
+    // Registra o MBean no servidor da plataforma, identificado pelo caminho do arquivo. Uma falha (por
+    // exemplo, o mesmo arquivo aberto duas vezes) só é avisada: as métricas continuam em relatorio().
+    synchronized void registrarJmx(String caminhoArquivo) {
+        try {
+            ObjectName nome = new ObjectName(DOMINIO_JMX + ":type=GerenciadorArquivos,arquivo=" + ObjectName.quote(caminhoArquivo));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, nome);
+            nomeJmx = nome;
+        } catch (JMException e) {
+            System.err.println("Métricas: não foi possível registrar o MBean de " + caminhoArquivo + ": " + e.getMessage());
+        }
+    }
+
+    synchronized void removerJmx() {
+        if (nomeJmx == null) {
+            return;
+        }
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        try {
+            servidor.unregisterMBean(nomeJmx);
+        } catch (JMException e) {
+            // Já removido
+        }
+        nomeJmx = null;
+    }
+}
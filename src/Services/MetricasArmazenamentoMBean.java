@@ -0,0 +1,53 @@
+package Services;
+
+// Interface JMX de MetricasArmazenamento (MBean padrão): cada getter vira um atributo somente leitura
+// no jconsole/VisualVM, e os demais métodos, operações. Latências em microssegundos.
+public interface MetricasArmazenamentoMBean {
+
+    long getOperacoesTotais();
+
+    int getRegistrosAtivos();
+
+    int getVersoesRetidas();
+
+    // Lista livre e fragmentação
+
+    int getBlocosLivres();
+
+    long getBytesLivres();
+
+    double getTaxaFragmentacao();
+
+    // Buffers e caches
+
+    int getBuffersDisponiveis();
+
+    long getEsgotamentosBufferPool();
+
+    double getTaxaAcertoBufferPool();
+
+    double getTaxaAcertoLeituraOtimista();
+
+    double getTaxaLeiturasDoBufferEscrita();
+
+    double getEscritasPorChamadaNoArquivo();
+
+    // fsync e espera por locks
+
+    long getFsyncs();
+
+    double getFsyncMediaMicros();
+
+    double getFsyncP99Micros();
+
+    double getEsperaLockP99Micros();
+
+    double getEsperaLockTotalMillis();
+
+    // Uma linha por operação: contagem, média, p50, p90, p99, p99,9 e máximo.
+    String[] getLatencias();
+
+    double percentilMicros(String operacao, double percentil);
+
+    String relatorio();
+}
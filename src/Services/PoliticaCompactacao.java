@@ -0,0 +1,73 @@
+package Services;
+
+// Decide quando vale a pena compactar o arquivo de dados. A compactação só é disparada quando a
+// fragmentação ou o número de blocos livres passam dos limites configurados, respeitando um
+// intervalo mínimo entre execuções e adiando o trabalho enquanto a carga de primeiro plano estiver alta.
+public class PoliticaCompactacao {
+
+    private static final double TAXA_FRAGMENTACAO_MINIMA_PADRAO = 0.30;
+    private static final int BLOCOS_LIVRES_MINIMOS_PADRAO = 256;
+    private static final long INTERVALO_MINIMO_MS_PADRAO = 5 * 60 * 1000L;
+    private static final double LIMITE_OPERACOES_POR_SEGUNDO_PADRAO = 500.0;
+
+    private final double taxaFragmentacaoMinima;
+    private final int blocosLivresMinimos;
+    private final long intervaloMinimoMs;
+    private final double limiteOperacoesPorSegundo;
+
+    private volatile long ultimaExecucaoMs = 0L;
+
+    public PoliticaCompactacao() {
+        this(TAXA_FRAGMENTACAO_MINIMA_PADRAO, BLOCOS_LIVRES_MINIMOS_PADRAO, INTERVALO_MINIMO_MS_PADRAO, LIMITE_OPERACOES_POR_SEGUNDO_PADRAO);
+    }
+
+    /**
+     * @param taxaFragmentacaoMinima    Fração do arquivo (0 a 1) sem dados vivos a partir da qual se compacta.
+     * @param blocosLivresMinimos       Quantidade de blocos livres a partir da qual se compacta, mesmo com pouca fragmentação.
+     * @param intervaloMinimoMs         Tempo mínimo entre duas compactações.
+     * @param limiteOperacoesPorSegundo Carga de primeiro plano acima da qual a compactação é adiada.
+     */
+    public PoliticaCompactacao(double taxaFragmentacaoMinima, int blocosLivresMinimos, long intervaloMinimoMs, double limiteOperacoesPorSegundo) {
+        if (taxaFragmentacaoMinima < 0 || taxaFragmentacaoMinima > 1) {
+            throw new IllegalArgumentException("A taxa de fragmentação mínima deve estar entre 0 e 1.");
+        }
+        if (blocosLivresMinimos <= 0 || intervaloMinimoMs < 0 || limiteOperacoesPorSegundo <= 0) {
+            throw new IllegalArgumentException("Limites da política de compactação inválidos.");
+        }
+        this.taxaFragmentacaoMinima = taxaFragmentacaoMinima;
+        this.blocosLivresMinimos = blocosLivresMinimos;
+        this.intervaloMinimoMs = intervaloMinimoMs;
+        this.limiteOperacoesPorSegundo = limiteOperacoesPorSegundo;
+    }
+
+    // Retorna true se, com o estado informado, a compactação deve rodar agora.
+    public boolean deveCompactar(double taxaFragmentacao, int blocosLivres, double operacoesPorSegundo, long agoraMs) {
+        if (agoraMs - ultimaExecucaoMs < intervaloMinimoMs) {
+            return false;
+        }
+        if (operacoesPorSegundo > limiteOperacoesPorSegundo) {
+            return false;
+        }
+        return taxaFragmentacao >= taxaFragmentacaoMinima || blocosLivres >= blocosLivresMinimos;
+    }
+
+    public void registrarExecucao(long agoraMs) {
+        this.ultimaExecucaoMs = agoraMs;
+    }
+
+    public double getTaxaFragmentacaoMinima() {
+        return taxaFragmentacaoMinima;
+    }
+
+    public int getBlocosLivresMinimos() {
+        return blocosLivresMinimos;
+    }
+
+    public long getIntervaloMinimoMs() {
+        return intervaloMinimoMs;
+    }
+
+    public double getLimiteOperacoesPorSegundo() {
+        return limiteOperacoesPorSegundo;
+    }
+}
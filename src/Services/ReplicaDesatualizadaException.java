@@ -0,0 +1,14 @@
+package Services;
+
+import java.io.IOException;
+
+// Leitura recusada por uma ReplicaLeitura cujo atraso em relação ao primário passou do máximo aceito.
+// A mesma leitura pode ser repetida noutro seguidor ou no primário.
+public class ReplicaDesatualizadaException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ReplicaDesatualizadaException(String mensagem) {
+        super(mensagem);
+    }
+}
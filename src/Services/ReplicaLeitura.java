@@ -0,0 +1,419 @@
+package Services;
+
+import Models.Perfume;
+import Models.ProjecaoPerfume;
+import Structures.Arvore_BPlus;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+// Seguidor da replicação: mantém uma cópia local (um GerenciadorArquivos próprio, noutro arquivo)
+// alimentada pelas alterações do primário (ver ReplicacaoPrimario) e atende apenas leituras. Vários
+// seguidores, em processos diferentes (Main --replica), aumentam a capacidade de leitura sem carregar
+// o primário. Como ArmazemPerfumes, pode ser servido pelo ServidorHttp; as escritas são recusadas com
+// UnsupportedOperationException e devem ir para o primário.
+//
+// O atraso é limitado: cada pulso do primário traz a cabeça do log e o instante em que ela foi lida, e
+// o seguidor que já aplicou até a cabeça passa a contar o atraso a partir desse instante. Um seguidor
+// atrás de várias remessas não é renovado pelos pulsos entre elas, nem pelos que esperaram nos buffers
+// do socket enquanto ele aplicava as anteriores. As leituras falham com ReplicaDesatualizadaException
+// se o atraso passar de 'atrasoMaximoMs' (primário inacessível, seguidor sobrecarregado ou carga
+// completa em andamento). Quem precisa ler a própria escrita pode esperar a sequência dela com
+// aguardarSequencia().
+//
+// A época e a última sequência aplicada ficam em <arquivo>.replica, gravadas só depois de sincronizar
+// a cópia, para que o seguidor retome do ponto certo após reiniciar.
+public class ReplicaLeitura implements ArmazemPerfumes {
+
+    public static final long ATRASO_MAXIMO_PADRAO_MS = 1000;
+    public static final String PROPRIEDADE_ARQUIVO = "perfumes.replica.arquivo";
+    public static final String PROPRIEDADE_ATRASO_MAXIMO = "perfumes.replica.atrasoMaximoMs";
+    private static final String SUFIXO_POSICAO = ".replica";
+    private static final long INTERVALO_PERSISTENCIA_MS = 1000;
+    private static final int TEMPO_CONEXAO_MS = 2000;
+    private static final long ESPERA_RECONEXAO_MINIMA_MS = 100;
+    private static final long ESPERA_RECONEXAO_MAXIMA_MS = 5000;
+    private static final long NUNCA = Long.MIN_VALUE;
+
+    private final GerenciadorArquivos copia;
+    private final InetSocketAddress primario;
+    private final long atrasoMaximoMs;
+    private final Path arquivoPosicao;
+    private final Thread receptor;
+    private volatile boolean ativo = true;
+    private volatile Socket conexao;
+
+    // Escritos só pela thread receptora
+    private volatile long epoca = 0;
+    private volatile long sequenciaAplicada = 0;
+    private volatile boolean emCarga = false;
+    private volatile long emDiaDesdeNanos = NUNCA; // Leitura da cabeça do último pulso já alcançado, no relógio local
+    private long ultimaPersistenciaMs = 0;
+
+    public ReplicaLeitura(Arvore_BPlus arvore, String arquivoLocal, int portaPrimario) throws IOException, InterruptedException {
+        this(arvore, arquivoLocal, portaPrimario, ATRASO_MAXIMO_PADRAO_MS, new ConfiguracaoArmazenamento());
+    }
+
+    /**
+     * Abre a cópia local e começa a seguir o primário na porta informada da interface de loopback.
+     *
+     * @param atrasoMaximoMs Atraso máximo aceito nas leituras, em relação ao primário.
+     */
+    public ReplicaLeitura(Arvore_BPlus arvore, String arquivoLocal, int portaPrimario, long atrasoMaximoMs,
+                          ConfiguracaoArmazenamento configuracao) throws IOException, InterruptedException {
+        this.copia = new GerenciadorArquivos(arvore, arquivoLocal, configuracao);
+        this.copia.desativarExportacaoAgendada(); // Exportar é papel do primário
+        this.primario = new InetSocketAddress(InetAddress.getLoopbackAddress(), portaPrimario);
+        this.atrasoMaximoMs = atrasoMaximoMs;
+        this.arquivoPosicao = Paths.get(arquivoLocal + SUFIXO_POSICAO);
+        lerPosicao();
+        this.receptor = new Thread(this::seguirPrimario, "replica-leitura-" + portaPrimario);
+        this.receptor.setDaemon(true);
+        this.receptor.start();
+    }
+
+    // Leituras, com o atraso verificado
+
+    @Override
+    public Optional<Perfume> buscar(int id) throws IOException, InterruptedException {
+        verificarAtraso();
+        return copia.buscar(id);
+    }
+
+    @Override
+    public Optional<ProjecaoPerfume> buscarProjecao(int id) throws IOException, InterruptedException {
+        verificarAtraso();
+        return copia.buscarProjecao(id);
+    }
+
+    @Override
+    public CompletableFuture<Optional<Perfume>> buscarAsync(int id) {
+        try {
+            verificarAtraso();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return copia.buscarAsync(id);
+    }
+
+    @Override
+    public List<Integer> buscarTodosIds() throws IOException {
+        verificarAtraso();
+        return copia.buscarTodosIds();
+    }
+
+    @Override
+    public List<Perfume> buscarPorPadrao(String padrao) throws IOException, InterruptedException {
+        verificarAtraso();
+        return copia.buscarPorPadrao(padrao);
+    }
+
+    @Override
+    public int getRegistrosAtivos() {
+        return copia.getRegistrosAtivos();
+    }
+
+    // Sincroniza a cópia local; não espera o primário.
+    @Override
+    public void sincronizar() throws IOException {
+        copia.sincronizar();
+    }
+
+    @Override
+    public String relatorioMetricas() {
+        long atraso = getAtrasoMs();
+        return "réplica da porta " + primario.getPort() + ": sequência aplicada " + sequenciaAplicada + ", atraso "
+                + (atraso == Long.MAX_VALUE ? "indefinido (ainda não sincronizada)" : atraso + " ms")
+                + System.lineSeparator() + copia.relatorioMetricas();
+    }
+
+    // Escritas: a cópia só é alterada pelo primário
+
+    @Override
+    public int novoID() {
+        throw escritaRecusada();
+    }
+
+    @Override
+    public void criar(Perfume perfume) {
+        throw escritaRecusada();
+    }
+
+    @Override
+    public void atualizar(Perfume perfume) {
+        throw escritaRecusada();
+    }
+
+    @Override
+    public boolean atualizarSeVersao(Perfume perfume, int versaoEsperada) {
+        throw escritaRecusada();
+    }
+
+    @Override
+    public void deletar(int id) {
+        throw escritaRecusada();
+    }
+
+    @Override
+    public boolean deletarSeVersao(int id, int versaoEsperada) {
+        throw escritaRecusada();
+    }
+
+    @Override
+    public int ajustarEstoque(int id, int delta) {
+        throw escritaRecusada();
+    }
+
+    @Override
+    public void definirValor(int id, int novoValor) {
+        throw escritaRecusada();
+    }
+
+    @Override
+    public CompletableFuture<List<GerenciadorArquivos.ResultadoLote>> processarLote(List<Perfume> perfumes) {
+        return CompletableFuture.failedFuture(escritaRecusada());
+    }
+
+    @Override
+    public CompletableFuture<Integer> criarAsync(Perfume perfume) {
+        return CompletableFuture.failedFuture(escritaRecusada());
+    }
+
+    @Override
+    public CompletableFuture<Void> atualizarAsync(Perfume perfume) {
+        return CompletableFuture.failedFuture(escritaRecusada());
+    }
+
+    @Override
+    public CompletableFuture<Void> deletarAsync(int id) {
+        return CompletableFuture.failedFuture(escritaRecusada());
+    }
+
+    private static UnsupportedOperationException escritaRecusada() {
+        return new UnsupportedOperationException("Réplica de leitura: as escritas devem ser feitas no primário.");
+    }
+
+    // Tempo desde o último instante em que a réplica comprovadamente estava em dia com o primário, ou
+    // Long.MAX_VALUE se ela nunca esteve.
+    public long getAtrasoMs() {
+        long desde = emDiaDesdeNanos;
+        return desde == NUNCA ? Long.MAX_VALUE : (System.nanoTime() - desde) / 1_000_000;
+    }
+
+    public long getSequenciaAplicada() {
+        return sequenciaAplicada;
+    }
+
+    /**
+     * Espera até a réplica ter aplicado a sequência informada (por exemplo, a de
+     * ReplicacaoPrimario.getSequenciaAtual() logo após uma escrita).
+     *
+     * @return false se o tempo acabou antes.
+     */
+    public synchronized boolean aguardarSequencia(long sequencia, long esperaMs) throws InterruptedException {
+        long limite = System.nanoTime() + esperaMs * 1_000_000;
+        while (sequenciaAplicada < sequencia || emCarga || emDiaDesdeNanos == NUNCA) {
+            long restanteMs = (limite - System.nanoTime()) / 1_000_000;
+            if (restanteMs <= 0) {
+                return false;
+            }
+            wait(restanteMs);
+        }
+        return true;
+    }
+
+    private void verificarAtraso() throws IOException {
+        long atraso = getAtrasoMs();
+        if (atraso > atrasoMaximoMs) {
+            throw new ReplicaDesatualizadaException("Réplica desatualizada: "
+                    + (atraso == Long.MAX_VALUE ? "ainda não sincronizada" : atraso + " ms")
+                    + " de atraso (máximo " + atrasoMaximoMs + " ms).");
+        }
+    }
+
+    // Recebimento
+
+    private void seguirPrimario() {
+        long espera = ESPERA_RECONEXAO_MINIMA_MS;
+        while (ativo) {
+            try (Socket socket = new Socket()) {
+                conexao = socket;
+                socket.connect(primario, TEMPO_CONEXAO_MS);
+                socket.setTcpNoDelay(true);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(ReplicacaoPrimario.MAGIC);
+                out.writeLong(epoca);
+                out.writeLong(sequenciaAplicada);
+                out.flush();
+                espera = ESPERA_RECONEXAO_MINIMA_MS;
+                receber(in);
+            } catch (IOException e) {
+                if (ativo) {
+                    System.err.println("Réplica: conexão com o primário perdida: " + e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                conexao = null;
+            }
+            if (ativo) {
+                try {
+                    Thread.sleep(espera);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                espera = Math.min(ESPERA_RECONEXAO_MAXIMA_MS, espera * 2);
+            }
+        }
+    }
+
+    private void receber(DataInputStream in) throws IOException, InterruptedException {
+        Set<Integer> idsDaCarga = null;
+        long epocaDaCarga = 0;
+        while (ativo) {
+            byte tipo = in.readByte();
+            switch (tipo) {
+                case ReplicacaoPrimario.TIPO_ALTERACAO: {
+                    long sequencia = in.readLong();
+                    int id = in.readInt();
+                    copia.aplicarReplicado(id, lerRegistro(in), true);
+                    sequenciaAplicada = sequencia;
+                    break;
+                }
+                case ReplicacaoPrimario.TIPO_INICIO_CARGA:
+                    epocaDaCarga = in.readLong();
+                    idsDaCarga = new HashSet<>();
+                    emCarga = true;
+                    break;
+                case ReplicacaoPrimario.TIPO_REGISTRO: {
+                    if (idsDaCarga == null) {
+                        throw new IOException("Registro de carga fora de uma carga completa.");
+                    }
+                    int id = in.readInt();
+                    copia.aplicarReplicado(id, lerRegistro(in), false);
+                    idsDaCarga.add(id);
+                    break;
+                }
+                case ReplicacaoPrimario.TIPO_FIM_CARGA: {
+                    if (idsDaCarga == null) {
+                        throw new IOException("Fim de carga sem início.");
+                    }
+                    long sequencia = in.readLong();
+                    // O que a cópia tem e o primário não foi removido enquanto a réplica estava fora
+                    for (int id : copia.buscarTodosIds()) {
+                        if (!idsDaCarga.contains(id)) {
+                            removerDaCopia(id);
+                        }
+                    }
+                    idsDaCarga = null;
+                    epoca = epocaDaCarga;
+                    sequenciaAplicada = sequencia;
+                    emCarga = false;
+                    persistirPosicao(true);
+                    break;
+                }
+                case ReplicacaoPrimario.TIPO_PULSO: {
+                    long cabeca = in.readLong();
+                    long idadeMs = Math.max(0, System.currentTimeMillis() - in.readLong());
+                    if (!emCarga) {
+                        if (sequenciaAplicada >= cabeca) {
+                            emDiaDesdeNanos = System.nanoTime() - idadeMs * 1_000_000;
+                        }
+                        persistirPosicao(false);
+                    }
+                    synchronized (this) {
+                        notifyAll();
+                    }
+                    break;
+                }
+                default:
+                    throw new IOException("Mensagem de replicação desconhecida: " + tipo);
+            }
+        }
+    }
+
+    private static byte[] lerRegistro(DataInputStream in) throws IOException {
+        int tamanho = in.readInt();
+        if (tamanho != Perfume.RECORD_SIZE) {
+            throw new IOException("Tamanho de registro replicado inválido: " + tamanho);
+        }
+        byte[] registro = new byte[tamanho];
+        in.readFully(registro);
+        return registro;
+    }
+
+    private void removerDaCopia(int id) throws IOException {
+        try {
+            copia.deletar(id);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Falha ao remover da réplica o perfume " + id + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Posição em disco
+
+    private void lerPosicao() throws IOException {
+        if (!Files.exists(arquivoPosicao)) {
+            return;
+        }
+        ByteBuffer posicao = ByteBuffer.wrap(Files.readAllBytes(arquivoPosicao));
+        if (posicao.remaining() == 2 * Long.BYTES) {
+            epoca = posicao.getLong();
+            sequenciaAplicada = posicao.getLong();
+        }
+    }
+
+    // Sincroniza a cópia e só então grava a posição, que nunca pode estar à frente do que está em disco.
+    private void persistirPosicao(boolean forcar) throws IOException {
+        long agora = System.currentTimeMillis();
+        if (!forcar && agora - ultimaPersistenciaMs < INTERVALO_PERSISTENCIA_MS) {
+            return;
+        }
+        copia.sincronizar();
+        ByteBuffer posicao = ByteBuffer.allocate(2 * Long.BYTES);
+        posicao.putLong(epoca);
+        posicao.putLong(sequenciaAplicada);
+        Path temporario = arquivoPosicao.resolveSibling(arquivoPosicao.getFileName() + ".tmp");
+        Files.write(temporario, posicao.array());
+        Files.move(temporario, arquivoPosicao, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ultimaPersistenciaMs = agora;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ativo = false;
+        Socket socket = conexao;
+        if (socket != null) {
+            socket.close();
+        }
+        try {
+            receptor.join(TEMPO_CONEXAO_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!emCarga) {
+            persistirPosicao(true);
+        }
+        copia.close();
+    }
+}
@@ -0,0 +1,195 @@
+package Services;
+
+import Models.ProjecaoPerfume;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Lado primário da replicação: aceita seguidores (ReplicaLeitura) num socket da interface de loopback
+// e envia a cada um, em ordem, as alterações confirmadas no GerenciadorArquivos (ver LogReplicacao).
+// Cada seguidor é atendido por uma thread própria; um seguidor lento não atrasa as escritas, só fica
+// mais atrás no log, e se sair do anel recebe uma carga completa.
+//
+// Mensagens do seguidor ao conectar: [int MAGIC][long época][long última sequência aplicada]. O
+// primário responde com um fluxo de:
+//   TIPO_ALTERACAO    [long sequência][int id][int tamanho][registro]
+//   TIPO_INICIO_CARGA [long época]  seguido de TIPO_REGISTRO [int id][int tamanho][registro] ...
+//   TIPO_FIM_CARGA    [long sequência]  a carga reflete o primário até essa sequência
+//   TIPO_PULSO        [long cabeça][long instante]  última sequência do log no início da remessa e o
+//                                       instante da leitura (currentTimeMillis); enviado após cada remessa
+//                                       e a cada INTERVALO_PULSO_MS sem alterações. O seguidor que já
+//                                       aplicou a cabeça estava em dia naquele instante, por mais que o
+//                                       pulso tenha esperado nos buffers do socket. Primário e seguidor
+//                                       estão na mesma máquina (loopback), então o relógio é o mesmo
+// A época é sorteada a cada execução do primário: como o log fica em memória, um seguidor de outra
+// época não tem como continuar de onde parou e recebe uma carga completa.
+public class ReplicacaoPrimario implements AutoCloseable {
+
+    public static final String PROPRIEDADE_PORTA = "perfumes.replicacao.porta";
+    public static final int CAPACIDADE_LOG_PADRAO = 16384;
+    static final int MAGIC = 0x5052504C; // "PRPL"
+    static final byte TIPO_ALTERACAO = 1;
+    static final byte TIPO_INICIO_CARGA = 2;
+    static final byte TIPO_REGISTRO = 3;
+    static final byte TIPO_FIM_CARGA = 4;
+    static final byte TIPO_PULSO = 5;
+    static final long INTERVALO_PULSO_MS = 100;
+    private static final int MAX_ALTERACOES_POR_REMESSA = 512;
+
+    private final GerenciadorArquivos gerenciador;
+    private final LogReplicacao log;
+    private final long epoca;
+    private final ServerSocket servidor;
+    private final Set<Socket> seguidores = ConcurrentHashMap.newKeySet();
+    private volatile boolean ativo = true;
+
+    public ReplicacaoPrimario(GerenciadorArquivos gerenciador, int porta) throws IOException {
+        this(gerenciador, porta, CAPACIDADE_LOG_PADRAO);
+    }
+
+    /**
+     * Passa a publicar as alterações do gerenciador e abre a porta para os seguidores.
+     *
+     * @param porta        Porta na interface de loopback; 0 escolhe uma livre (ver getPorta()).
+     * @param capacidadeLog Alterações mantidas em memória para seguidores que se reconectam.
+     */
+    public ReplicacaoPrimario(GerenciadorArquivos gerenciador, int porta, int capacidadeLog) throws IOException {
+        this.gerenciador = gerenciador;
+        this.log = gerenciador.ativarReplicacao(capacidadeLog);
+        long sorteada;
+        do {
+            sorteada = ThreadLocalRandom.current().nextLong();
+        } while (sorteada == 0); // 0 é a época de um seguidor que nunca sincronizou
+        this.epoca = sorteada;
+        this.servidor = new ServerSocket(porta, 50, InetAddress.getLoopbackAddress());
+        Thread aceitacao = new Thread(this::aceitarSeguidores, "replicacao-primario-" + getPorta());
+        aceitacao.setDaemon(true);
+        aceitacao.start();
+    }
+
+    public int getPorta() {
+        return servidor.getLocalPort();
+    }
+
+    // Sequência da última alteração publicada; um seguidor com essa sequência aplicada está em dia.
+    public long getSequenciaAtual() {
+        return log.getUltimaSequencia();
+    }
+
+    public int getSeguidoresConectados() {
+        return seguidores.size();
+    }
+
+    private void aceitarSeguidores() {
+        while (ativo) {
+            try {
+                Socket socket = servidor.accept();
+                seguidores.add(socket);
+                Thread atendimento = new Thread(() -> atenderSeguidor(socket), "replicacao-seguidor-" + socket.getPort());
+                atendimento.setDaemon(true);
+                atendimento.start();
+            } catch (IOException e) {
+                if (ativo) {
+                    System.err.println("Replicação: erro ao aceitar seguidor: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void atenderSeguidor(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setTcpNoDelay(true);
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Protocolo de replicação desconhecido.");
+            }
+            long epocaSeguidor = in.readLong();
+            long enviada = in.readLong();
+            if (epocaSeguidor != epoca || enviada > log.getUltimaSequencia()) {
+                enviada = enviarCargaCompleta(out);
+            }
+            while (ativo) {
+                // Lida antes da remessa: um seguidor com muitas alterações a receber recebe uma cabeça
+                // à frente do que já aplicou, e só é considerado em dia quando alcançá-la
+                long cabeca = log.getUltimaSequencia();
+                long instanteCabeca = System.currentTimeMillis();
+                List<LogReplicacao.Alteracao> alteracoes = log.lerApos(enviada, MAX_ALTERACOES_POR_REMESSA, INTERVALO_PULSO_MS);
+                if (alteracoes == null) {
+                    // O seguidor ficou mais atrás do que o log guarda
+                    enviada = enviarCargaCompleta(out);
+                    continue;
+                }
+                for (LogReplicacao.Alteracao alteracao : alteracoes) {
+                    out.writeByte(TIPO_ALTERACAO);
+                    out.writeLong(alteracao.sequencia);
+                    out.writeInt(alteracao.id);
+                    out.writeInt(alteracao.registro.length);
+                    out.write(alteracao.registro);
+                    enviada = alteracao.sequencia;
+                }
+                out.writeByte(TIPO_PULSO);
+                out.writeLong(cabeca);
+                out.writeLong(instanteCabeca);
+                out.flush();
+            }
+        } catch (IOException e) {
+            if (ativo) {
+                System.err.println("Replicação: seguidor desconectado: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            seguidores.remove(socket);
+        }
+    }
+
+    // Envia todos os registros ativos de um snapshot. A sequência é lida antes da abertura do snapshot:
+    // toda alteração até ela foi publicada depois de confirmada, então já aparece no snapshot, e as
+    // seguintes vêm depois pelo log (reaplicá-las é inofensivo).
+    private long enviarCargaCompleta(DataOutputStream out) throws IOException {
+        long sequencia = log.getUltimaSequencia();
+        out.writeByte(TIPO_INICIO_CARGA);
+        out.writeLong(epoca);
+        try (SnapshotLeitura snapshot = gerenciador.abrirSnapshot()) {
+            for (int id : gerenciador.idsNoSnapshot(snapshot)) {
+                byte[] registro = gerenciador.lerRegistroNoSnapshot(id, snapshot);
+                ProjecaoPerfume projecao = registro == null ? null : ProjecaoPerfume.fromByteArray(registro);
+                if (projecao == null || projecao.getId() != id || !projecao.isAtivo()) {
+                    continue;
+                }
+                out.writeByte(TIPO_REGISTRO);
+                out.writeInt(id);
+                out.writeInt(registro.length);
+                out.write(registro);
+            }
+        }
+        out.writeByte(TIPO_FIM_CARGA);
+        out.writeLong(sequencia);
+        out.flush();
+        return sequencia;
+    }
+
+    // Fecha a porta e desconecta os seguidores; o gerenciador continua funcionando normalmente.
+    @Override
+    public void close() throws IOException {
+        ativo = false;
+        servidor.close();
+        for (Socket socket : seguidores) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Já desconectado
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package Services;
+
+// Visão consistente do arquivo no instante da abertura (ver GerenciadorArquivos.abrirSnapshot()).
+// Enquanto aberto, as versões dos registros alterados depois dele são retidas em memória, então deve
+// ser fechado ao fim da leitura, de preferência com try-with-resources.
+public final class SnapshotLeitura implements AutoCloseable {
+
+    private final VersoesRegistros versoes;
+    private final long marca;
+    private boolean fechado = false;
+
+    SnapshotLeitura(VersoesRegistros versoes, long marca) {
+        this.versoes = versoes;
+        this.marca = marca;
+    }
+
+    public long getMarca() {
+        return marca;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!fechado) {
+            fechado = true;
+            versoes.fecharSnapshot(marca);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotLeitura[marca=" + marca + (fechado ? ", fechado" : "") + "]";
+    }
+}
@@ -0,0 +1,74 @@
+package Services;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.StampedLock;
+
+// Latches dos registros, indexados pelo ID. Um lock por registro custaria memória proporcional ao
+// arquivo; aqui uma tabela fixa de StampedLocks é compartilhada, e IDs consecutivos (os mais
+// disputados, já que novoID() é sequencial) sempre caem em latches diferentes. O StampedLock permite
+// leituras otimistas: o leitor não escreve nada no lock, só confere depois se houve escrita.
+class TabelaLatches {
+
+    private static final int QUANTIDADE_PADRAO = 1024;
+
+    private final StampedLock[] latches;
+    private final int mascara;
+
+    TabelaLatches() {
+        this(QUANTIDADE_PADRAO);
+    }
+
+    // A quantidade é arredondada para a potência de dois seguinte, para indexar com uma máscara.
+    TabelaLatches(int quantidade) {
+        if (quantidade <= 0) {
+            throw new IllegalArgumentException("A quantidade de latches deve ser positiva.");
+        }
+        int tamanho = Integer.highestOneBit(quantidade);
+        if (tamanho < quantidade) {
+            tamanho <<= 1;
+        }
+        this.latches = new StampedLock[tamanho];
+        for (int i = 0; i < tamanho; i++) {
+            latches[i] = new StampedLock();
+        }
+        this.mascara = tamanho - 1;
+    }
+
+    StampedLock doRegistro(int id) {
+        return latches[id & mascara];
+    }
+
+    /**
+     * Trava para escrita os latches de vários IDs de uma vez. Cada latch é travado uma única vez (o
+     * StampedLock não é reentrante e IDs diferentes podem compartilhar um latch) e sempre em ordem
+     * crescente de índice, para que dois lotes concorrentes não se bloqueiem mutuamente.
+     */
+    LatchesTravados travarEscrita(int[] ids, int quantidade) {
+        int[] indices = new int[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            indices[i] = ids[i] & mascara;
+        }
+        indices = Arrays.stream(indices).sorted().distinct().toArray();
+        long[] stamps = new long[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            stamps[i] = latches[indices[i]].writeLock();
+        }
+        return new LatchesTravados(indices, stamps);
+    }
+
+    final class LatchesTravados {
+        private final int[] indices;
+        private final long[] stamps;
+
+        private LatchesTravados(int[] indices, long[] stamps) {
+            this.indices = indices;
+            this.stamps = stamps;
+        }
+
+        void liberar() {
+            for (int i = indices.length - 1; i >= 0; i--) {
+                latches[indices[i]].unlockWrite(stamps[i]);
+            }
+        }
+    }
+}
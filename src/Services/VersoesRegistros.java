@@ -0,0 +1,156 @@
+package Services;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Versões anteriores dos registros, para leituras em snapshot (MVCC). O arquivo guarda só a versão
+// atual de cada registro; antes de alterá-lo, o escritor guarda aqui os bytes da versão que está
+// substituindo, com a marca de tempo em que a substituição foi confirmada. Um snapshot é apenas uma
+// marca de tempo: para ele, a versão visível de um registro é a atual, a não ser que exista uma versão
+// anterior substituída depois do seu início — nesse caso, a mais antiga delas.
+//
+// Escritores nunca esperam por leitores: guardar a versão anterior custa uma cópia em memória, e as
+// versões só ficam retidas enquanto algum snapshot aberto antes da substituição ainda precisar delas.
+class VersoesRegistros {
+
+    private static final long PENDENTE = Long.MAX_VALUE; // Substituição ainda não confirmada
+
+    private final AtomicLong relogio = new AtomicLong(0);
+    private final Map<Integer, ArrayDeque<Versao>> cadeias = new ConcurrentHashMap<>();
+    private final TreeMap<Long, Integer> snapshotsAbertos = new TreeMap<>(); // marca -> quantidade; guardado por this
+
+    // Versão anterior de um registro. 'dados' null significa que o registro ainda não existia.
+    static final class Versao {
+        final byte[] dados;
+        volatile long substituidaEm = PENDENTE;
+
+        private Versao(byte[] dados) {
+            this.dados = dados;
+        }
+    }
+
+    /**
+     * Guarda a versão atual do registro antes de uma alteração. Deve ser chamado com o latch de escrita
+     * do registro, antes de gravar a nova versão, e seguido de confirmar() no mesmo latch.
+     *
+     * @param dadosAtuais Bytes da versão que será substituída, ou null se o registro está sendo criado.
+     */
+    Versao registrar(int id, byte[] dadosAtuais) {
+        Versao versao = new Versao(dadosAtuais);
+        cadeias.compute(id, (chave, cadeia) -> {
+            if (cadeia == null) {
+                cadeia = new ArrayDeque<>(2);
+            }
+            synchronized (cadeia) {
+                cadeia.addLast(versao);
+            }
+            return cadeia;
+        });
+        return versao;
+    }
+
+    // Marca a substituição como confirmada. Chamado mesmo se a escrita falhou: a versão atual passa a
+    // ser a que estiver no arquivo, e a anterior continua disponível para os snapshots mais antigos.
+    void confirmar(int id, Versao versao) {
+        versao.substituidaEm = relogio.incrementAndGet();
+        podar(id, limiteColeta());
+    }
+
+    SnapshotLeitura abrirSnapshot() {
+        synchronized (this) {
+            long marca = relogio.get();
+            snapshotsAbertos.merge(marca, 1, Integer::sum);
+            return new SnapshotLeitura(this, marca);
+        }
+    }
+
+    void fecharSnapshot(long marca) {
+        synchronized (this) {
+            snapshotsAbertos.computeIfPresent(marca, (m, quantidade) -> quantidade == 1 ? null : quantidade - 1);
+        }
+        coletar();
+    }
+
+    /**
+     * Resolve a versão do registro visível na marca do snapshot.
+     *
+     * @param dadosAtuais Versão atual, lida do arquivo antes desta chamada (null se o ID não está no índice).
+     * @return Os bytes visíveis, ou null se o registro não existia no snapshot.
+     */
+    byte[] resolver(int id, byte[] dadosAtuais, long marca) {
+        ArrayDeque<Versao> cadeia = cadeias.get(id);
+        if (cadeia == null) {
+            return dadosAtuais;
+        }
+        synchronized (cadeia) {
+            // A cadeia vai da mais antiga à mais recente; a primeira substituída após a marca é a visível
+            for (Versao versao : cadeia) {
+                if (versao.substituidaEm > marca) {
+                    return versao.dados;
+                }
+            }
+        }
+        return dadosAtuais;
+    }
+
+    // IDs alterados depois da marca. Uma varredura precisa incluí-los além dos IDs do índice, já que
+    // um registro removido após o início do snapshot não está mais no índice, mas ainda é visível nele.
+    Set<Integer> idsAlteradosApos(long marca) {
+        Set<Integer> ids = new TreeSet<>();
+        for (Map.Entry<Integer, ArrayDeque<Versao>> entrada : cadeias.entrySet()) {
+            ArrayDeque<Versao> cadeia = entrada.getValue();
+            synchronized (cadeia) {
+                Versao ultima = cadeia.peekLast();
+                if (ultima != null && ultima.substituidaEm > marca) {
+                    ids.add(entrada.getKey());
+                }
+            }
+        }
+        return ids;
+    }
+
+    int getVersoesRetidas() {
+        int total = 0;
+        for (ArrayDeque<Versao> cadeia : cadeias.values()) {
+            synchronized (cadeia) {
+                total += cadeia.size();
+            }
+        }
+        return total;
+    }
+
+    // Versões substituídas até o limite não são visíveis para nenhum snapshot aberto. Lido sob o mesmo
+    // monitor da abertura, para que um snapshot não comece com uma marca abaixo do limite já calculado.
+    private synchronized long limiteColeta() {
+        long agora = relogio.get();
+        return snapshotsAbertos.isEmpty() ? agora : Math.min(agora, snapshotsAbertos.firstKey());
+    }
+
+    private void coletar() {
+        if (cadeias.isEmpty()) {
+            return;
+        }
+        long limite = limiteColeta();
+        for (Integer id : cadeias.keySet()) {
+            podar(id, limite);
+        }
+    }
+
+    private void podar(int id, long limite) {
+        cadeias.computeIfPresent(id, (chave, cadeia) -> {
+            synchronized (cadeia) {
+                Iterator<Versao> it = cadeia.iterator();
+                while (it.hasNext() && it.next().substituidaEm <= limite) {
+                    it.remove();
+                }
+                return cadeia.isEmpty() ? null : cadeia;
+            }
+        });
+    }
+}
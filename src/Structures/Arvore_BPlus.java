@@ -1,10 +1,14 @@
 package Structures;
 
 import java.util.*;
+import java.util.concurrent.locks.StampedLock;
 
+// Acesso concorrente: alterações tomam o lock de escrita; buscar() é otimista e não toma lock nenhum
+// quando não há escrita em andamento, então leituras não disputam umas com as outras.
 public class Arvore_BPlus {
     private No raiz;
     private int ordem;
+    private final StampedLock lock = new StampedLock();
 
     public Arvore_BPlus(int ordem) {
         if (ordem < 2) {
@@ -14,7 +18,38 @@ public class Arvore_BPlus {
         this.raiz = new No(ordem, true);
     }
 
+    // Insere vários pares de uma vez, adquirindo o lock de escrita uma única vez para todo o lote.
+    // Nada é inserido se algum ID já estiver na árvore ou se repetir no lote.
+    public void inserirTodos(int[] ids, long[] posicoes, int quantidade) {
+        long stamp = lock.writeLock();
+        try {
+            Set<Integer> vistos = new HashSet<>();
+            for (int i = 0; i < quantidade; i++) {
+                if (ids[i] <= 0) {
+                    throw new IllegalArgumentException("ID deve ser um número positivo.");
+                }
+                if (!vistos.add(ids[i]) || buscarSemLock(ids[i]) != -1) {
+                    throw new IllegalArgumentException("ID duplicado na inserção em lote: " + ids[i]);
+                }
+            }
+            for (int i = 0; i < quantidade; i++) {
+                inserirSemLock(ids[i], posicoes[i]);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
     public void inserir(int id, long posicao) {
+        long stamp = lock.writeLock();
+        try {
+            inserirSemLock(id, posicao);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void inserirSemLock(int id, long posicao) {
         if (id <= 0) {
             throw new IllegalArgumentException("ID deve ser um número positivo.");
         }
@@ -27,8 +62,9 @@ public class Arvore_BPlus {
             
             No novoIrmao = new No(ordem, raiz.isFolha);
             
+            // Numa folha, a chave promovida também fica no novo irmão: só as folhas guardam posições
             int j = 0;
-            for (int i = (ordem - 1) / 2 + 1; i < ordem - 1; i++) {
+            for (int i = (ordem - 1) / 2 + (raiz.isFolha ? 0 : 1); i < ordem - 1; i++) {
                 novoIrmao.chaves[j] = raiz.chaves[i];
                 novoIrmao.valores[j] = raiz.valores[i];
                 j++;
@@ -82,7 +118,7 @@ public class Arvore_BPlus {
                 No novoFilho = new No(ordem, filho.isFolha);
                 
                 int k = 0;
-                for (int m = (ordem - 1) / 2 + 1; m < ordem - 1; m++) {
+                for (int m = (ordem - 1) / 2 + (filho.isFolha ? 0 : 1); m < ordem - 1; m++) {
                     novoFilho.chaves[k] = filho.chaves[m];
                     novoFilho.valores[k] = filho.valores[m];
                     k++;
@@ -123,7 +159,32 @@ public class Arvore_BPlus {
         }
     }
 
+    /**
+     * Busca otimista: percorre a árvore sem lock e só no fim confirma que nenhuma escrita começou no
+     * meio. Se alguma começou, ou se o percurso esbarrou num nó sendo dividido, repete com o lock de
+     * leitura, que só espera as escritas.
+     */
     public long buscar(int id) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                long posicao = buscarSemLock(id);
+                if (lock.validate(stamp)) {
+                    return posicao;
+                }
+            } catch (RuntimeException e) {
+                // Nó lido no meio de uma alteração; repete com o lock
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            return buscarSemLock(id);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private long buscarSemLock(int id) {
         No atual = raiz;
         while (!atual.isFolha) {
             int i = 0;
@@ -146,44 +207,81 @@ public class Arvore_BPlus {
     }
 
     public void atualizarPosicao(int id, long novaPosicao) {
-        No atual = raiz;
-        while (!atual.isFolha) {
-            int i = 0;
-            while (i < atual.numEntradas && id >= atual.chaves[i]) {
-                i++;
+        long stamp = lock.writeLock();
+        try {
+            No atual = buscarFolhaParaInsercao(raiz, id);
+            for (int i = 0; i < atual.numEntradas; i++) {
+                if (atual.chaves[i] == id) {
+                    atual.valores[i] = novaPosicao;
+                    return;
+                }
             }
-            atual = atual.filhos[i];
+        } finally {
+            lock.unlockWrite(stamp);
         }
+        System.err.println("Aviso: ID " + id + " não encontrado na árvore para atualização de posição.");
+    }
 
-        for (int i = 0; i < atual.numEntradas; i++) {
-            if (atual.chaves[i] == id) {
-                atual.valores[i] = novaPosicao;
-                return;
+    // Troca a posição do ID somente se ela ainda for a esperada (compare-and-set),
+    // para que a compactação não sobrescreva uma alteração concorrente.
+    public boolean atualizarPosicaoSe(int id, long posicaoEsperada, long novaPosicao) {
+        long stamp = lock.writeLock();
+        try {
+            No folha = buscarFolhaParaInsercao(raiz, id);
+            for (int i = 0; i < folha.numEntradas; i++) {
+                if (folha.chaves[i] == id) {
+                    if (folha.valores[i] != posicaoEsperada) {
+                        return false;
+                    }
+                    folha.valores[i] = novaPosicao;
+                    return true;
+                }
             }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        System.err.println("Aviso: ID " + id + " não encontrado na árvore para atualização de posição.");
     }
 
     public boolean remover(int id) {
-        No folha = buscarFolhaParaInsercao(raiz, id);
-        for (int i = 0; i < folha.numEntradas; i++) {
-            if (folha.chaves[i] == id) {
-                for (int j = i; j < folha.numEntradas - 1; j++) {
-                    folha.chaves[j] = folha.chaves[j + 1];
-                    folha.valores[j] = folha.valores[j + 1];
+        long stamp = lock.writeLock();
+        try {
+            No folha = buscarFolhaParaInsercao(raiz, id);
+            for (int i = 0; i < folha.numEntradas; i++) {
+                if (folha.chaves[i] == id) {
+                    for (int j = i; j < folha.numEntradas - 1; j++) {
+                        folha.chaves[j] = folha.chaves[j + 1];
+                        folha.valores[j] = folha.valores[j + 1];
+                    }
+                    folha.numEntradas--;
+                    return true;
                 }
-                folha.numEntradas--;
-                return true;
             }
+            return false;
+        } finally {
+            lock.unlockWrite(stamp);
         }
-        return false;
     }
 
     public void limpar() {
-        this.raiz = new No(ordem, true);
+        long stamp = lock.writeLock();
+        try {
+            this.raiz = new No(ordem, true);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
     }
 
     public List<Integer> buscarTodosIds() {
+        long stamp = lock.readLock();
+        try {
+            return buscarTodosIdsSemLock();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private List<Integer> buscarTodosIdsSemLock() {
         List<Integer> ids = new ArrayList<>();
         Stack<No> stack = new Stack<>();
         stack.push(raiz);
@@ -226,7 +324,7 @@ public class Arvore_BPlus {
         int chavePromovida = filho.chaves[(ordem - 1) / 2];
         
         int j = 0;
-        for (int i = (ordem - 1) / 2 + 1; i < ordem - 1; i++) {
+        for (int i = (ordem - 1) / 2 + (filho.isFolha ? 0 : 1); i < ordem - 1; i++) {
             novoFilho.chaves[j] = filho.chaves[i];
             novoFilho.valores[j] = filho.valores[i];
             j++;
@@ -1,19 +1,59 @@
 package Structures;
 
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional; // Usar Optional para retornos que podem ser nulos
+import java.util.TreeMap;
+import java.util.TreeSet;
 
+// Os blocos livres ficam indexados duas vezes: por offset, para juntar vizinhos ao liberar, e por
+// tamanho, para a alocação "best fit". Ambas as operações custam O(log n), não importa quantos
+// blocos livres existam, e blocos adjacentes nunca ficam separados.
+//
+// Persistência: um snapshot da lista (arquivo .freelist) mais um log append-only (.freelist.log) com
+// cada liberação e alocação desde o snapshot. Cada alteração grava só uma entrada de tamanho fixo no
+// log; quando o log fica grande em relação à lista, um novo snapshot é gravado e o log recomeça.
 public class GerenciadorEspaco implements AutoCloseable { // Implementa AutoCloseable
 
+    // Menor sobra que uma divisão pode deixar: precisa caber o marcador de espaço livre (um int)
+    public static final int TAMANHO_MINIMO_SOBRA = Integer.BYTES;
+
+    // Formato do snapshot: [magic][long geração][int quantidade] e, por bloco, [long offset][int tamanho].
+    // O log começa com [magic][long geração] e só é reaplicado se a geração for a do snapshot.
+    private static final int MAGIC_SNAPSHOT = 0x50464C53; // "PFLS"
+    private static final int MAGIC_LOG = 0x50464C4C;      // "PFLL"
+    private static final int TAMANHO_CABECALHO_LOG = Integer.BYTES + Long.BYTES;
+    private static final int TAMANHO_ENTRADA_LOG = 1 + Long.BYTES + Integer.BYTES;
+    private static final byte LOG_LIVRE = 1;
+    private static final byte LOG_ALOCADO = 2;
+    private static final int MIN_ENTRADAS_ANTES_DO_SNAPSHOT = 4096;
+    // Mensagens DEBUG a cada bloco liberado, alocado ou dividido. Ficam no caminho de criar e deletar,
+    // dentro do monitor, então só são impressas com -Dperfumes.espaco.depuracao=true.
+    private static final boolean DEPURACAO = Boolean.getBoolean("perfumes.espaco.depuracao");
+
     // --- Classe interna para representar um bloco de espaço livre ---
     public static class FreeBlock implements Serializable {
         private static final long serialVersionUID = 1L;
@@ -33,15 +73,40 @@ public class GerenciadorEspaco implements AutoCloseable { // Implementa AutoClos
             return size;
         }
 
+        public long getFim() {
+            return offset + size;
+        }
+
         @Override
         public String toString() {
             return "FreeBlock [offset=" + offset + ", size=" + size + "]";
         }
     }
 
+    /**
+     * Avisado quando uma divisão de bloco cria um bloco livre que começa no meio de um registro antigo,
+     * onde não há cabeçalho válido. Quem usa o gerenciador grava ali um marcador de espaço livre, para
+     * que o arquivo de dados continue podendo ser percorrido registro a registro. É chamado com o lock do
+     * gerenciador, antes que o bloco possa ser alocado por outra thread.
+     */
+    public interface MarcadorEspacoLivre {
+        void marcar(long offset, int size) throws IOException;
+    }
+
+    private static final Comparator<FreeBlock> POR_TAMANHO =
+            Comparator.comparingInt(FreeBlock::getSize).thenComparingLong(FreeBlock::getOffset);
+
     // --- Propriedades do Gerenciador de Espaço ---
-    private List<FreeBlock> freeBlocks;
+    private final TreeMap<Long, FreeBlock> blocosPorOffset = new TreeMap<>();
+    private final TreeSet<FreeBlock> blocosPorTamanho = new TreeSet<>(POR_TAMANHO);
+    private long totalBytesLivres = 0;
+    private MarcadorEspacoLivre marcador;
     private final String freeListFilePath;
+    private final Path caminhoLog;
+    private FileChannel log;
+    private long geracao = 0;
+    private int entradasNoLog = 0;
+    private final ByteBuffer bufferEntrada = ByteBuffer.allocate(TAMANHO_ENTRADA_LOG);
     private final long dataStartOffset; // Novo campo: o offset inicial onde os dados começam (após o cabeçalho)
 
     // --- Construtor ---
@@ -49,14 +114,18 @@ public class GerenciadorEspaco implements AutoCloseable { // Implementa AutoClos
     public GerenciadorEspaco(String freeListFilePath, long dataStartOffset) {
         this.freeListFilePath = Objects.requireNonNull(freeListFilePath, "O caminho do arquivo de lista livre não pode ser nulo.");
         this.dataStartOffset = dataStartOffset; // Inicializa o offset de início dos dados
-        this.freeBlocks = new ArrayList<>(); // Inicializa a lista antes de carregar
+        this.caminhoLog = Paths.get(freeListFilePath + ".log");
         carregarListaLivre(); // Tenta carregar a lista ao iniciar
+        abrirLog();
         System.out.println("GerenciadorEspaco: Inicializado. Offset de dados começando em: " + dataStartOffset);
     }
 
+    public synchronized void setMarcadorEspacoLivre(MarcadorEspacoLivre marcador) {
+        this.marcador = marcador;
+    }
+
     /**
-     * Adiciona um novo bloco de espaço livre à lista.
-     * Os blocos são mantidos ordenados por offset.
+     * Adiciona um novo bloco de espaço livre, juntando-o aos blocos vizinhos (ou sobrepostos).
      * Há uma verificação para garantir que o bloco não se sobreponha ao cabeçalho.
      *
      * @param offset Offset do espaço livre.
@@ -68,114 +137,440 @@ public class GerenciadorEspaco implements AutoCloseable { // Implementa AutoClos
             System.err.println("AVISO: GerenciadorEspaco: Tentativa de adicionar bloco livre no espaço do cabeçalho (" + offset + "). Ignorado.");
             return;
         }
+        if (size <= 0) {
+            return;
+        }
 
-        FreeBlock newBlock = new FreeBlock(offset, size);
+        FreeBlock newBlock = inserirJuntando(offset, offset + size);
+        registrarNoLog(LOG_LIVRE, offset, size); // Persiste só a alteração
+        if (DEPURACAO) {
+            System.out.println("DEBUG: GerenciadorEspaco: Bloco livre adicionado: " + new FreeBlock(offset, size) + " -> " + newBlock);
+        }
+    }
 
-        // Encontra a posição correta para manter a lista ordenada por offset
-        int i = 0;
-        while (i < freeBlocks.size() && freeBlocks.get(i).getOffset() < offset) {
-            i++;
+    // Insere [inicio, fim) juntando com qualquer bloco que encoste ou se sobreponha. Adicionar de novo um
+    // trecho já livre não altera nada, o que torna a recuperação (que reencontra blocos já persistidos)
+    // idempotente.
+    private FreeBlock inserirJuntando(long inicio, long fim) {
+        Map.Entry<Long, FreeBlock> anterior = blocosPorOffset.floorEntry(inicio);
+        if (anterior != null && anterior.getValue().getFim() >= inicio) {
+            inicio = anterior.getKey();
+            fim = Math.max(fim, anterior.getValue().getFim());
+            removerBloco(anterior.getValue());
+        }
+        Map.Entry<Long, FreeBlock> seguinte = blocosPorOffset.ceilingEntry(inicio);
+        while (seguinte != null && seguinte.getKey() <= fim) {
+            fim = Math.max(fim, seguinte.getValue().getFim());
+            removerBloco(seguinte.getValue());
+            seguinte = blocosPorOffset.ceilingEntry(inicio);
         }
-        freeBlocks.add(i, newBlock);
+        if (fim - inicio > Integer.MAX_VALUE) {
+            // Um bloco não pode passar de Integer.MAX_VALUE bytes; o resto fica como bloco separado
+            long meio = inicio + Integer.MAX_VALUE;
+            inserirBloco(new FreeBlock(meio, (int) (fim - meio)));
+            fim = meio;
+        }
+        FreeBlock bloco = new FreeBlock(inicio, (int) (fim - inicio));
+        inserirBloco(bloco);
+        return bloco;
+    }
+
+    private void inserirBloco(FreeBlock bloco) {
+        blocosPorOffset.put(bloco.getOffset(), bloco);
+        blocosPorTamanho.add(bloco);
+        totalBytesLivres += bloco.getSize();
+    }
 
-        salvarListaLivre(); // Persiste a lista atualizada
-        System.out.println("DEBUG: GerenciadorEspaco: Bloco livre adicionado: " + newBlock);
+    private void removerBloco(FreeBlock bloco) {
+        blocosPorOffset.remove(bloco.getOffset());
+        blocosPorTamanho.remove(bloco);
+        totalBytesLivres -= bloco.getSize();
     }
 
     /**
      * Procura e aloca um bloco de espaço livre que possa acomodar o tamanho necessário.
-     * Utiliza uma estratégia "first fit" (primeiro bloco que couber).
+     * Utiliza uma estratégia "best fit" (o menor bloco que couber), em O(log n). Um bloco só é dividido
+     * se a sobra couber um marcador de espaço livre; caso contrário, procura-se o próximo tamanho.
      *
      * @param requiredSize O tamanho em bytes necessário para a nova alocação.
      * @return Um {@code Optional<FreeBlock>} contendo o bloco adequado, ou vazio se nenhum bloco for encontrado.
      */
     public synchronized Optional<FreeBlock> getFreeBlock(int requiredSize) {
-        for (int i = 0; i < freeBlocks.size(); i++) {
-            FreeBlock block = freeBlocks.get(i);
-            // Certifica-se de que o bloco livre não começa antes do offset de dados (redundante se addFreeBlock for correto, mas seguro)
-            if (block.getOffset() < dataStartOffset) {
-                System.err.println("AVISO: GerenciadorEspaco: Bloco livre inválido encontrado durante busca (sobreposto ao cabeçalho): " + block + ". Removendo.");
-                freeBlocks.remove(i);
-                i--; // Ajusta o índice após a remoção
-                continue; // Tenta o próximo bloco
-            }
+        FreeBlock block = blocosPorTamanho.ceiling(new FreeBlock(Long.MIN_VALUE, requiredSize));
+        if (block != null && block.getSize() != requiredSize && block.getSize() - requiredSize < TAMANHO_MINIMO_SOBRA) {
+            block = blocosPorTamanho.ceiling(new FreeBlock(Long.MIN_VALUE, requiredSize + TAMANHO_MINIMO_SOBRA));
+        }
+        if (block == null) {
+            return Optional.empty(); // Nenhum bloco adequado encontrado
+        }
+        FreeBlock alocado = alocarDe(block, requiredSize);
+        registrarNoLog(LOG_ALOCADO, alocado.getOffset(), requiredSize); // Persiste só a alteração
+        if (DEPURACAO) {
+            System.out.println("DEBUG: GerenciadorEspaco: Bloco livre alocado: " + block.getOffset() + ", tamanho alocado: " + requiredSize);
+        }
+        return Optional.of(alocado);
+    }
 
-            if (block.getSize() >= requiredSize) {
-                // Encontrou um bloco que serve
-                freeBlocks.remove(i); // Remove o bloco completo da lista
+    /**
+     * Procura um bloco livre que acomode o tamanho necessário e que termine antes do limite informado.
+     * Usado pela compactação incremental, que só move registros em direção ao início do arquivo.
+     *
+     * @param requiredSize O tamanho em bytes necessário para a nova alocação.
+     * @param limite       Offset que o bloco alocado não pode ultrapassar.
+     * @return Um {@code Optional<FreeBlock>} contendo o bloco alocado, ou vazio se nenhum bloco servir.
+     */
+    public synchronized Optional<FreeBlock> getFreeBlockAntesDe(int requiredSize, long limite) {
+        // Percorre por offset: o primeiro bloco que servir é o mais próximo do início do arquivo
+        for (FreeBlock block : blocosPorOffset.headMap(limite - requiredSize, true).values()) {
+            int sobra = block.getSize() - requiredSize;
+            if (sobra == 0 || sobra >= TAMANHO_MINIMO_SOBRA) {
+                FreeBlock alocado = alocarDe(block, requiredSize);
+                registrarNoLog(LOG_ALOCADO, alocado.getOffset(), requiredSize);
+                return Optional.of(alocado);
+            }
+        }
+        return Optional.empty();
+    }
 
-                if (block.getSize() > requiredSize) {
-                    // Se o bloco é maior, adiciona o restante de volta à lista como um novo bloco livre
-                    FreeBlock remainingBlock = new FreeBlock(block.getOffset() + requiredSize, block.getSize() - requiredSize);
-                    addFreeBlock(remainingBlock.getOffset(), remainingBlock.getSize()); // Reutiliza addFreeBlock para manter a ordem
-                    System.out.println("DEBUG: GerenciadorEspaco: Bloco livre dividido. Novo bloco restante: " + remainingBlock);
-                }
-                salvarListaLivre(); // Persiste a lista atualizada
-                System.out.println("DEBUG: GerenciadorEspaco: Bloco livre alocado: " + block.getOffset() + ", tamanho alocado: " + requiredSize);
-                return Optional.of(new FreeBlock(block.getOffset(), requiredSize)); // Retorna o bloco original (ou apenas o offset/size alocado)
+    // Aloca o início do bloco; a sobra, se houver, volta como bloco livre e recebe um marcador no arquivo.
+    private FreeBlock alocarDe(FreeBlock block, int requiredSize) {
+        removerBloco(block);
+        if (block.getSize() > requiredSize) {
+            FreeBlock remainingBlock = new FreeBlock(block.getOffset() + requiredSize, block.getSize() - requiredSize);
+            inserirBloco(remainingBlock);
+            marcarSobra(remainingBlock);
+            if (DEPURACAO) {
+                System.out.println("DEBUG: GerenciadorEspaco: Bloco livre dividido. Novo bloco restante: " + remainingBlock);
             }
         }
-        return Optional.empty(); // Nenhum bloco adequado encontrado
+        return new FreeBlock(block.getOffset(), requiredSize);
+    }
+
+    // Retira [inicio, fim) do bloco livre que o contém, ao reaplicar uma alocação do log.
+    private void removerTrecho(long inicio, long fim) {
+        Map.Entry<Long, FreeBlock> entrada = blocosPorOffset.floorEntry(inicio);
+        if (entrada == null || entrada.getValue().getFim() < fim) {
+            System.err.println("AVISO: GerenciadorEspaco: Alocação no log fora de um bloco livre: [" + inicio + ", " + fim + "). Ignorada.");
+            return;
+        }
+        FreeBlock bloco = entrada.getValue();
+        removerBloco(bloco);
+        if (bloco.getOffset() < inicio) {
+            inserirBloco(new FreeBlock(bloco.getOffset(), (int) (inicio - bloco.getOffset())));
+        }
+        if (fim < bloco.getFim()) {
+            inserirBloco(new FreeBlock(fim, (int) (bloco.getFim() - fim)));
+        }
+    }
+
+    private void marcarSobra(FreeBlock bloco) {
+        if (marcador == null) {
+            return;
+        }
+        try {
+            marcador.marcar(bloco.getOffset(), bloco.getSize());
+        } catch (IOException e) {
+            System.err.println("ERRO: GerenciadorEspaco: Falha ao marcar espaço livre em " + bloco + ": " + e.getMessage());
+        }
     }
 
     /**
-     * Carrega a lista de espaços livres de um arquivo persistente.
-     * Blocos que se sobrepõem ao cabeçalho são ignorados durante a carga.
+     * Remove o bloco livre que termina exatamente no fim do arquivo, se existir,
+     * para que esse espaço possa ser devolvido ao sistema de arquivos.
+     *
+     * @param fimArquivo Tamanho atual do arquivo de dados.
+     * @return O bloco removido, ou vazio se o fim do arquivo estiver ocupado.
+     */
+    public synchronized Optional<FreeBlock> removerBlocoFinal(long fimArquivo) {
+        if (blocosPorOffset.isEmpty()) {
+            return Optional.empty();
+        }
+        FreeBlock ultimo = blocosPorOffset.lastEntry().getValue();
+        if (ultimo.getFim() != fimArquivo) {
+            return Optional.empty();
+        }
+        removerBloco(ultimo);
+        registrarNoLog(LOG_ALOCADO, ultimo.getOffset(), ultimo.getSize());
+        return Optional.of(ultimo);
+    }
+
+    /**
+     * Carrega o snapshot da lista de espaços livres e reaplica o log de alterações feitas depois dele.
+     * Aceita também o formato antigo (lista serializada com ObjectOutputStream), que é convertido no
+     * primeiro snapshot. Blocos que se sobrepõem ao cabeçalho são ignorados durante a carga.
      */
-    @SuppressWarnings("unchecked") // Suprime o aviso de cast de readObject
     private void carregarListaLivre() {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(freeListFilePath))) {
-            Object obj = ois.readObject();
-            if (obj instanceof List) {
-                this.freeBlocks = (List<FreeBlock>) obj;
-                // Filtrar blocos inválidos que podem ter sido persistidos no passado
-                this.freeBlocks.removeIf(block -> block.getOffset() < dataStartOffset);
-                // Re-ordenar a lista após a filtragem para garantir consistência
-                this.freeBlocks.sort((b1, b2) -> Long.compare(b1.getOffset(), b2.getOffset()));
-                System.out.println("GerenciadorEspaco: Lista de espaço livre carregada de: " + freeListFilePath + ". Total de blocos: " + freeBlocks.size());
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(freeListFilePath)))) {
+            in.mark(2);
+            int b0 = in.read();
+            int b1 = in.read();
+            in.reset();
+            if (b0 == 0xAC && b1 == 0xED) {
+                carregarFormatoAntigo(in);
             } else {
-                System.err.println("Erro: Conteúdo do arquivo da lista de espaço livre é inválido.");
-                this.freeBlocks = new ArrayList<>();
+                carregarSnapshot(new DataInputStream(in));
+                reaplicarLog();
             }
-        } catch (FileNotFoundException e) {
+            System.out.println("GerenciadorEspaco: Lista de espaço livre carregada de: " + freeListFilePath + ". Total de blocos: " + blocosPorOffset.size());
+        } catch (NoSuchFileException e) {
             System.out.println("GerenciadorEspaco: Arquivo da lista de espaço livre não encontrado. Criando um novo.");
-            this.freeBlocks = new ArrayList<>();
         } catch (IOException | ClassNotFoundException e) {
             System.err.println("ERRO: GerenciadorEspaco: Falha ao carregar a lista de espaço livre: " + e.getMessage());
             e.printStackTrace(); // Para depuração
-            this.freeBlocks = new ArrayList<>(); // Reseta a lista em caso de erro
+            limparEmMemoria(); // Reseta a lista em caso de erro
+        }
+    }
+
+    @SuppressWarnings("unchecked") // Suprime o aviso de cast de readObject
+    private void carregarFormatoAntigo(InputStream in) throws IOException, ClassNotFoundException {
+        Object obj = new ObjectInputStream(in).readObject();
+        if (!(obj instanceof List)) {
+            throw new IOException("Conteúdo do arquivo da lista de espaço livre é inválido.");
+        }
+        for (FreeBlock block : (List<FreeBlock>) obj) {
+            adicionarCarregado(block.getOffset(), block.getSize());
+        }
+    }
+
+    private void carregarSnapshot(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC_SNAPSHOT) {
+            throw new IOException("Arquivo da lista de espaço livre em formato desconhecido.");
+        }
+        geracao = in.readLong();
+        int quantidade = in.readInt();
+        for (int i = 0; i < quantidade; i++) {
+            adicionarCarregado(in.readLong(), in.readInt());
+        }
+    }
+
+    private void adicionarCarregado(long offset, int size) {
+        // Filtrar blocos inválidos que podem ter sido persistidos no passado
+        if (offset >= dataStartOffset && size > 0) {
+            inserirJuntando(offset, offset + size);
+        }
+    }
+
+    // Reaplica as entradas do log da geração atual. Uma entrada incompleta no fim (gravação
+    // interrompida) é descartada.
+    private void reaplicarLog() throws IOException {
+        if (!Files.exists(caminhoLog)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(caminhoLog)))) {
+            if (Files.size(caminhoLog) < TAMANHO_CABECALHO_LOG || in.readInt() != MAGIC_LOG || in.readLong() != geracao) {
+                return; // Log de outro snapshot: tudo o que ele tinha já está no snapshot atual
+            }
+            while (true) {
+                byte tipo;
+                long offset;
+                int size;
+                try {
+                    tipo = in.readByte();
+                    offset = in.readLong();
+                    size = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (tipo == LOG_LIVRE) {
+                    adicionarCarregado(offset, size);
+                } else if (tipo == LOG_ALOCADO) {
+                    removerTrecho(offset, offset + size);
+                } else {
+                    System.err.println("AVISO: GerenciadorEspaco: Entrada desconhecida no log da lista livre. Leitura interrompida.");
+                    break;
+                }
+                entradasNoLog++;
+            }
+        }
+    }
+
+    // Abre o log para acrescentar entradas. Se ele não pertencer ao snapshot carregado, grava um snapshot
+    // novo, que começa um log vazio.
+    private void abrirLog() {
+        try {
+            boolean logValido = false;
+            if (Files.exists(caminhoLog) && Files.size(caminhoLog) >= TAMANHO_CABECALHO_LOG && Files.exists(Paths.get(freeListFilePath))) {
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(caminhoLog))) {
+                    logValido = in.readInt() == MAGIC_LOG && in.readLong() == geracao;
+                }
+            }
+            if (!logValido) {
+                salvarSnapshot();
+                return;
+            }
+            log = FileChannel.open(caminhoLog, StandardOpenOption.WRITE);
+            // Descarta uma entrada incompleta no fim, para que as próximas fiquem alinhadas
+            log.truncate(TAMANHO_CABECALHO_LOG + (long) entradasNoLog * TAMANHO_ENTRADA_LOG);
+            log.position(log.size());
+        } catch (IOException e) {
+            // Sem log, a próxima alteração tenta gravar um snapshot, que o recria
+            System.err.println("ERRO: GerenciadorEspaco: Falha ao abrir o log da lista de espaço livre: " + e.getMessage());
+            e.printStackTrace(); // Para depuração
+            fecharLog();
         }
     }
 
     /**
-     * Salva a lista de espaços livres em um arquivo persistente.
+     * Registra uma alteração no log, com custo constante. Quando o log passa de algumas vezes o tamanho
+     * da lista, grava um snapshot e recomeça o log.
+     *
+     * Se a entrada não puder ser gravada, a lista inteira vai para um snapshot novo. Se nem isso for
+     * possível, a falha sobe ao chamador: a operação que alterou a lista não pode prosseguir, ou o arquivo
+     * de dados passaria a discordar da lista persistida (um trecho gravado como livre sob um registro).
+     *
+     * @throws UncheckedIOException Se a alteração não pôde ser persistida.
      */
-    private void salvarListaLivre() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(freeListFilePath))) {
-            oos.writeObject(freeBlocks);
-            // System.out.println("DEBUG: GerenciadorEspaco: Lista de espaço livre salva.");
+    private void registrarNoLog(byte tipo, long offset, int size) {
+        try {
+            if (log == null) {
+                salvarSnapshot();
+                return;
+            }
+            try {
+                bufferEntrada.clear();
+                bufferEntrada.put(tipo).putLong(offset).putInt(size);
+                bufferEntrada.flip();
+                while (bufferEntrada.hasRemaining()) {
+                    log.write(bufferEntrada);
+                }
+                entradasNoLog++;
+            } catch (IOException e) {
+                System.err.println("ERRO: GerenciadorEspaco: Falha ao gravar no log da lista de espaço livre: " + e.getMessage()
+                        + ". Gravando um snapshot da lista.");
+                fecharLog();
+                salvarSnapshot();
+                return;
+            }
         } catch (IOException e) {
-            System.err.println("ERRO: GerenciadorEspaco: Falha ao salvar a lista de espaço livre: " + e.getMessage());
-            e.printStackTrace(); // Para depuração
+            throw new UncheckedIOException("Falha ao persistir a lista de espaço livre: " + e.getMessage(), e);
+        }
+        if (entradasNoLog >= Math.max(MIN_ENTRADAS_ANTES_DO_SNAPSHOT, 4 * blocosPorOffset.size())) {
+            try {
+                salvarSnapshot();
+            } catch (IOException e) {
+                // A entrada já está no log; o snapshot fica para a próxima alteração
+                System.err.println("ERRO: GerenciadorEspaco: Falha ao salvar a lista de espaço livre: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Força ao disco as entradas do log. Chamado nas barreiras de durabilidade do arquivo de dados, antes
+     * do fsync dele, para que nenhum registro durável fique num trecho que a lista persistida dá como livre.
+     */
+    public void sincronizar() throws IOException {
+        FileChannel canal;
+        synchronized (this) {
+            canal = log;
+        }
+        if (canal == null) {
+            return; // Sem log aberto, cada alteração foi para um snapshot, que já é forçado
         }
+        try {
+            canal.force(false);
+        } catch (ClosedChannelException e) {
+            // Fechado por close() ou por uma falha de gravação; as alterações estão num snapshot forçado
+        }
+    }
+
+    private void fecharLog() {
+        if (log == null) {
+            return;
+        }
+        try {
+            log.close();
+        } catch (IOException e) {
+            // O log será recriado pelo próximo snapshot
+        }
+        log = null;
+    }
+
+    /**
+     * Salva um snapshot da lista de espaços livres (gravação atômica e forçada ao disco) e recomeça o log
+     * com a nova geração. Se o log não puder ser recomeçado, ele é fechado, e as alterações seguintes
+     * tentam um novo snapshot até conseguir reabri-lo.
+     */
+    private void salvarSnapshot() throws IOException {
+        long novaGeracao = geracao + 1;
+        Path destino = Paths.get(freeListFilePath);
+        Path temporario = Paths.get(freeListFilePath + ".tmp");
+        try (FileChannel canal = FileChannel.open(temporario, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal)));
+            out.writeInt(MAGIC_SNAPSHOT);
+            out.writeLong(novaGeracao);
+            out.writeInt(blocosPorOffset.size());
+            for (FreeBlock block : blocosPorOffset.values()) {
+                out.writeLong(block.getOffset());
+                out.writeInt(block.getSize());
+            }
+            out.flush();
+            canal.force(true);
+        }
+        Files.move(temporario, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        geracao = novaGeracao;
+
+        // Só depois do snapshot no lugar o log antigo pode ser descartado. Um log que ficou com a geração
+        // anterior é ignorado na carga, então não pode continuar recebendo entradas.
+        try {
+            if (log == null) {
+                log = FileChannel.open(caminhoLog, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            ByteBuffer cabecalho = ByteBuffer.allocate(TAMANHO_CABECALHO_LOG);
+            cabecalho.putInt(MAGIC_LOG).putLong(geracao);
+            cabecalho.flip();
+            log.truncate(0);
+            log.position(0);
+            while (cabecalho.hasRemaining()) {
+                log.write(cabecalho);
+            }
+            entradasNoLog = 0;
+        } catch (IOException e) {
+            fecharLog();
+            throw e;
+        }
+    }
+
+    private void limparEmMemoria() {
+        blocosPorOffset.clear();
+        blocosPorTamanho.clear();
+        totalBytesLivres = 0;
     }
 
     /**
      * Limpa a lista de blocos livres em memória e no arquivo persistente.
      */
     public synchronized void clearFreeList() {
-        freeBlocks.clear();
-        salvarListaLivre(); // Salva a lista vazia
+        limparEmMemoria();
+        try {
+            salvarSnapshot(); // Salva a lista vazia
+        } catch (IOException e) {
+            throw new UncheckedIOException("Falha ao salvar a lista de espaço livre vazia: " + e.getMessage(), e);
+        }
         System.out.println("GerenciadorEspaco: Lista de espaço livre limpa.");
     }
 
+    /**
+     * Retorna a quantidade de blocos livres registrados.
+     */
+    public synchronized int getQuantidadeBlocosLivres() {
+        return blocosPorOffset.size();
+    }
+
+    /**
+     * Retorna a soma dos tamanhos de todos os blocos livres, em bytes.
+     */
+    public synchronized long getTotalBytesLivres() {
+        return totalBytesLivres;
+    }
+
     /**
      * Retorna informações dos blocos livres para depuração.
      * @return Uma lista de strings com a representação de cada bloco livre.
      */
     public synchronized List<String> getFreeBlocksInfo() {
         List<String> info = new ArrayList<>();
-        for (FreeBlock block : freeBlocks) {
+        for (FreeBlock block : blocosPorOffset.values()) {
             info.add(block.toString());
         }
         return info;
@@ -187,7 +582,13 @@ public class GerenciadorEspaco implements AutoCloseable { // Implementa AutoClos
     @Override
     public void close() throws IOException { // Adicionado throws IOException para consistência
         System.out.println("GerenciadorEspaco: Fechando e salvando lista de espaço livre...");
-        salvarListaLivre(); // Garante que a lista é salva ao fechar
+        synchronized (this) {
+            try {
+                salvarSnapshot(); // Garante que a lista é salva ao fechar, com o log vazio
+            } finally {
+                fecharLog();
+            }
+        }
         System.out.println("GerenciadorEspaco: Fechado.");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,200 @@
+package app;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// JSON mínimo para o ServidorHttp, sem dependências externas. A leitura devolve Map (objetos), List
+// (arrays), String, Long ou Double (números), Boolean e null; a escrita é feita direto num StringBuilder.
+final class Json {
+
+    private final String texto;
+    private int pos = 0;
+
+    private Json(String texto) {
+        this.texto = texto;
+    }
+
+    static Object ler(String texto) {
+        Json leitor = new Json(texto);
+        Object valor = leitor.lerValor();
+        leitor.pularEspacos();
+        if (leitor.pos != texto.length()) {
+            throw leitor.erro("conteúdo após o fim do valor");
+        }
+        return valor;
+    }
+
+    // Escreve o texto entre aspas, com os caracteres especiais escapados.
+    static void escreverTexto(StringBuilder saida, String valor) {
+        saida.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"': saida.append("\\\""); break;
+                case '\\': saida.append("\\\\"); break;
+                case '\n': saida.append("\\n"); break;
+                case '\r': saida.append("\\r"); break;
+                case '\t': saida.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        saida.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        saida.append(c);
+                    }
+            }
+        }
+        saida.append('"');
+    }
+
+    private Object lerValor() {
+        pularEspacos();
+        if (pos >= texto.length()) {
+            throw erro("fim inesperado");
+        }
+        char c = texto.charAt(pos);
+        switch (c) {
+            case '{': return lerObjeto();
+            case '[': return lerArray();
+            case '"': return lerTexto();
+            case 't': esperarPalavra("true"); return Boolean.TRUE;
+            case 'f': esperarPalavra("false"); return Boolean.FALSE;
+            case 'n': esperarPalavra("null"); return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return lerNumero();
+                }
+                throw erro("caractere inesperado '" + c + "'");
+        }
+    }
+
+    private Map<String, Object> lerObjeto() {
+        Map<String, Object> objeto = new LinkedHashMap<>();
+        pos++; // {
+        pularEspacos();
+        if (consumir('}')) {
+            return objeto;
+        }
+        do {
+            pularEspacos();
+            if (pos >= texto.length() || texto.charAt(pos) != '"') {
+                throw erro("nome de campo esperado");
+            }
+            String nome = lerTexto();
+            pularEspacos();
+            if (!consumir(':')) {
+                throw erro("':' esperado");
+            }
+            objeto.put(nome, lerValor());
+            pularEspacos();
+        } while (consumir(','));
+        if (!consumir('}')) {
+            throw erro("'}' esperado");
+        }
+        return objeto;
+    }
+
+    private List<Object> lerArray() {
+        List<Object> array = new ArrayList<>();
+        pos++; // [
+        pularEspacos();
+        if (consumir(']')) {
+            return array;
+        }
+        do {
+            array.add(lerValor());
+            pularEspacos();
+        } while (consumir(','));
+        if (!consumir(']')) {
+            throw erro("']' esperado");
+        }
+        return array;
+    }
+
+    private String lerTexto() {
+        StringBuilder valor = new StringBuilder();
+        pos++; // "
+        while (pos < texto.length()) {
+            char c = texto.charAt(pos++);
+            if (c == '"') {
+                return valor.toString();
+            }
+            if (c != '\\') {
+                valor.append(c);
+                continue;
+            }
+            if (pos >= texto.length()) {
+                break;
+            }
+            char escape = texto.charAt(pos++);
+            switch (escape) {
+                case '"': case '\\': case '/': valor.append(escape); break;
+                case 'b': valor.append('\b'); break;
+                case 'f': valor.append('\f'); break;
+                case 'n': valor.append('\n'); break;
+                case 'r': valor.append('\r'); break;
+                case 't': valor.append('\t'); break;
+                case 'u':
+                    if (pos + 4 > texto.length()) {
+                        throw erro("escape \\u incompleto");
+                    }
+                    try {
+                        valor.append((char) Integer.parseInt(texto.substring(pos, pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw erro("escape \\u inválido");
+                    }
+                    pos += 4;
+                    break;
+                default:
+                    throw erro("escape inválido '\\" + escape + "'");
+            }
+        }
+        throw erro("texto sem aspas de fechamento");
+    }
+
+    private Object lerNumero() {
+        int inicio = pos;
+        boolean decimal = false;
+        while (pos < texto.length()) {
+            char c = texto.charAt(pos);
+            if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            pos++;
+        }
+        String numero = texto.substring(inicio, pos);
+        try {
+            return decimal ? (Object) Double.parseDouble(numero) : (Object) Long.parseLong(numero);
+        } catch (NumberFormatException e) {
+            throw erro("número inválido '" + numero + "'");
+        }
+    }
+
+    private void esperarPalavra(String palavra) {
+        if (!texto.startsWith(palavra, pos)) {
+            throw erro("'" + palavra + "' esperado");
+        }
+        pos += palavra.length();
+    }
+
+    private boolean consumir(char c) {
+        if (pos < texto.length() && texto.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void pularEspacos() {
+        while (pos < texto.length() && Character.isWhitespace(texto.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private IllegalArgumentException erro(String mensagem) {
+        return new IllegalArgumentException("JSON inválido na posição " + pos + ": " + mensagem + ".");
+    }
+}
@@ -1,38 +1,140 @@
 package app;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
 import Models.Perfume;
+import Services.ArmazemPerfumes;
+import Services.ConfiguracaoArmazenamento;
 import Services.GerenciadorArquivos;
+import Services.GerenciadorFragmentado;
+import Services.ReplicaLeitura;
+import Services.ReplicacaoPrimario;
 import Structures.Arvore_BPlus;
 
 public class Main {
     private final Scanner scan = new Scanner(System.in);
-    private final Arvore_BPlus arvore;
-    private final GerenciadorArquivos gerenciador;
+    private final ArmazemPerfumes gerenciador;
+    private ReplicacaoPrimario replicacao; // null = sem seguidores
+    private boolean fechado = false;
+
+    // Seguidor: as leituras vêm de uma réplica local do primário, e as escritas são recusadas.
+    private Main(ArmazemPerfumes replica) {
+        this.gerenciador = replica;
+    }
 
     public Main() throws IOException, InterruptedException {
-        this.arvore = new Arvore_BPlus(3); // Ordem 3
-        this.gerenciador = new GerenciadorArquivos(arvore, "perfumes.dat");
+        // Criptografia AES opcional: -Dperfumes.keystore=<arquivo> e a senha em PERFUMES_KEYSTORE_SENHA
+        ConfiguracaoArmazenamento configuracao = ConfiguracaoArmazenamento.doAmbiente();
+        if (configuracao.getFragmentos() > 1) {
+            // -Dperfumes.fragmentos=N: um perfumes.dat por fragmento, em perfumes/fragmento-NN
+            this.gerenciador = new GerenciadorFragmentado(Paths.get("perfumes"), "perfumes.dat",
+                    configuracao.getFragmentos(), 3, configuracao);
+        } else {
+            this.gerenciador = new GerenciadorArquivos(new Arvore_BPlus(3), "perfumes.dat", configuracao); // Ordem 3
+        }
+        // -Dperfumes.replicacao.porta=N: envia as alterações a réplicas de leitura (ReplicaLeitura) nessa porta
+        Integer portaReplicacao = Integer.getInteger(ReplicacaoPrimario.PROPRIEDADE_PORTA);
+        if (portaReplicacao != null) {
+            if (!(gerenciador instanceof GerenciadorArquivos)) {
+                gerenciador.close();
+                throw new IllegalStateException("A replicação não está disponível com fragmentos.");
+            }
+            try {
+                this.replicacao = new ReplicacaoPrimario((GerenciadorArquivos) gerenciador, portaReplicacao);
+            } catch (IOException e) {
+                gerenciador.close();
+                throw e;
+            }
+            System.out.println("Replicação: aguardando réplicas na porta " + replicacao.getPorta() + ".");
+        }
     }
 
+    /**
+     * Abre um seguidor do primário que replica na porta informada (-Dperfumes.replicacao.porta no
+     * primário). A cópia local fica em -Dperfumes.replica.arquivo; sem ela, num arquivo próprio de cada
+     * seguidor, derivado da porta HTTP, para que vários rodem no mesmo diretório e cada um retome a
+     * própria cópia ao reiniciar.
+     */
+    public static Main seguidor(int portaPrimario, int portaHttp) throws IOException, InterruptedException {
+        String arquivo = System.getProperty(ReplicaLeitura.PROPRIEDADE_ARQUIVO, "perfumes-replica-" + portaHttp + ".dat");
+        long atrasoMaximoMs = Long.getLong(ReplicaLeitura.PROPRIEDADE_ATRASO_MAXIMO, ReplicaLeitura.ATRASO_MAXIMO_PADRAO_MS);
+        ReplicaLeitura replica = new ReplicaLeitura(new Arvore_BPlus(3), arquivo, portaPrimario, atrasoMaximoMs,
+                ConfiguracaoArmazenamento.doAmbiente());
+        System.out.println("Réplica de leitura de " + arquivo + ", seguindo o primário na porta " + portaPrimario + ".");
+        return new Main(replica);
+    }
+
+    // Sem argumentos, abre o menu interativo; com "--servidor [porta]", atende pela rede (ver ServidorHttp).
+    // Com "--replica <porta> [--servidor [porta]]", é um seguidor de leitura do primário que replica
+    // nessa porta: vários seguidores, cada um com sua porta HTTP, dividem as leituras.
     public static void main(String[] args) {
         Main app = null;
         try {
-            app = new Main();
-            app.menu();
+            int proximo = 0;
+            Integer portaPrimario = null;
+            if (args.length > 0 && "--replica".equals(args[0])) {
+                if (args.length < 2) {
+                    throw new IllegalArgumentException("Uso: --replica <porta do primário> [--servidor [porta]]");
+                }
+                portaPrimario = Integer.parseInt(args[1]);
+                proximo = 2;
+            }
+            boolean servidor = args.length > proximo && "--servidor".equals(args[proximo]);
+            int portaHttp = servidor && args.length > proximo + 1 ? Integer.parseInt(args[proximo + 1]) : ServidorHttp.PORTA_PADRAO;
+            app = portaPrimario == null ? new Main() : seguidor(portaPrimario, portaHttp);
+            if (servidor) {
+                app.servir(portaHttp);
+            } else {
+                app.menu();
+            }
         } catch (Exception e) {
             System.err.println("Erro crítico na aplicação: " + e.getMessage());
             e.printStackTrace();
         } finally {
-            if (app != null && app.gerenciador != null) {
-                try {
-                    app.gerenciador.close();
-                } catch (IOException e) {
-                    System.err.println("Erro ao fechar o gerenciador de arquivos: " + e.getMessage());
-                }
+            if (app != null) {
+                app.fechar();
+            }
+        }
+    }
+
+    // Atende pela rede até a JVM ser encerrada (Ctrl+C ou SIGTERM), fechando o armazém na saída.
+    public void servir(int porta) throws IOException, InterruptedException {
+        ServidorHttp servidor = new ServidorHttp(gerenciador, porta);
+        CountDownLatch encerrado = new CountDownLatch(1);
+        // A JVM não espera o fim da main ao encerrar: o próprio gancho para o servidor e fecha o armazém
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.parar(2);
+            fechar();
+            encerrado.countDown();
+        }, "encerramento-servidor"));
+        servidor.iniciar();
+        System.out.println("Servidor HTTP na porta " + servidor.getPorta() + " ("
+                + (servidor.isThreadsVirtuais() ? "threads virtuais" : "pool de threads") + "). Ctrl+C para encerrar.");
+        encerrado.await();
+    }
+
+    // Fecha a replicação e o armazém uma única vez, seja pela main ou pelo gancho de encerramento.
+    private synchronized void fechar() {
+        if (fechado) {
+            return;
+        }
+        fechado = true;
+        if (replicacao != null) {
+            try {
+                replicacao.close();
+            } catch (IOException e) {
+                System.err.println("Erro ao encerrar a replicação: " + e.getMessage());
+            }
+        }
+        if (gerenciador != null) {
+            try {
+                gerenciador.close();
+            } catch (IOException e) {
+                System.err.println("Erro ao fechar o gerenciador de arquivos: " + e.getMessage());
             }
         }
     }
@@ -45,6 +147,7 @@ public class Main {
             System.out.println("3. Atualizar perfume");
             System.out.println("4. Remover perfume");
             System.out.println("6. Buscar por padrão");
+            System.out.println("7. Métricas");
             System.out.println("5. Sair");
             System.out.print("Opção: ");
 
@@ -67,6 +170,9 @@ public class Main {
                 case 6:
                 	buscaPadrao();
                 	break;
+                case 7:
+                    System.out.print(gerenciador.relatorioMetricas());
+                    break;
                 case 5: {
                     System.out.println("Saindo...");
                     return;
@@ -111,7 +217,7 @@ public class Main {
     private void listarPerfumes() {
         try {
             System.out.println("\n=== PERFUMES ===");
-            List<Integer> idsAtivos = arvore.buscarTodosIds(); 
+            List<Integer> idsAtivos = gerenciador.buscarTodosIds(); 
 
             if (idsAtivos.isEmpty()) {
                 System.out.println("Nenhum perfume ativo encontrado.");
@@ -152,6 +258,7 @@ public class Main {
                 return;
             }
             Perfume existente = existenteOpt.get();
+            int versaoLida = existente.getVersion(); // Nenhum lock fica preso enquanto o usuário digita
 
             System.out.print("Novo nome (atual: " + existente.getNome() + "): ");
             String novoNome = scan.nextLine();
@@ -171,8 +278,11 @@ public class Main {
             existente.setEstoque(novoEstoque);
             //existente.validaPerfume();
             
-            gerenciador.atualizar(existente);
-            System.out.println("Perfume atualizado!");
+            if (gerenciador.atualizarSeVersao(existente, versaoLida)) {
+                System.out.println("Perfume atualizado!");
+            } else {
+                System.out.println("O perfume foi alterado por outra sessão durante a edição. Nada foi gravado; busque-o novamente.");
+            }
         } catch (IOException e) {
             System.err.println("Erro ao atualizar: " + e.getMessage());
             e.printStackTrace();
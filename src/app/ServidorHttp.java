@@ -0,0 +1,459 @@
+package app;
+
+import Models.Perfume;
+import Services.ArmazemPerfumes;
+import Services.GerenciadorArquivos;
+import Services.ReplicaDesatualizadaException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Expõe o armazém como serviço HTTP/JSON (modo --servidor do Main), sobre o com.sun.net.httpserver
+// do JDK. As conexões são persistentes (keep-alive): toda resposta leva Content-Length, e uma conexão
+// ociosa custa só o socket, pois o despachante do servidor a acompanha sem ocupar thread.
+//
+// Cada requisição roda numa thread virtual quando a JVM as oferece (JDK 21+), então dezenas de milhares
+// de clientes simultâneos, bloqueados em I/O do armazém, não esgotam threads. O executor é obtido por
+// reflexão para o código continuar compilando para a versão do projeto; em JVMs anteriores, as
+// requisições usam um pool fixo de THREADS_SEM_VIRTUAIS threads.
+//
+// Rotas (corpos e respostas em JSON; perfume = {"id","nome","marca","valor","estoque","ativo","versao"}):
+//   GET    /perfumes                  IDs de todos os perfumes ativos
+//   GET    /perfumes?ids=1,2,3        Vários perfumes de uma vez, na ordem pedida (os inexistentes ficam de fora)
+//   GET    /perfumes?padrao=texto     Busca por nome ou marca
+//   GET    /perfumes/{id}             Um perfume (404 se não existir)
+//   POST   /perfumes                  Cria um perfume; o ID é opcional (409 se já existir). Responde {"id"}
+//   POST   /perfumes/lote             Cria um array de perfumes; um resultado por perfume, na ordem
+//   PUT    /perfumes/{id}             Atualiza; com "versao" no corpo, só se ainda for essa (409 se não)
+//   DELETE /perfumes/{id}[?versao=v]  Remove, com a mesma checagem opcional de versão
+//   POST   /perfumes/{id}/estoque     {"delta": n} soma ao estoque; 409 se ficaria negativo
+//   PUT    /perfumes/{id}/valor       {"valor": n} troca o valor
+//   GET    /metricas                  Relatório de latências e recursos do armazém, em texto
+//
+// Servindo uma réplica de leitura (Main --replica), as escritas respondem 405 e as leituras, 503 se a
+// réplica estiver atrasada demais em relação ao primário.
+public class ServidorHttp {
+
+    public static final int PORTA_PADRAO = 8080;
+    private static final String CAMINHO_BASE = "/perfumes";
+    private static final int BACKLOG = 4096;
+    private static final int THREADS_SEM_VIRTUAIS = 256;
+    private static final int TAMANHO_MAXIMO_CORPO = 16 * 1024 * 1024;
+    private static final int MAX_IDS_POR_CONSULTA = 1000;
+    private static final String CAMINHO_METRICAS = "/metricas";
+    private static final String TIPO_JSON = "application/json; charset=utf-8";
+    private static final String TIPO_TEXTO = "text/plain; charset=utf-8";
+
+    private final ArmazemPerfumes armazem;
+    private final HttpServer servidor;
+    private final ExecutorService executor;
+    private final boolean threadsVirtuais;
+
+    public ServidorHttp(ArmazemPerfumes armazem, int porta) throws IOException {
+        this.armazem = armazem;
+        this.servidor = HttpServer.create(new InetSocketAddress(porta), BACKLOG);
+        ExecutorService virtual = criarExecutorVirtual();
+        this.threadsVirtuais = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(THREADS_SEM_VIRTUAIS);
+        this.servidor.setExecutor(executor);
+        this.servidor.createContext(CAMINHO_BASE, this::tratar);
+        this.servidor.createContext(CAMINHO_METRICAS, this::tratarMetricas);
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor(), se a JVM tiver threads virtuais; null caso contrário.
+    private static ExecutorService criarExecutorVirtual() {
+        try {
+            Method fabrica = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) fabrica.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null; // JDK sem threads virtuais (ou com elas em preview desabilitado)
+        }
+    }
+
+    public void iniciar() {
+        servidor.start();
+    }
+
+    // Para de aceitar conexões e espera até 'esperaSegundos' pelas requisições em andamento.
+    public void parar(int esperaSegundos) {
+        servidor.stop(esperaSegundos);
+        executor.shutdown();
+    }
+
+    public int getPorta() {
+        return servidor.getAddress().getPort();
+    }
+
+    public boolean isThreadsVirtuais() {
+        return threadsVirtuais;
+    }
+
+    // Roteamento
+
+    private void tratar(HttpExchange troca) {
+        try {
+            String metodo = troca.getRequestMethod();
+            String[] partes = troca.getRequestURI().getPath().substring(CAMINHO_BASE.length()).split("/");
+            // partes[0] é vazio ("/perfumes/x" -> ["", "x"]) ou o resto de um prefixo como "/perfumesX"
+            if (partes.length > 0 && !partes[0].isEmpty()) {
+                throw new ErroHttp(404, "Rota inexistente.");
+            }
+            if (partes.length <= 1) {
+                if ("GET".equals(metodo)) {
+                    consultar(troca);
+                } else if ("POST".equals(metodo)) {
+                    criar(troca);
+                } else {
+                    throw new ErroHttp(405, "Método não permitido.");
+                }
+            } else if (partes.length == 2 && "lote".equals(partes[1])) {
+                exigirMetodo(metodo, "POST");
+                criarLote(troca);
+            } else if (partes.length == 2) {
+                int id = lerId(partes[1]);
+                if ("GET".equals(metodo)) {
+                    buscar(troca, id);
+                } else if ("PUT".equals(metodo)) {
+                    atualizar(troca, id);
+                } else if ("DELETE".equals(metodo)) {
+                    deletar(troca, id);
+                } else {
+                    throw new ErroHttp(405, "Método não permitido.");
+                }
+            } else if (partes.length == 3 && "estoque".equals(partes[2])) {
+                exigirMetodo(metodo, "POST");
+                ajustarEstoque(troca, lerId(partes[1]));
+            } else if (partes.length == 3 && "valor".equals(partes[2])) {
+                exigirMetodo(metodo, "PUT");
+                definirValor(troca, lerId(partes[1]));
+            } else {
+                throw new ErroHttp(404, "Rota inexistente.");
+            }
+        } catch (ErroHttp e) {
+            responderErro(troca, e.status, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            responderErro(troca, 400, e.getMessage());
+        } catch (IllegalStateException e) {
+            responderErro(troca, 409, e.getMessage());
+        } catch (UnsupportedOperationException e) {
+            responderErro(troca, 405, e.getMessage()); // Escrita numa réplica de leitura
+        } catch (ReplicaDesatualizadaException e) {
+            responderErro(troca, 503, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            responderErro(troca, 503, "Requisição interrompida.");
+        } catch (Exception e) {
+            responderErro(troca, 500, e.getMessage());
+        } finally {
+            troca.close();
+        }
+    }
+
+    // Endpoints
+
+    private void consultar(HttpExchange troca) throws Exception {
+        Map<String, String> parametros = lerParametros(troca);
+        StringBuilder saida = new StringBuilder();
+        if (parametros.containsKey("ids")) {
+            String[] ids = parametros.get("ids").split(",");
+            if (ids.length > MAX_IDS_POR_CONSULTA) {
+                throw new ErroHttp(400, "No máximo " + MAX_IDS_POR_CONSULTA + " IDs por consulta.");
+            }
+            saida.append('[');
+            boolean primeiro = true;
+            for (String texto : ids) {
+                Optional<Perfume> perfume = armazem.buscar(lerId(texto.trim()));
+                if (perfume.isPresent() && perfume.get().isAtivo()) {
+                    if (!primeiro) {
+                        saida.append(',');
+                    }
+                    escreverPerfume(saida, perfume.get());
+                    primeiro = false;
+                }
+            }
+            saida.append(']');
+        } else if (parametros.containsKey("padrao")) {
+            escreverPerfumes(saida, armazem.buscarPorPadrao(parametros.get("padrao")));
+        } else {
+            saida.append('[');
+            List<Integer> ids = armazem.buscarTodosIds();
+            for (int i = 0; i < ids.size(); i++) {
+                if (i > 0) {
+                    saida.append(',');
+                }
+                saida.append(ids.get(i));
+            }
+            saida.append(']');
+        }
+        responder(troca, 200, saida);
+    }
+
+    private void buscar(HttpExchange troca, int id) throws Exception {
+        Optional<Perfume> perfume = armazem.buscar(id);
+        if (!perfume.isPresent() || !perfume.get().isAtivo()) {
+            throw new ErroHttp(404, "Perfume " + id + " não encontrado.");
+        }
+        StringBuilder saida = new StringBuilder();
+        escreverPerfume(saida, perfume.get());
+        responder(troca, 200, saida);
+    }
+
+    private void criar(HttpExchange troca) throws Exception {
+        Perfume perfume = lerPerfume(comoObjeto(lerCorpo(troca)), null);
+        armazem.criar(perfume); // ID já existente: IllegalStateException, respondida com 409
+        responder(troca, 201, new StringBuilder("{\"id\":").append(perfume.getId()).append('}'));
+    }
+
+    private void criarLote(HttpExchange troca) throws Exception {
+        Object corpo = lerCorpo(troca);
+        if (!(corpo instanceof List)) {
+            throw new ErroHttp(400, "Era esperado um array de perfumes.");
+        }
+        List<Perfume> perfumes = new ArrayList<>();
+        for (Object item : (List<?>) corpo) {
+            perfumes.add(lerPerfume(comoObjeto(item), null));
+        }
+        List<GerenciadorArquivos.ResultadoLote> resultados;
+        try {
+            resultados = armazem.processarLote(perfumes).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                throw (UnsupportedOperationException) e.getCause();
+            }
+            throw new IOException("Falha no lote: " + e.getCause().getMessage(), e.getCause());
+        }
+        StringBuilder saida = new StringBuilder("[");
+        for (int i = 0; i < resultados.size(); i++) {
+            GerenciadorArquivos.ResultadoLote resultado = resultados.get(i);
+            if (i > 0) {
+                saida.append(',');
+            }
+            saida.append("{\"id\":").append(resultado.getId()).append(",\"sucesso\":").append(resultado.isSucesso());
+            if (!resultado.isSucesso()) {
+                saida.append(",\"erro\":");
+                Json.escreverTexto(saida, String.valueOf(resultado.getErro()));
+            }
+            saida.append('}');
+        }
+        saida.append(']');
+        responder(troca, 200, saida);
+    }
+
+    private void atualizar(HttpExchange troca, int id) throws Exception {
+        Map<?, ?> campos = comoObjeto(lerCorpo(troca));
+        Perfume perfume = lerPerfume(campos, id);
+        exigirExistente(id);
+        if (campos.get("versao") != null) {
+            if (!armazem.atualizarSeVersao(perfume, lerInteiro(campos, "versao"))) {
+                throw new ErroHttp(409, "O perfume " + id + " foi alterado desde a leitura.");
+            }
+        } else {
+            armazem.atualizar(perfume);
+        }
+        responder(troca, 200, new StringBuilder("{\"versao\":").append(perfume.getVersion()).append('}'));
+    }
+
+    private void deletar(HttpExchange troca, int id) throws Exception {
+        String versao = lerParametros(troca).get("versao");
+        exigirExistente(id);
+        if (versao != null) {
+            if (!armazem.deletarSeVersao(id, lerId(versao))) {
+                throw new ErroHttp(409, "O perfume " + id + " foi alterado desde a leitura.");
+            }
+        } else {
+            armazem.deletar(id);
+        }
+        responder(troca, 204, null);
+    }
+
+    private void ajustarEstoque(HttpExchange troca, int id) throws Exception {
+        int delta = lerInteiro(comoObjeto(lerCorpo(troca)), "delta");
+        exigirExistente(id);
+        int estoque = armazem.ajustarEstoque(id, delta);
+        responder(troca, 200, new StringBuilder("{\"estoque\":").append(estoque).append('}'));
+    }
+
+    private void definirValor(HttpExchange troca, int id) throws Exception {
+        int valor = lerInteiro(comoObjeto(lerCorpo(troca)), "valor");
+        exigirExistente(id);
+        armazem.definirValor(id, valor);
+        responder(troca, 204, null);
+    }
+
+    // Leitura da requisição
+
+    private static void exigirMetodo(String metodo, String esperado) throws ErroHttp {
+        if (!esperado.equals(metodo)) {
+            throw new ErroHttp(405, "Método não permitido.");
+        }
+    }
+
+    // Responde 404 antes de chamar uma operação que falharia com IOException para um ID inexistente.
+    private void exigirExistente(int id) throws Exception {
+        if (!armazem.buscarProjecao(id).isPresent()) {
+            throw new ErroHttp(404, "Perfume " + id + " não encontrado.");
+        }
+    }
+
+    private static int lerId(String texto) throws ErroHttp {
+        try {
+            int id = Integer.parseInt(texto);
+            if (id <= 0) {
+                throw new NumberFormatException();
+            }
+            return id;
+        } catch (NumberFormatException e) {
+            throw new ErroHttp(400, "Número inválido: '" + texto + "'.");
+        }
+    }
+
+    private static Object lerCorpo(HttpExchange troca) throws IOException, ErroHttp {
+        try (InputStream entrada = troca.getRequestBody()) {
+            byte[] corpo = entrada.readNBytes(TAMANHO_MAXIMO_CORPO + 1);
+            if (corpo.length > TAMANHO_MAXIMO_CORPO) {
+                throw new ErroHttp(413, "Corpo maior que " + TAMANHO_MAXIMO_CORPO + " bytes.");
+            }
+            return Json.ler(new String(corpo, StandardCharsets.UTF_8));
+        }
+    }
+
+    private static Map<String, String> lerParametros(HttpExchange troca) {
+        Map<String, String> parametros = new HashMap<>();
+        String consulta = troca.getRequestURI().getRawQuery();
+        if (consulta == null || consulta.isEmpty()) {
+            return parametros;
+        }
+        for (String par : consulta.split("&")) {
+            int igual = par.indexOf('=');
+            String nome = igual < 0 ? par : par.substring(0, igual);
+            String valor = igual < 0 ? "" : par.substring(igual + 1);
+            parametros.put(URLDecoder.decode(nome, StandardCharsets.UTF_8), URLDecoder.decode(valor, StandardCharsets.UTF_8));
+        }
+        return parametros;
+    }
+
+    private static Map<?, ?> comoObjeto(Object valor) throws ErroHttp {
+        if (!(valor instanceof Map)) {
+            throw new ErroHttp(400, "Era esperado um objeto JSON.");
+        }
+        return (Map<?, ?>) valor;
+    }
+
+    // Monta o perfume do corpo; 'id' vem da rota, ou do campo "id" (opcional) na criação.
+    private static Perfume lerPerfume(Map<?, ?> campos, Integer id) throws ErroHttp {
+        Object nome = campos.get("nome");
+        Object marca = campos.get("marca");
+        if (!(nome instanceof String) || !(marca instanceof String)) {
+            throw new ErroHttp(400, "Os campos \"nome\" e \"marca\" são obrigatórios.");
+        }
+        int idPerfume = id != null ? id : 0;
+        if (id == null && campos.get("id") != null) {
+            idPerfume = lerInteiro(campos, "id");
+            if (idPerfume <= 0) {
+                throw new ErroHttp(400, "O campo \"id\" deve ser um número positivo.");
+            }
+        }
+        return new Perfume(idPerfume, (String) nome, (String) marca, lerInteiro(campos, "valor"), lerInteiro(campos, "estoque"));
+    }
+
+    private static int lerInteiro(Map<?, ?> campos, String nome) throws ErroHttp {
+        Object valor = campos.get(nome);
+        if (!(valor instanceof Long) || (Long) valor < Integer.MIN_VALUE || (Long) valor > Integer.MAX_VALUE) {
+            throw new ErroHttp(400, "O campo \"" + nome + "\" deve ser um número inteiro.");
+        }
+        return ((Long) valor).intValue();
+    }
+
+    // Escrita da resposta
+
+    private static void escreverPerfume(StringBuilder saida, Perfume perfume) {
+        saida.append("{\"id\":").append(perfume.getId()).append(",\"nome\":");
+        Json.escreverTexto(saida, perfume.getNome());
+        saida.append(",\"marca\":");
+        Json.escreverTexto(saida, perfume.getMarca());
+        saida.append(",\"valor\":").append(perfume.getValor())
+                .append(",\"estoque\":").append(perfume.getEstoque())
+                .append(",\"ativo\":").append(perfume.isAtivo())
+                .append(",\"versao\":").append(perfume.getVersion()).append('}');
+    }
+
+    private static void escreverPerfumes(StringBuilder saida, List<Perfume> perfumes) {
+        saida.append('[');
+        for (int i = 0; i < perfumes.size(); i++) {
+            if (i > 0) {
+                saida.append(',');
+            }
+            escreverPerfume(saida, perfumes.get(i));
+        }
+        saida.append(']');
+    }
+
+    private void tratarMetricas(HttpExchange troca) {
+        try {
+            if (!CAMINHO_METRICAS.equals(troca.getRequestURI().getPath())) {
+                throw new ErroHttp(404, "Rota inexistente.");
+            }
+            exigirMetodo(troca.getRequestMethod(), "GET");
+            responder(troca, 200, armazem.relatorioMetricas(), TIPO_TEXTO);
+        } catch (ErroHttp e) {
+            responderErro(troca, e.status, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            responderErro(troca, 500, e.getMessage());
+        } finally {
+            troca.close();
+        }
+    }
+
+    private static void responder(HttpExchange troca, int status, CharSequence corpo) throws IOException {
+        responder(troca, status, corpo, TIPO_JSON);
+    }
+
+    private static void responder(HttpExchange troca, int status, CharSequence corpo, String tipo) throws IOException {
+        if (corpo == null) {
+            troca.sendResponseHeaders(status, -1); // Sem corpo
+            return;
+        }
+        byte[] bytes = corpo.toString().getBytes(StandardCharsets.UTF_8);
+        troca.getResponseHeaders().set("Content-Type", tipo);
+        troca.sendResponseHeaders(status, bytes.length);
+        try (OutputStream saida = troca.getResponseBody()) {
+            saida.write(bytes);
+        }
+    }
+
+    private static void responderErro(HttpExchange troca, int status, String mensagem) {
+        StringBuilder corpo = new StringBuilder("{\"erro\":");
+        Json.escreverTexto(corpo, mensagem == null ? "Erro interno." : mensagem);
+        corpo.append('}');
+        try {
+            responder(troca, status, corpo);
+        } catch (IOException e) {
+            // Cliente desconectado ou resposta já iniciada: não há mais o que enviar
+        }
+    }
+
+    // Erro com o status HTTP da resposta.
+    private static final class ErroHttp extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int status;
+
+        ErroHttp(int status, String mensagem) {
+            super(mensagem);
+            this.status = status;
+        }
+    }
+}
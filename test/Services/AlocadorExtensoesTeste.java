@@ -0,0 +1,60 @@
+package Services;
+
+import Models.Perfume;
+import Structures.Arvore_BPlus;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Regressão: inserções vindas de muitas threads de vida curta (uma por requisição no ServidorHttp,
+// workers do lote) não podem reservar um trecho de alocação cada. O arquivo deve crescer só com os
+// registros, mais no máximo um trecho por arena e a extensão pré-alocada.
+public class AlocadorExtensoesTeste {
+
+    private static final int THREADS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Path diretorio = Files.createTempDirectory("alocador-extensoes");
+        Path arquivo = diretorio.resolve("perfumes.dat");
+        int arenas = Math.max(1, Runtime.getRuntime().availableProcessors());
+        long limiteRegistros = GerenciadorArquivos.FILE_HEADER_TOTAL_SIZE + (long) THREADS * 2 * Perfume.RECORD_SIZE;
+
+        GerenciadorArquivos gerenciador = new GerenciadorArquivos(new Arvore_BPlus(5000), arquivo.toString());
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                final int n = i;
+                AtomicReference<Exception> falha = new AtomicReference<>();
+                Thread thread = new Thread(() -> {
+                    try {
+                        gerenciador.criar(new Perfume(0, "Perfume " + n, "Marca", 1, n));
+                    } catch (Exception e) {
+                        falha.set(e);
+                    }
+                });
+                thread.start();
+                thread.join();
+                if (falha.get() != null) {
+                    throw falha.get();
+                }
+            }
+            verificar(gerenciador.getRegistrosAtivos() == THREADS, "registros ativos: " + gerenciador.getRegistrosAtivos());
+
+            long tamanho = Files.size(arquivo);
+            long limite = limiteRegistros + (long) (arenas + AlocadorExtensoes.TRECHOS_POR_EXTENSAO) * AlocadorExtensoes.TAMANHO_TRECHO;
+            verificar(tamanho <= limite, "arquivo com " + tamanho + " bytes após " + THREADS + " threads, limite " + limite);
+        } finally {
+            gerenciador.close();
+        }
+
+        long tamanhoFechado = Files.size(arquivo);
+        long limiteFechado = limiteRegistros + (long) arenas * AlocadorExtensoes.TAMANHO_TRECHO;
+        verificar(tamanhoFechado <= limiteFechado, "arquivo com " + tamanhoFechado + " bytes após close(), limite " + limiteFechado);
+        System.out.println("AlocadorExtensoesTeste: ok (" + tamanhoFechado + " bytes para " + THREADS + " registros)");
+    }
+
+    private static void verificar(boolean condicao, String mensagem) {
+        if (!condicao) {
+            throw new AssertionError(mensagem);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package Structures;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Regressão: depois de divisões de folhas, toda chave inserida continua encontrável por buscar(),
+// inclusive as chaves promovidas ao pai, em ordens pequenas (muitas divisões, inclusive de nós
+// internos) e na ordem usada pelo Main.
+public class ArvoreBPlusTeste {
+
+    private static final int[] ORDENS = {3, 4, 5, 7, 64, 5000};
+    private static final int CHAVES = 20000;
+
+    public static void main(String[] args) {
+        for (int ordem : ORDENS) {
+            verificarBuscas(ordem, false);
+            verificarBuscas(ordem, true);
+            verificarLote(ordem);
+        }
+        System.out.println("ArvoreBPlusTeste: ok");
+    }
+
+    // Insere uma a uma, em ordem crescente ou embaralhada, e busca todas.
+    private static void verificarBuscas(int ordem, boolean embaralhar) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 1; id <= CHAVES; id++) {
+            ids.add(id);
+        }
+        if (embaralhar) {
+            Collections.shuffle(ids, new Random(ordem));
+        }
+        Arvore_BPlus arvore = new Arvore_BPlus(ordem);
+        for (int id : ids) {
+            arvore.inserir(id, posicaoDe(id));
+        }
+        verificarTodas(arvore, "ordem " + ordem + (embaralhar ? ", embaralhada" : ", crescente"));
+    }
+
+    private static void verificarLote(int ordem) {
+        int[] ids = new int[CHAVES];
+        long[] posicoes = new long[CHAVES];
+        for (int i = 0; i < CHAVES; i++) {
+            ids[i] = i + 1;
+            posicoes[i] = posicaoDe(i + 1);
+        }
+        Arvore_BPlus arvore = new Arvore_BPlus(ordem);
+        arvore.inserirTodos(ids, posicoes, CHAVES);
+        verificarTodas(arvore, "ordem " + ordem + ", lote");
+    }
+
+    private static void verificarTodas(Arvore_BPlus arvore, String caso) {
+        int perdidas = 0;
+        int primeira = -1;
+        for (int id = 1; id <= CHAVES; id++) {
+            if (arvore.buscar(id) != posicaoDe(id)) {
+                if (primeira == -1) {
+                    primeira = id;
+                }
+                perdidas++;
+            }
+        }
+        if (perdidas > 0) {
+            throw new AssertionError(caso + ": " + perdidas + " de " + CHAVES + " chaves não encontradas (primeira: " + primeira + ")");
+        }
+    }
+
+    private static long posicaoDe(int id) {
+        return 1000L + id * 256L;
+    }
+}